@@ -0,0 +1,88 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Realistische Eingaben für die Benchmarks: lange Szenentexte und /history-Antworten, wie ComfyUI sie liefert.
+ */
+final class BenchmarkData {
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String[] WORDS = {
+            "der", "Held", "zog", "sein", "verzaubertes", "Schwert", "und", "trat", "in", "die", "dunkle", "Halle",
+            "wo", "der", "Dämonenkönig", "bereits", "wartete", "Nebel", "kroch", "über", "kalte", "Steine", "während",
+            "ferne", "Glocken", "läuteten", "."
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Szenentext mit ca. {@code words} Wörtern und einer IMAGE_PROMPT-Zeile am Ende.
+     */
+    static String sceneText(int words) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(i % 40 == 39 ? '\n' : ' ');
+        }
+        sb.append("\n\nIMAGE_PROMPT: a hero with an enchanted sword facing the demon king in a misty gothic hall, cinematic, highly detailed\n");
+        return sb.toString();
+    }
+
+    /**
+     * Zerlegt den Text in Chunks, wie sie ein gestreamtes LLM liefert (wenige Zeichen pro Token).
+     */
+    static List<String> chunks(String text, int chunkSize) {
+        List<String> chunks = new ArrayList<>(text.length() / chunkSize + 1);
+        for (int i = 0; i < text.length(); i += chunkSize) {
+            chunks.add(text.substring(i, Math.min(text.length(), i + chunkSize)));
+        }
+        return chunks;
+    }
+
+    /**
+     * /history/{id}-Antwort im ComfyUI-Format: {promptId: {prompt: [...], outputs: {...}, status: {...}}}.
+     */
+    static JsonNode historyPayload(String promptId, String imageId) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        ObjectNode entry = root.putObject(promptId);
+
+        ArrayNode prompt = entry.putArray("prompt");
+        prompt.add(7);
+        prompt.add(promptId);
+        try (InputStream in = BenchmarkData.class.getClassLoader().getResourceAsStream("stable-diffusion-workflows/default.json")) {
+            prompt.add(MAPPER.readTree(in));
+        }
+        prompt.addObject().put("client_id", "benchmark-client");
+        prompt.addArray().add("9");
+
+        ObjectNode outputs = entry.putObject("outputs");
+        ArrayNode images = outputs.putObject("9").putArray("images");
+        images.addObject()
+                .put("filename", imageId + "_00001_.png")
+                .put("subfolder", "")
+                .put("type", "output");
+
+        ObjectNode status = entry.putObject("status");
+        status.put("status_str", "success");
+        status.put("completed", true);
+        ArrayNode messages = status.putArray("messages");
+        for (String type : new String[]{"execution_start", "execution_cached", "execution_success"}) {
+            ArrayNode msg = messages.addArray();
+            msg.add(type);
+            msg.addObject().put("prompt_id", promptId).put("timestamp", 1729150000000L);
+        }
+        return root;
+    }
+}
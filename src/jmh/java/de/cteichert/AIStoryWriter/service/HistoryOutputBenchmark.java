@@ -0,0 +1,55 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bildpfad aus /history/{id}-Antworten auflösen (Parsen des Bodys + tryExtractPathFromOutputs).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryOutputBenchmark {
+    private static final String PROMPT_ID = "0b8f6c4e-6c6a-4f4e-9d6e-3b1f4c7a2e11";
+
+    StableDiffusionService service;
+    JsonNode history;
+    byte[] historyBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        WorkflowTemplateRegistry registry = new WorkflowTemplateRegistry("default");
+        registry.load();
+        // Pool ohne Websocket/Watcher/Health-Checks, hier wird nur das Output-Verzeichnis gebraucht
+        ComfyUiBackendPool pool = new ComfyUiBackendPool(List.of("http://localhost:8188"), List.of(), "target/jmh-output",
+                false, false, Duration.ZERO, 3, 2, WebClient.builder(),
+                new ResiliencePolicies(new SimpleMeterRegistry(), Duration.ofSeconds(30), Duration.ofMinutes(15), false,
+                        Duration.ofSeconds(30), Duration.ofMinutes(10), false, 3.0, 20, 5, Duration.ofSeconds(30)),
+                new SimpleMeterRegistry());
+        GenerationCache cache = new GenerationCache(false, "target/jmh-cache", DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+        service = new StableDiffusionService(pool, registry, cache, new SimpleMeterRegistry(), Duration.ZERO);
+        history = BenchmarkData.historyPayload(PROMPT_ID, "3f1c2b9a-8d7e-4c6b-a5f4-e3d2c1b0a9f8");
+        historyBytes = BenchmarkData.MAPPER.writeValueAsBytes(history);
+    }
+
+    @Benchmark
+    public String extractFromParsedHistory() {
+        return service.extractPathFromHistory(history, PROMPT_ID);
+    }
+
+    @Benchmark
+    public String parseAndExtract() throws IOException {
+        return service.extractPathFromHistory(BenchmarkData.MAPPER.readTree(historyBytes), PROMPT_ID);
+    }
+}
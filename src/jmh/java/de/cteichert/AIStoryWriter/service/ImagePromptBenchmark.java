@@ -0,0 +1,58 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * IMAGE_PROMPT-Erkennung auf langen Szenentexten:
+ * Regex-Suche + replaceAll (wie in StoryService) gegen den inkrementellen {@link ImagePromptScanner}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImagePromptBenchmark {
+
+    @Param({"500", "3000"})
+    int words;
+
+    String sceneText;
+    List<String> chunks;
+
+    @Setup
+    public void setup() {
+        sceneText = BenchmarkData.sceneText(words);
+        chunks = BenchmarkData.chunks(sceneText, 6);
+    }
+
+    @Benchmark
+    public String regexFind() {
+        Matcher m = StoryService.IMAGE_PROMPT_PATTERN.matcher(sceneText);
+        return m.find() ? m.group(1).trim() : null;
+    }
+
+    @Benchmark
+    public String regexReplaceAllRecompiled() {
+        // so steht es in StoryService: replaceAll kompiliert das Pattern bei jedem Aufruf neu
+        return sceneText.replaceAll(StoryService.IMAGE_PROMPT_PATTERN.pattern(), "").trim();
+    }
+
+    @Benchmark
+    public String regexReplaceAllPrecompiled() {
+        return StoryService.IMAGE_PROMPT_PATTERN.matcher(sceneText).replaceAll("").trim();
+    }
+
+    @Benchmark
+    public String scannerOverStreamedChunks() {
+        ImagePromptScanner scanner = new ImagePromptScanner();
+        for (String chunk : chunks) {
+            scanner.append(chunk);
+        }
+        return scanner.finish().orElse(null);
+    }
+}
@@ -0,0 +1,101 @@
+package de.cteichert.AIStoryWriter.service;
+
+import java.util.List;
+
+/**
+ * Unveränderte Kopie des früheren StoryService.extractTextFromResp (Reflection bei jedem Aufruf),
+ * nur noch als Baseline für {@link ResponseTextBenchmark}.
+ */
+final class LegacyResponseTextExtractor {
+
+    @SuppressWarnings({"rawtypes"})
+    String extractTextFromResp(Object resp) {
+        switch (resp) {
+            case null -> {
+                return "";
+            }
+            case CharSequence ignored -> {
+                return resp.toString();
+            }
+            case java.util.Map map -> {
+                Object v;
+                if ((v = map.get("text")) != null) {
+                    return v.toString();
+                }
+                if ((v = map.get("content")) != null) {
+                    return v.toString();
+                }
+                if ((v = map.get("message")) != null) {
+                    return v.toString();
+                }
+                if ((v = map.get("body")) != null) {
+                    return extractTextFromResp(v);
+                }
+                if ((v = map.get("output")) != null) {
+                    return extractTextFromResp(v);
+                }
+                if ((v = map.get("result")) != null) {
+                    return extractTextFromResp(v);
+                }
+                if ((v = map.get("choices")) instanceof List && !((List) v).isEmpty()) {
+                    return extractTextFromResp(((List) v).getFirst());
+                }
+                if ((v = map.get("messages")) instanceof List && !((List) v).isEmpty()) {
+                    return extractTextFromResp(((List) v).getFirst());
+                }
+            }
+            default -> {
+            }
+        }
+
+        if (resp instanceof List list) {
+            if (list.isEmpty()) {
+                return "";
+            }
+            return extractTextFromResp(list.getFirst());
+        }
+
+        String[] candidateMethods = {
+                "getText", "text",
+                "getContent", "getMessage", "getMessages",
+                "getOutput", "getResult", "getBody",
+                "getChoices", "getData"
+        };
+
+        for (String mName : candidateMethods) {
+            try {
+                java.lang.reflect.Method m = resp.getClass().getMethod(mName);
+                Object o = m.invoke(resp);
+                if (o != null) {
+                    String extracted = extractTextFromResp(o);
+                    if (extracted != null && !extracted.isBlank()) {
+                        return extracted;
+                    }
+                }
+            } catch (NoSuchMethodException ignored) {
+            } catch (Exception e) {
+            }
+        }
+
+        try {
+            java.lang.reflect.Field[] fields = resp.getClass().getDeclaredFields();
+            for (java.lang.reflect.Field f : fields) {
+                f.setAccessible(true);
+                Object val = f.get(resp);
+                if (val != null) {
+                    String extracted = extractTextFromResp(val);
+                    if (extracted != null && !extracted.isBlank()) {
+                        return extracted;
+                    }
+                }
+            }
+        } catch (Exception ignored) {
+        }
+
+        try {
+            return resp.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text aus LLM-Antworten holen: früheres reflektives extractTextFromResp gegen {@link ResponseTextExtractor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseTextBenchmark {
+
+    public record Choice(Map<String, Object> message) {
+        public Map<String, Object> getMessage() {
+            return message;
+        }
+    }
+
+    public record Completion(String id, List<Choice> choices) {
+        public List<Choice> getChoices() {
+            return choices;
+        }
+    }
+
+    final LegacyResponseTextExtractor legacy = new LegacyResponseTextExtractor();
+    final ResponseTextExtractor adapter = new ResponseTextExtractor();
+
+    ChatResponse chatResponse;
+    Completion pojoResponse;
+    Map<String, Object> mapResponse;
+
+    @Setup
+    public void setup() {
+        String text = BenchmarkData.sceneText(500);
+        chatResponse = new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        pojoResponse = new Completion("cmpl-1", List.of(new Choice(Map.of("content", text))));
+        mapResponse = Map.of("choices", List.of(Map.of("message", text)));
+    }
+
+    @Benchmark
+    public String legacyChatResponse() {
+        return legacy.extractTextFromResp(chatResponse);
+    }
+
+    @Benchmark
+    public String adapterChatResponse() {
+        return adapter.extract(chatResponse);
+    }
+
+    @Benchmark
+    public String legacyPojo() {
+        return legacy.extractTextFromResp(pojoResponse);
+    }
+
+    @Benchmark
+    public String adapterPojo() {
+        return adapter.extract(pojoResponse);
+    }
+
+    @Benchmark
+    public String legacyMap() {
+        return legacy.extractTextFromResp(mapResponse);
+    }
+
+    @Benchmark
+    public String adapterMap() {
+        return adapter.extract(mapResponse);
+    }
+}
@@ -0,0 +1,32 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt-Aufbau pro Szene wie in {@link StoryService} ({@link PromptAssembler}: System-Prefix + Szenen-Rest).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoryPromptBenchmark {
+
+    @Param({"1", "30"})
+    int sceneIndex;
+
+    PromptAssembler assembler = new PromptAssembler();
+    StoryRequest request = new StoryRequest("Benchmark",
+            "fantasy, medieval, magic, demons, demon king, magical enchanted sword, hero",
+            "Schreibe den Text ausschließlich auf Deutsch\n***Jede Szene muss MINDESTENS 500 Wörter beinhalten***",
+            "cinematic, ", 30, "mystic, grim", null, null, null, null);
+
+    @Benchmark
+    public PromptAssembler.ScenePrompt assembleScenePrompt() {
+        return assembler.scene(request, sceneIndex, null, "");
+    }
+}
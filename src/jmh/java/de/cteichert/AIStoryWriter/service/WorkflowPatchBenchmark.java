@@ -0,0 +1,60 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Workflow-JSON pro Bild vorbereiten: Datei bei jedem Bild neu parsen und über feste Node-Ids patchen (früher)
+ * gegen tiefe Kopie des einmal geparsten {@link WorkflowTemplate}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkflowPatchBenchmark {
+    private static final String WORKFLOW_PATH = "stable-diffusion-workflows/default.json";
+
+    WorkflowTemplate template;
+    String prompt = "a hero with an enchanted sword facing the demon king in a misty gothic hall, cinematic, highly detailed";
+    String negativePrompt = "Bad anatomy, Low quality, incorrect object placements";
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = new ClassPathResource(WORKFLOW_PATH).getInputStream()) {
+            template = WorkflowTemplate.of("default", BenchmarkData.MAPPER.readTree(in));
+        }
+    }
+
+    @Benchmark
+    public JsonNode legacyParseAndPatch() throws IOException {
+        JsonNode workflow = BenchmarkData.MAPPER.readTree(new ClassPathResource(WORKFLOW_PATH).getFile());
+        ((ObjectNode) workflow.get("3").get("inputs")).put("seed", 42);
+        ((ObjectNode) workflow.get("4").get("inputs")).put("ckpt_name", "Juggernaut-XI-byRunDiffusion.safetensors");
+        ((ObjectNode) workflow.get("6").get("inputs")).put("text", prompt.replace("\"", "'").replace("\\", ""));
+        ((ObjectNode) workflow.get("7").get("inputs")).put("text", negativePrompt.replace("\"", "'").replace("\\", ""));
+        ObjectNode latentImageInputs = (ObjectNode) workflow.get("5").get("inputs");
+        latentImageInputs.put("width", 1024);
+        latentImageInputs.put("height", 1024);
+        ((ObjectNode) workflow.get("9").get("inputs")).put("filename_prefix", "benchmark");
+        return workflow;
+    }
+
+    @Benchmark
+    public JsonNode templateInstantiate() {
+        return template.instantiate(new WorkflowParameters(
+                "Juggernaut-XI-byRunDiffusion.safetensors", prompt, negativePrompt, 1024, 1024, 42L, "benchmark"));
+    }
+
+    @Benchmark
+    public byte[] templateInstantiateAndSerialize() throws IOException {
+        return BenchmarkData.MAPPER.writeValueAsBytes(templateInstantiate());
+    }
+}
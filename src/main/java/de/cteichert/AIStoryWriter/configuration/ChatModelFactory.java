@@ -1,17 +1,33 @@
 package de.cteichert.AIStoryWriter.configuration;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.time.Duration;
+
+@Slf4j
 @Configuration
 @RequiredArgsConstructor
 public class ChatModelFactory {
+    private static final String DEFAULT_MODEL = "gpt-oss-20B";
+    private static final double DEFAULT_TEMPERATURE = 0.6;
+
     private final WebClient.Builder aiWebClientBuilder;
     private final RestClient.Builder aiRestClientBuilder;
 
@@ -21,23 +37,86 @@ public class ChatModelFactory {
     @Value("${app.llm.api-key:}")
     private String apiKey;
 
+    @Value("${app.llm.client-cache.max-size:16}")
+    private long cacheMaxSize;
+
+    @Value("${app.llm.client-cache.expire-after-access:PT1H}")
+    private Duration cacheExpireAfterAccess;
+
+    // eine OpenAiApi für alle Modelle -> RestClient/WebClient und deren Connection-Pools werden geteilt
+    private OpenAiApi openAiApi;
+    private Cache<ChatClientKey, ChatClient> chatClients;
+
+    /**
+     * Schlüssel des Client-Caches: Modellname plus alle Optionen, die in {@link OpenAiChatOptions} landen.
+     */
+    public record ChatClientKey(String model, double temperature) {
+    }
+
+    @PostConstruct
+    void init() {
+        openAiApi = OpenAiApi.builder()
+                .restClientBuilder(aiRestClientBuilder)
+                .webClientBuilder(aiWebClientBuilder)
+                .baseUrl(baseUrl)
+                .apiKey(apiKey)
+                .build();
+        chatClients = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterAccess(cacheExpireAfterAccess)
+                .recordStats()
+                .removalListener((ChatClientKey key, ChatClient client, RemovalCause cause) ->
+                        log.debug("ChatClient für {} aus Cache entfernt ({})", key, cause))
+                .build();
+    }
+
     /**
      * Erzeugt ein OpenAiChatModel. Du kannst hier LM Studio über baseUrl angeben.
      */
     public OpenAiChatModel create(String modelName) {
+        return createModel(keyFor(modelName));
+    }
+
+    /**
+     * Liefert einen fertigen ChatClient aus dem Cache (pro Modell + Optionen genau einmal erzeugt).
+     */
+    public ChatClient chatClient(String modelName) {
+        return chatClients.get(keyFor(modelName), key -> ChatClient.create(createModel(key)));
+    }
+
+    /**
+     * Hit/Miss/Eviction-Zahlen des ChatClient-Caches.
+     */
+    public CacheStats chatClientCacheStats() {
+        return chatClients.stats();
+    }
+
+    public Cache<ChatClientKey, ChatClient> chatClientCache() {
+        return chatClients;
+    }
+
+    /**
+     * Cache-Statistiken als cache.gets/cache.evictions (cache=llm.chat-clients) in Actuator/Prometheus.
+     */
+    @Bean
+    public MeterBinder chatClientCacheMetrics() {
+        return registry -> CaffeineCacheMetrics.monitor(registry, chatClients, "llm.chat-clients");
+    }
+
+    private ChatClientKey keyFor(String modelName) {
+        String model = modelName != null && !modelName.isBlank() ? modelName : DEFAULT_MODEL;
+        return new ChatClientKey(model, DEFAULT_TEMPERATURE);
+    }
+
+    private OpenAiChatModel createModel(ChatClientKey key) {
         OpenAiChatOptions options = OpenAiChatOptions.builder()
-                .model(modelName != null && !modelName.isBlank() ? modelName : "gpt-oss-20B")
-                .temperature(0.6)
+                .model(key.model())
+                .temperature(key.temperature())
                 .build();
 
         return OpenAiChatModel.builder()
                 .defaultOptions(options)
-                .openAiApi(OpenAiApi.builder()
-                        .restClientBuilder(aiRestClientBuilder)
-                        .webClientBuilder(aiWebClientBuilder)
-                        .baseUrl(baseUrl)
-                        .apiKey(apiKey)
-                        .build())
+                .openAiApi(openAiApi)
                 .build();
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,14 @@
 package de.cteichert.AIStoryWriter.configuration;
 
+import io.netty.channel.ChannelOption;
 import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestClient;
@@ -14,27 +17,39 @@ import reactor.netty.http.client.HttpClient;
 
 import java.time.Duration;
 
+/**
+ * HTTP-Clients für LLM und ComfyUI. Die eigentlichen Timeouts setzt die {@code ResiliencePolicy} pro Aufruf
+ * (perzentilbasiert); die Transport-Timeouts hier sind nur die Obergrenze dafür, damit auch ein blockierender
+ * RestClient-Call, den ein Interrupt nicht abbricht, nicht ewig an einem hängenden Backend hängt.
+ */
 @Configuration
 public class SpringAIConfigWebFlux {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
 
+    /**
+     * Primär, weil es zwei {@code WebClient.Builder} gibt: die Spring-AI-Autokonfiguration holt sich ihren per
+     * {@code getIfAvailable()} und braucht einen eindeutigen Kandidaten. Der ComfyUI-Builder wird per Qualifier geholt.
+     */
     @Bean
-    public WebClient.Builder aiWebClientBuilder() {
+    @Primary
+    public WebClient.Builder aiWebClientBuilder(@Value("${app.llm.resilience.max-timeout:PT15M}") Duration responseTimeout) {
         return WebClient.builder()
                 .clientConnector(
                         new ReactorClientHttpConnector(
                                 HttpClient.create()
                                         .keepAlive(true)
-                                        .responseTimeout(Duration.ofDays(2)) // hier dein langer Timeout
+                                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) CONNECT_TIMEOUT.toMillis())
+                                        .responseTimeout(responseTimeout)
                         )
                 );
     }
 
     @Bean
-    public RestClient.Builder aiRestClientBuilder() {
+    public RestClient.Builder aiRestClientBuilder(@Value("${app.llm.resilience.max-timeout:PT15M}") Duration responseTimeout) {
         RequestConfig reqCfg = RequestConfig.custom()
-                .setConnectTimeout(Timeout.ofDays(2))
-                .setConnectionRequestTimeout(Timeout.ofDays(2))
-                .setResponseTimeout(Timeout.ofDays(2))
+                .setConnectTimeout(Timeout.of(CONNECT_TIMEOUT))
+                .setConnectionRequestTimeout(Timeout.of(responseTimeout))
+                .setResponseTimeout(Timeout.of(responseTimeout))
                 .build();
 
         CloseableHttpClient httpClient = HttpClients.custom()
@@ -46,17 +61,20 @@ public class SpringAIConfigWebFlux {
                 .requestFactory(new HttpComponentsClientHttpRequestFactory(httpClient));
     }
 
+    /**
+     * Basis für die WebClients der ComfyUI-Backends; der {@code ComfyUiBackendPool} setzt pro Backend die baseUrl.
+     * Alle HTTP-Calls an ComfyUI (/prompt, /history, /queue) sind kurz, auf das Bild wird über Websocket/Watcher gewartet.
+     */
     @Bean
-    public WebClient comfyUiWebClient() {
+    public WebClient.Builder comfyUiWebClientBuilder(@Value("${app.comfyui.http.response-timeout:PT1M}") Duration responseTimeout) {
         return WebClient.builder()
-                .baseUrl("http://localhost:8188")
                 .clientConnector(
                         new ReactorClientHttpConnector(
                                 HttpClient.create()
                                         .keepAlive(true)
-                                        .responseTimeout(Duration.ofDays(2)) // hier dein langer Timeout
+                                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) CONNECT_TIMEOUT.toMillis())
+                                        .responseTimeout(responseTimeout)
                         )
-                )
-                .build();
+                );
     }
 }
@@ -1,15 +1,21 @@
 package de.cteichert.AIStoryWriter.controller;
 
+import de.cteichert.AIStoryWriter.model.StoryEvent;
 import de.cteichert.AIStoryWriter.model.StoryRequest;
 import de.cteichert.AIStoryWriter.model.StoryResult;
 import de.cteichert.AIStoryWriter.service.StoryService;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 @RestController
 @RequestMapping("/api/story")
 public class StoryController {
@@ -24,4 +30,18 @@ public class StoryController {
         Mono<StoryResult> res = storyService.generateStory(req);
         return ResponseEntity.ok(res);
     }
+
+    /**
+     * Server-Sent Events: jede Szene kommt, sobald ihr Text bzw. ihr Bild fertig ist, plus Fortschritts-Events.
+     */
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<StoryEvent>> generateStream(@RequestBody StoryRequest req) {
+        AtomicLong sequence = new AtomicLong();
+        return storyService.streamStory(req)
+                .map(event -> ServerSentEvent.<StoryEvent>builder()
+                        .id(Long.toString(sequence.incrementAndGet()))
+                        .event(event.type().name().toLowerCase())
+                        .data(event)
+                        .build());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package de.cteichert.AIStoryWriter.controller;
+
+import de.cteichert.AIStoryWriter.model.StoryEvent;
+import de.cteichert.AIStoryWriter.model.StoryJob;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import de.cteichert.AIStoryWriter.model.StoryResult;
+import de.cteichert.AIStoryWriter.service.StoryJobService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Job-API: Story abschicken, jobId zurückbekommen, danach Status pollen, Events streamen oder das Ergebnis holen.
+ * Im Gegensatz zu /api/story/generate hängt kein HTTP-Request an der gesamten Laufzeit der Story.
+ */
+@RestController
+@RequestMapping("/api/story/jobs")
+public class StoryJobController {
+    private final StoryJobService jobService;
+
+    public StoryJobController(StoryJobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @PostMapping
+    public ResponseEntity<StoryJob> submit(@RequestBody StoryRequest req) {
+        StoryJob job = jobService.submit(req);
+        URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{id}")
+                .buildAndExpand(job.jobId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(job);
+    }
+
+    @GetMapping("/{jobId}")
+    public StoryJob status(@PathVariable String jobId) {
+        return require(jobId);
+    }
+
+    /**
+     * Ergebnis eines abgeschlossenen Jobs; 409 solange er noch läuft bzw. wenn er fehlgeschlagen ist.
+     */
+    @GetMapping("/{jobId}/result")
+    public StoryResult result(@PathVariable String jobId) {
+        StoryJob job = require(jobId);
+        if (job.status() != StoryJob.Status.COMPLETED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Story job " + jobId + " is " + job.status());
+        }
+        return job.result();
+    }
+
+    @GetMapping(value = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<StoryEvent>> events(@PathVariable String jobId) {
+        require(jobId);
+        AtomicLong sequence = new AtomicLong();
+        return jobService.events(jobId)
+                .map(event -> ServerSentEvent.<StoryEvent>builder()
+                        .id(Long.toString(sequence.incrementAndGet()))
+                        .event(event.type().name().toLowerCase())
+                        .data(event)
+                        .build());
+    }
+
+    private StoryJob require(String jobId) {
+        return jobService.find(jobId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown story job " + jobId));
+    }
+}
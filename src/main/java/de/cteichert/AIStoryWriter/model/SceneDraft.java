@@ -0,0 +1,7 @@
+package de.cteichert.AIStoryWriter.model;
+
+/**
+ * Zwischenstand einer Szene nach der Text-Stufe. imagePrompt ist null, wenn die Text-Stufe fehlgeschlagen ist.
+ */
+public record SceneDraft(int index, String text, String imagePrompt) {
+}
@@ -1,4 +1,23 @@
 package de.cteichert.AIStoryWriter.model;
 
-public record SceneDto(int index, String text, String imagePath) {
-}
\ No newline at end of file
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Eine Szene. {@code imagePath} ist der lokale Pfad auf dem Server, Clients laden das Bild über {@code imageUrl}.
+ */
+@JsonIgnoreProperties(value = "imageUrl", allowGetters = true)
+public record SceneDto(int index, String text, String imagePath, String imageId) {
+
+    public SceneDto(int index, String text, String imagePath) {
+        this(index, text, imagePath, null);
+    }
+
+    /**
+     * Relativer URL auf {@code GET /api/images/{id}}, null ohne Bild.
+     */
+    @JsonProperty
+    public String imageUrl() {
+        return imageId == null ? null : "/api/images/" + imageId;
+    }
+}
@@ -0,0 +1,49 @@
+package de.cteichert.AIStoryWriter.model;
+
+/**
+ * Ein Event im Story-Stream (/api/story/generate/stream).
+ * scene ist bei SCENE_TEXT_DELTA (nur der neue Chunk), SCENE_TEXT (imagePath == null), SCENE_IMAGE und
+ * SCENE_IMAGE_UPGRADE gesetzt, sonst null.
+ * Im progressiven Bildmodus bringt SCENE_IMAGE die Vorschau, SCENE_IMAGE_UPGRADE später dieselbe Szene mit dem finalen Bild.
+ * storyId ist pro Story-Lauf eindeutig und taucht auch in Logs und Metriken/Traces auf.
+ */
+public record StoryEvent(Type type, String storyId, String storyTitle, int completedScenes, int totalScenes, SceneDto scene) {
+
+    public enum Type {
+        STARTED,
+        SCENE_TEXT_DELTA,
+        SCENE_TEXT,
+        SCENE_IMAGE,
+        SCENE_IMAGE_UPGRADE,
+        PROGRESS,
+        COMPLETED
+    }
+
+    public static StoryEvent started(String storyId, String storyTitle, int totalScenes) {
+        return new StoryEvent(Type.STARTED, storyId, storyTitle, 0, totalScenes, null);
+    }
+
+    public static StoryEvent sceneTextDelta(String storyId, int index, String chunk, int completedScenes, int totalScenes) {
+        return new StoryEvent(Type.SCENE_TEXT_DELTA, storyId, null, completedScenes, totalScenes, new SceneDto(index, chunk, null));
+    }
+
+    public static StoryEvent sceneText(String storyId, int index, String text, int completedScenes, int totalScenes) {
+        return new StoryEvent(Type.SCENE_TEXT, storyId, null, completedScenes, totalScenes, new SceneDto(index, text, null));
+    }
+
+    public static StoryEvent sceneImage(String storyId, SceneDto scene, int completedScenes, int totalScenes) {
+        return new StoryEvent(Type.SCENE_IMAGE, storyId, null, completedScenes, totalScenes, scene);
+    }
+
+    public static StoryEvent sceneImageUpgrade(String storyId, SceneDto scene, int completedScenes, int totalScenes) {
+        return new StoryEvent(Type.SCENE_IMAGE_UPGRADE, storyId, null, completedScenes, totalScenes, scene);
+    }
+
+    public static StoryEvent progress(String storyId, String storyTitle, int completedScenes, int totalScenes) {
+        return new StoryEvent(Type.PROGRESS, storyId, storyTitle, completedScenes, totalScenes, null);
+    }
+
+    public static StoryEvent completed(String storyId, String storyTitle, int completedScenes, int totalScenes) {
+        return new StoryEvent(Type.COMPLETED, storyId, storyTitle, completedScenes, totalScenes, null);
+    }
+}
@@ -0,0 +1,49 @@
+package de.cteichert.AIStoryWriter.model;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Status eines asynchronen Story-Jobs (/api/story/jobs). jobId ist zugleich die storyId der Events.
+ * scenes enthält die bereits fertigen (und im Journal gesicherten) Szenen, sortiert nach Index.
+ * queuePosition: wie viele Arbeitsschritte anderer Stories vor der nächsten Szene dran sind (0 = als Nächstes),
+ * null wenn gerade keine Szene des Jobs wartet.
+ */
+public record StoryJob(
+        String jobId,
+        Status status,
+        StoryRequest request,
+        List<SceneDto> scenes,
+        String error,
+        Instant submittedAt,
+        Instant updatedAt,
+        Integer queuePosition
+) {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    public int completedScenes() {
+        return scenes.size();
+    }
+
+    public int totalScenes() {
+        return request.scenes();
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    public StoryJob withQueuePosition(Integer position) {
+        return new StoryJob(jobId, status, request, scenes, error, submittedAt, updatedAt, position);
+    }
+
+    public StoryResult result() {
+        return new StoryResult(request.title(), scenes);
+    }
+}
@@ -0,0 +1,16 @@
+package de.cteichert.AIStoryWriter.model;
+
+/**
+ * Priorität einer Story beim Warten auf LLM/ComfyUI. Sie bestimmt das Gewicht im fairen Scheduler, nicht eine
+ * strikte Reihenfolge: auch BATCH-Stories kommen unter Dauerlast weiter voran.
+ */
+public enum StoryPriority {
+    /**
+     * Jemand wartet auf das Ergebnis (Vorschau, SSE-Stream); Default.
+     */
+    INTERACTIVE,
+    /**
+     * Lange Hintergrund-Jobs.
+     */
+    BATCH
+}
@@ -7,5 +7,8 @@ public record StoryRequest(
         String additonalImagePrompt,
         int scenes,
         String tone,
-        String model  // optional: Name des lokal gehosteten Modells, z.B. "gpt-oss-20b"
+        String model,  // optional: Name des lokal gehosteten Modells, z.B. "gpt-oss-20b"
+        String workflow,  // optional: Name des ComfyUI-Workflows aus stable-diffusion-workflows/, Default "default"
+        String tenant,  // optional: Mandant/Nutzer für die faire Verteilung von LLM und GPU, Default "default"
+        StoryPriority priority  // optional: INTERACTIVE (Default) oder BATCH
 ) {}
\ No newline at end of file
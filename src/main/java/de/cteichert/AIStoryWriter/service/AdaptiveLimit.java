@@ -0,0 +1,313 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Nebenläufigkeitslimit einer Stufe (LLM, Bild), das sich per AIMD an die Hardware anpasst.
+ * <p>
+ * Jede Freigabe liefert eine Latenz-Probe. Ist der Call fehlgeschlagen oder dauerte er länger als
+ * {@code latencyTolerance} × der kleinsten zuletzt gesehenen Latenz (die Hardware ist also gesättigt), wird das Limit
+ * multiplikativ verkleinert. Lief der Call bei voll ausgeschöpftem Limit ohne Verlangsamung, wächst es um
+ * {@code 1/limit} (etwa +1 pro Limit-Fenster). Die Minimal-Latenz wird alle {@value #PROBE_SAMPLES} Proben neu
+ * gemessen, damit ein einzelner Ausreißer nach unten nicht für immer den Maßstab setzt.
+ * <p>
+ * Wartende werden über eine {@link FairQueue} fair nach Mandant und Priorität bedient. Teilen sich verschiedene
+ * Arbeiten ein Limit (SERIAL: Text und Bild), wird die Minimal-Latenz pro {@code kind} geführt.
+ */
+final class AdaptiveLimit {
+    static final int PROBE_SAMPLES = 50;
+
+    private final String name;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final LongSupplier nanoTime;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final FairQueue waiters;
+    private final Map<FairQueue.Ticket, AsyncWaiter> asyncWaiters = new HashMap<>();
+    private final Map<String, Baseline> baselines = new HashMap<>();
+    private double limit;
+    private int inFlight;
+
+    AdaptiveLimit(String name, boolean adaptive, int initialLimit, int minLimit, int maxLimit,
+                  double backoffRatio, double latencyTolerance, Map<StoryPriority, Integer> weights) {
+        this(name, adaptive, initialLimit, minLimit, maxLimit, backoffRatio, latencyTolerance, weights, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime Uhr für die Latenz-Proben (Tests)
+     */
+    AdaptiveLimit(String name, boolean adaptive, int initialLimit, int minLimit, int maxLimit,
+                  double backoffRatio, double latencyTolerance, Map<StoryPriority, Integer> weights,
+                  LongSupplier nanoTime) {
+        this.name = name;
+        this.nanoTime = nanoTime;
+        this.waiters = new FairQueue(weights);
+        this.adaptive = adaptive;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    String name() {
+        return name;
+    }
+
+    int maxLimit() {
+        return adaptive ? maxLimit : currentLimit();
+    }
+
+    int currentLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue-Position des nächsten wartenden Schritts der Story, -1 wenn hier nichts von ihr wartet.
+     */
+    int position(String storyId) {
+        lock.lock();
+        try {
+            return waiters.position(storyId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wartet blockierend auf einen freien Platz, bis der {@link FairQueue} den Schritt an der Reihe sieht.
+     * Der Permit muss genau einmal per {@link Permit#release(boolean)} zurück.
+     */
+    Permit acquire(String kind, WorkOwner owner) throws InterruptedException {
+        List<Runnable> grants = new ArrayList<>();
+        lock.lock();
+        try {
+            FairQueue.Ticket ticket = waiters.add(owner);
+            try {
+                while (waiters.peek() != ticket || inFlight >= (int) limit) {
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(ticket);
+                drainLocked(grants);
+                throw e;
+            }
+            waiters.poll();
+            Permit permit = take(kind);
+            // der Nächste in der Schlange kann eventuell auch noch starten
+            drainLocked(grants);
+            return permit;
+        } finally {
+            lock.unlock();
+            // Grants für asynchrone Wartende nie unter dem Lock ausliefern
+            grants.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Wie {@link #acquire(String, WorkOwner)}, aber ohne Thread: das Mono liefert den Permit, sobald der Schritt
+     * an der Reihe ist. Abbrechen entfernt den Schritt aus der Warteschlange; ein Permit, der den Abbruch
+     * nicht mehr erreicht, wird automatisch zurückgegeben.
+     */
+    Mono<Permit> acquireAsync(String kind, WorkOwner owner) {
+        return Mono.<Permit>create(sink -> {
+                    AsyncWaiter waiter = new AsyncWaiter(kind, sink);
+                    List<Runnable> grants = new ArrayList<>();
+                    lock.lock();
+                    try {
+                        waiter.ticket = waiters.add(owner);
+                        asyncWaiters.put(waiter.ticket, waiter);
+                        drainLocked(grants);
+                    } finally {
+                        lock.unlock();
+                    }
+                    sink.onCancel(() -> cancel(waiter));
+                    grants.forEach(Runnable::run);
+                })
+                .doOnDiscard(Permit.class, permit -> {
+                    permit.ignoreLatency();
+                    permit.release(true);
+                });
+    }
+
+    private void cancel(AsyncWaiter waiter) {
+        List<Runnable> grants = new ArrayList<>();
+        lock.lock();
+        try {
+            if (asyncWaiters.remove(waiter.ticket) != null) {
+                waiters.remove(waiter.ticket);
+                drainLocked(grants);
+            }
+        } finally {
+            lock.unlock();
+        }
+        grants.forEach(Runnable::run);
+    }
+
+    private void release(Permit permit, boolean success) {
+        long rtt = nanoTime.getAsLong() - permit.startNanos;
+        List<Runnable> grants = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            if (adaptive && permit.sampled) {
+                adjust(permit, rtt, success);
+            }
+            drainLocked(grants);
+        } finally {
+            lock.unlock();
+        }
+        grants.forEach(Runnable::run);
+    }
+
+    /**
+     * Vergibt freie Plätze in der Reihenfolge des {@link FairQueue}: asynchrone Wartende bekommen ihren Permit
+     * direkt (Auslieferung nach dem Unlock über {@code grants}), ein blockierender Wartender vorne wird geweckt
+     * und nimmt sich den Platz selbst.
+     */
+    private void drainLocked(List<Runnable> grants) {
+        while (inFlight < (int) limit) {
+            FairQueue.Ticket head = waiters.peek();
+            if (head == null) {
+                break;
+            }
+            AsyncWaiter waiter = asyncWaiters.remove(head);
+            if (waiter == null) {
+                changed.signalAll();
+                break;
+            }
+            waiters.poll();
+            Permit permit = take(waiter.kind);
+            grants.add(() -> waiter.sink.success(permit));
+        }
+    }
+
+    private Permit take(String kind) {
+        inFlight++;
+        return new Permit(kind, nanoTime.getAsLong(), inFlight >= (int) limit);
+    }
+
+    private void adjust(Permit permit, long rtt, boolean success) {
+        Baseline baseline = baselines.computeIfAbsent(permit.kind, kind -> new Baseline());
+        boolean slow = baseline.sample(rtt) && rtt > baseline.minRttNanos * latencyTolerance;
+        if (!success || slow) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (permit.saturated) {
+            // nur wachsen, wenn das Limit auch wirklich ausgeschöpft war
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[limit=" + currentLimit() + ", inFlight=" + inFlight() + ", queued=" + queued() + "]";
+    }
+
+    /**
+     * Belegter Platz im Limit; {@code release(false)} für fehlgeschlagene Calls.
+     */
+    final class Permit {
+        private final String kind;
+        private final long startNanos;
+        private final boolean saturated;
+        private boolean released;
+        private volatile boolean sampled = true;
+
+        private Permit(String kind, long startNanos, boolean saturated) {
+            this.kind = kind;
+            this.startNanos = startNanos;
+            this.saturated = saturated;
+        }
+
+        /**
+         * Die Dauer dieses Permits nicht als Latenz-Probe werten (z.B. Antwort kam aus dem Cache).
+         */
+        void ignoreLatency() {
+            sampled = false;
+        }
+
+        void release(boolean success) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            AdaptiveLimit.this.release(this, success);
+        }
+    }
+
+    /**
+     * Wartender ohne Thread ({@link #acquireAsync(String, WorkOwner)}).
+     */
+    private static final class AsyncWaiter {
+        private final String kind;
+        private final MonoSink<Permit> sink;
+        private FairQueue.Ticket ticket;
+
+        private AsyncWaiter(String kind, MonoSink<Permit> sink) {
+            this.kind = kind;
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * Kleinste Latenz der letzten Proben einer Arbeitsart.
+     */
+    private static final class Baseline {
+        private long minRttNanos = Long.MAX_VALUE;
+        private int samples;
+
+        /**
+         * @return false, solange noch keine Vergleichslatenz existiert
+         */
+        private boolean sample(long rtt) {
+            boolean known = minRttNanos != Long.MAX_VALUE;
+            if (++samples >= PROBE_SAMPLES) {
+                samples = 0;
+                minRttNanos = rtt;
+            } else {
+                minRttNanos = Math.min(minRttNanos, rtt);
+            }
+            return known;
+        }
+    }
+}
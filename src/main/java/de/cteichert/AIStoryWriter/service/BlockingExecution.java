@@ -0,0 +1,66 @@
+package de.cteichert.AIStoryWriter.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executor für die blockierenden Stufen (Warten auf Stufen-Limits im Streaming-Modus, Bild-Wrapper, Datei-IO des
+ * Caches). LLM-Calls laufen über den WebClient und brauchen keinen Thread.
+ * <p>
+ * Mit {@code app.story.virtual-threads} (Default: {@code spring.threads.virtual.enabled}) läuft jede Aufgabe auf
+ * einem eigenen Virtual Thread: eine wartende oder laufende Szene kostet dann keinen Plattform-Thread mehr, die
+ * Thread-Anzahl bleibt bei vielen parallelen Stories konstant. Sonst wie bisher ein Cached Thread Pool.
+ * Timeouts und Abbruch funktionieren in beiden Modi gleich ({@code Future.cancel(true)} unterbricht auch
+ * Virtual Threads); Wartestellen nutzen {@code ReentrantLock}, damit Virtual Threads nicht festgepinnt werden.
+ */
+@Slf4j
+@Component
+public class BlockingExecution {
+    private final boolean virtualThreads;
+    private final ExecutorService executor;
+    private final Scheduler scheduler;
+
+    public BlockingExecution(@Value("${app.story.virtual-threads:${spring.threads.virtual.enabled:false}}") boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        if (virtualThreads) {
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("story-blocking-vt-", 0).factory());
+        } else {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setName("story-blocking-exec-" + t.getId());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        scheduler = Schedulers.fromExecutorService(executor, "story-blocking");
+        log.info("Blocking story stages run on {}", virtualThreads ? "virtual threads" : "a cached platform thread pool");
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Reactor-Scheduler auf demselben Executor, für {@code subscribeOn} blockierender Callables.
+     */
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,14 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Story wegen Überlast abgewiesen (siehe {@link StageLimits#admit(GenerationMode)}); der Client soll später wiederkommen.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "Story pipeline is overloaded, retry later")
+public class CapacityExceededException extends RuntimeException {
+    public CapacityExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package de.cteichert.AIStoryWriter.service;
+
+/**
+ * Aufruf abgelehnt, weil der Circuit Breaker des Backends offen ist (siehe {@link ResiliencePolicy}).
+ */
+public class CircuitOpenException extends RuntimeException {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,113 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ein ComfyUI-Backend (eine GPU-Box) im {@link ComfyUiBackendPool}: eigener WebClient, eigener Completion-Tracker,
+ * eigene {@link ResiliencePolicy} (Timeout, Hedging, Circuit Breaker) und der zuletzt per Health-Check gesehene
+ * Zustand (/queue).
+ */
+public final class ComfyUiBackend {
+    private final String baseUrl;
+    private final WebClient webClient;
+    private final ComfyUiCompletionTracker tracker;
+    private final ResiliencePolicy policy;
+
+    // von uns abgeschickte, noch nicht fertige Jobs (zwischen zwei Health-Checks genauer als /queue)
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile boolean healthy = true;
+    private volatile int queueRemaining;
+    // Checkpoint des zuletzt hierher geschickten Jobs -> ist mit hoher Wahrscheinlichkeit noch im VRAM
+    private volatile String loadedCheckpoint;
+
+    ComfyUiBackend(String baseUrl, WebClient webClient, ComfyUiCompletionTracker tracker, ResiliencePolicy policy) {
+        this.baseUrl = baseUrl;
+        this.webClient = webClient;
+        this.tracker = tracker;
+        this.policy = policy;
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public WebClient webClient() {
+        return webClient;
+    }
+
+    public ComfyUiCompletionTracker tracker() {
+        return tracker;
+    }
+
+    public ResiliencePolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Gesund laut Health-Check und Circuit Breaker nicht offen.
+     */
+    public boolean isAvailable() {
+        return healthy && policy.allowsRequests();
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public int queueRemaining() {
+        return queueRemaining;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public String loadedCheckpoint() {
+        return loadedCheckpoint;
+    }
+
+    /**
+     * Last für die Auswahl: Jobs in der ComfyUI-Queue oder eigene laufende Jobs, je nachdem was größer ist
+     * (die Queue enthält unsere Jobs, hinkt aber bis zum nächsten Health-Check hinterher).
+     */
+    int load() {
+        return Math.max(queueRemaining, inFlight.get());
+    }
+
+    void dispatched(String checkpoint) {
+        inFlight.incrementAndGet();
+        if (checkpoint != null) {
+            loadedCheckpoint = checkpoint;
+        }
+    }
+
+    void finished() {
+        inFlight.decrementAndGet();
+    }
+
+    void healthCheckSucceeded(int queueRemaining) {
+        this.queueRemaining = queueRemaining;
+        consecutiveFailures.set(0);
+        healthy = true;
+    }
+
+    /**
+     * @return true, wenn das Backend durch diesen Fehler ausgeschlossen wurde
+     */
+    boolean failed(int failureThreshold) {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && healthy) {
+            healthy = false;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
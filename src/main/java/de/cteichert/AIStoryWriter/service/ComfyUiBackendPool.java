@@ -0,0 +1,184 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Pool aus einem oder mehreren ComfyUI-Backends ({@code app.comfyui.backends}, Default {@code app.comfyui.base-url}).
+ * <p>
+ * {@link #select(String)} wählt das am wenigsten ausgelastete gesunde Backend, bevorzugt eines, auf dem der
+ * gewünschte Checkpoint zuletzt lief (spart das Nachladen mehrerer GB ins VRAM). Ein periodischer Health-Check
+ * liest {@code /queue}; nach {@code failure-threshold} Fehlern in Folge wird ein Backend
+ * ausgeschlossen und mit dem ersten erfolgreichen Check wieder aufgenommen. Unabhängig davon schließt der Circuit
+ * Breaker der {@link ResiliencePolicy} ein Backend aus, dessen Jobs wiederholt scheitern oder in den Timeout laufen.
+ */
+@Slf4j
+@Component
+public class ComfyUiBackendPool {
+    private static final Duration HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(5);
+
+    private final List<ComfyUiBackend> backends = new ArrayList<>();
+    private final Duration healthInterval;
+    private final int failureThreshold;
+    private final int checkpointAffinity;
+    private Disposable healthChecks;
+
+    public ComfyUiBackendPool(@Value("${app.comfyui.backends:${app.comfyui.base-url:http://localhost:8188}}") List<String> baseUrls,
+                              @Value("${app.comfyui.output-dirs:}") List<String> outputDirs,
+                              @Value("${app.comfyui.output-dir:D:/ComfyUI/output}") String defaultOutputDir,
+                              @Value("${app.comfyui.websocket.enabled:true}") boolean websocketEnabled,
+                              @Value("${app.comfyui.watch-output-dir:true}") boolean watchOutputDir,
+                              @Value("${app.comfyui.health.interval:PT5S}") Duration healthInterval,
+                              @Value("${app.comfyui.health.failure-threshold:3}") int failureThreshold,
+                              @Value("${app.comfyui.checkpoint-affinity:2}") int checkpointAffinity,
+                              @Qualifier("comfyUiWebClientBuilder") WebClient.Builder comfyUiWebClientBuilder,
+                              ResiliencePolicies resiliencePolicies,
+                              MeterRegistry meterRegistry) {
+        this.healthInterval = healthInterval;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.checkpointAffinity = Math.max(0, checkpointAffinity);
+
+        List<String> urls = baseUrls.stream().map(String::trim).filter(url -> !url.isEmpty()).distinct().toList();
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("app.comfyui.backends must contain at least one base URL");
+        }
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            // Output-Verzeichnis pro Backend (gleiche Reihenfolge), sonst das gemeinsame app.comfyui.output-dir
+            String outputDir = i < outputDirs.size() && !outputDirs.get(i).isBlank() ? outputDirs.get(i).trim() : defaultOutputDir;
+            ComfyUiCompletionTracker tracker = new ComfyUiCompletionTracker(url, outputDir, websocketEnabled, watchOutputDir, meterRegistry);
+            ComfyUiBackend backend = new ComfyUiBackend(url, comfyUiWebClientBuilder.clone().baseUrl(url).build(), tracker,
+                    resiliencePolicies.comfyUi(url));
+            backends.add(backend);
+
+            Gauge.builder("comfyui.backend.healthy", backend, b -> b.isHealthy() ? 1 : 0)
+                    .tag("backend", url)
+                    .register(meterRegistry);
+            Gauge.builder("comfyui.backend.load", backend, ComfyUiBackend::load)
+                    .description("Jobs in der Queue bzw. in Arbeit")
+                    .tag("backend", url)
+                    .register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        backends.forEach(backend -> backend.tracker().start());
+        if (!healthInterval.isZero() && !healthInterval.isNegative()) {
+            healthChecks = Flux.interval(Duration.ZERO, healthInterval)
+                    .onBackpressureDrop()
+                    .concatMap(tick -> Flux.fromIterable(backends).flatMap(this::checkHealth).then())
+                    .subscribe();
+        }
+        log.info("ComfyUI backend pool: {}", backends);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (healthChecks != null) {
+            healthChecks.dispose();
+        }
+        backends.forEach(backend -> backend.tracker().stop());
+    }
+
+    public List<ComfyUiBackend> backends() {
+        return List.copyOf(backends);
+    }
+
+    /**
+     * Output-Verzeichnis des ersten Backends (für Antworten ohne Backend-Bezug).
+     */
+    public Path defaultOutputDir() {
+        return backends.getFirst().tracker().outputDir();
+    }
+
+    /**
+     * Wählt das Backend für einen Job: gesund, Circuit nicht offen, minimale Last, der passende Checkpoint zählt wie
+     * {@code checkpoint-affinity} Jobs weniger. Sind alle Backends ausgeschlossen, wird trotzdem das
+     * am wenigsten belastete genommen (der Job scheitert dann sichtbar statt still zu hängen).
+     */
+    public ComfyUiBackend select(String checkpoint) {
+        List<ComfyUiBackend> candidates = backends.stream().filter(ComfyUiBackend::isAvailable).toList();
+        if (candidates.isEmpty()) {
+            log.warn("No available ComfyUI backend, falling back to all {}", backends);
+            candidates = backends;
+        }
+        return candidates.stream()
+                .min(byScore(checkpoint))
+                .orElseThrow();
+    }
+
+    /**
+     * Backend für den Hedge eines Jobs, der auf {@code primary} länger als p95 braucht: verfügbar und weniger
+     * belastet als {@code primary}, sonst leer (ein zweiter Job hinter einem vollen Backend hilft nicht).
+     */
+    public Optional<ComfyUiBackend> selectHedge(String checkpoint, ComfyUiBackend primary) {
+        return backends.stream()
+                .filter(backend -> backend != primary && backend.isAvailable() && backend.load() < primary.load())
+                .min(byScore(checkpoint));
+    }
+
+    private Comparator<ComfyUiBackend> byScore(String checkpoint) {
+        return Comparator.comparingInt((ComfyUiBackend backend) -> score(backend, checkpoint))
+                .thenComparingInt(ComfyUiBackend::inFlight);
+    }
+
+    /**
+     * Ein Submit-/Verbindungsfehler zählt wie ein fehlgeschlagener Health-Check.
+     */
+    public void reportFailure(ComfyUiBackend backend, Throwable error) {
+        if (backend.failed(failureThreshold)) {
+            log.warn("Ejecting ComfyUI backend {} after {} failures: {}", backend, failureThreshold, error.toString());
+        }
+    }
+
+    int score(ComfyUiBackend backend, String checkpoint) {
+        boolean affinity = checkpoint != null && Objects.equals(checkpoint, backend.loadedCheckpoint());
+        return backend.load() - (affinity ? checkpointAffinity : 0);
+    }
+
+    private Mono<Void> checkHealth(ComfyUiBackend backend) {
+        return get(backend, "/queue")
+                .doOnNext(queue -> {
+                    boolean wasHealthy = backend.isHealthy();
+                    backend.healthCheckSucceeded(queueSize(queue));
+                    if (!wasHealthy) {
+                        log.info("ComfyUI backend {} is healthy again", backend);
+                    }
+                })
+                .doOnError(e -> reportFailure(backend, e))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Mono<JsonNode> get(ComfyUiBackend backend, String path) {
+        return backend.webClient().get()
+                .uri(path)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .timeout(HEALTH_CHECK_TIMEOUT);
+    }
+
+    static int queueSize(JsonNode queue) {
+        return queue.path("queue_running").size() + queue.path("queue_pending").size();
+    }
+}
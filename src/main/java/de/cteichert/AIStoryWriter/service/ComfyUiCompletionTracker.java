@@ -0,0 +1,417 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Completion-Tracker für die Jobs eines ComfyUI-Backends (eine Instanz pro Backend im {@link ComfyUiBackendPool}).
+ * <p>
+ * Statt pro Bild einen Thread /history pollen zu lassen, hört genau eine Websocket-Verbindung auf {@code /ws}
+ * und schließt den passenden {@link Sinks.One} pro promptId ab. Als Fallback beobachtet ein einzelner
+ * {@link WatchService} das Output-Verzeichnis auf Dateien mit dem Prefix der imageId.
+ * <p>
+ * Die Monos liefern den absoluten Bildpfad oder bleiben leer, wenn ComfyUI "fertig" meldet,
+ * aber kein Bild mitgeschickt hat (der Aufrufer löst den Pfad dann einmalig über /history auf).
+ * <p>
+ * Metriken: {@code comfyui.queue.time} (Registrierung bis execution_start), {@code comfyui.render.time}
+ * (execution_start bis fertig), {@code comfyui.completions} nach Quelle und {@code comfyui.pending}, jeweils mit Tag backend.
+ */
+@Slf4j
+public class ComfyUiCompletionTracker {
+    private static final int MAX_EARLY_COMPLETIONS = 1000;
+    // der Aufrufer registriert direkt nach /prompt; was so lange niemand abholt, gehört zu keinem wartenden Job
+    private static final Duration EARLY_COMPLETION_TTL = Duration.ofMinutes(5);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String baseUrl;
+    private final Path outputDir;
+    private final boolean websocketEnabled;
+    private final boolean watchOutputDir;
+    private final String clientId = UUID.randomUUID().toString();
+    private final MeterRegistry meterRegistry;
+    private final Timer queueTimer;
+    private final Timer renderTimer;
+
+    // wartende Jobs, jeweils unter imageId und (sobald bekannt) promptId registriert
+    private final Map<String, PendingImage> pending = new ConcurrentHashMap<>();
+    // Events, die eintreffen bevor der Aufrufer awaitCompletion() registriert hat (promptId/imageId -> Ende des Jobs);
+    // begrenzt und mit Ablaufzeit, damit nie Einträge von Jobs verloren gehen, die sich gleich registrieren
+    private final Cache<String, EarlyEvent> earlyCompletions = Caffeine.newBuilder()
+            .maximumSize(MAX_EARLY_COMPLETIONS)
+            .expireAfterWrite(EARLY_COMPLETION_TTL)
+            .build();
+
+    private final AtomicBoolean websocketConnected = new AtomicBoolean(false);
+    private Disposable websocketSubscription;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public ComfyUiCompletionTracker(String baseUrl,
+                                    String outputDir,
+                                    boolean websocketEnabled,
+                                    boolean watchOutputDir,
+                                    MeterRegistry meterRegistry) {
+        this.baseUrl = baseUrl;
+        this.outputDir = Paths.get(outputDir).toAbsolutePath();
+        this.websocketEnabled = websocketEnabled;
+        this.watchOutputDir = watchOutputDir;
+        this.meterRegistry = meterRegistry;
+        this.queueTimer = Timer.builder("comfyui.queue.time")
+                .description("Wartezeit in der ComfyUI-Queue bis execution_start")
+                .tag("backend", baseUrl)
+                .register(meterRegistry);
+        this.renderTimer = Timer.builder("comfyui.render.time")
+                .description("Renderzeit von execution_start bis zum fertigen Bild")
+                .tag("backend", baseUrl)
+                .register(meterRegistry);
+        Gauge.builder("comfyui.pending", pending, map -> map.values().stream().distinct().count())
+                .description("Bilder, auf deren Fertigstellung gewartet wird")
+                .tag("backend", baseUrl)
+                .register(meterRegistry);
+        Gauge.builder("comfyui.websocket.connected", websocketConnected, connected -> connected.get() ? 1 : 0)
+                .tag("backend", baseUrl)
+                .register(meterRegistry);
+    }
+
+    public void start() {
+        if (websocketEnabled) {
+            startWebsocket();
+        }
+        if (watchOutputDir) {
+            startWatcher();
+        }
+    }
+
+    public void stop() {
+        if (websocketSubscription != null) {
+            websocketSubscription.dispose();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Closing WatchService failed: {}", e.toString());
+            }
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+    }
+
+    /**
+     * client_id, die bei POST /prompt mitgeschickt werden muss, damit ComfyUI die Events an diese Verbindung sendet.
+     */
+    public String clientId() {
+        return clientId;
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public Path outputDir() {
+        return outputDir;
+    }
+
+    public boolean isWebsocketConnected() {
+        return websocketConnected.get();
+    }
+
+    /**
+     * Liefert ein Mono, das mit dem Bildpfad abschließt, sobald ComfyUI den Job meldet oder die Datei erscheint.
+     * promptId darf null sein (dann greift nur der Dateisystem-Fallback).
+     */
+    public Mono<String> awaitCompletion(String imageId, String promptId) {
+        PendingImage job = new PendingImage(imageId);
+        pending.put(imageId, job);
+        if (promptId != null) {
+            pending.put(promptId, job);
+        }
+
+        // Events, die vor der Registrierung angekommen sind
+        EarlyEvent early = earlyCompletions.asMap().remove(imageId);
+        if (early == null && promptId != null) {
+            early = earlyCompletions.asMap().remove(promptId);
+        }
+        if (early != null && early.error() != null) {
+            job.fail("early", early.error());
+        } else if (early != null) {
+            job.complete(early.path(), "early");
+        }
+
+        return job.sink.asMono()
+                .flatMap(path -> path.map(Mono::just).orElseGet(Mono::empty))
+                .doFinally(signal -> {
+                    pending.remove(imageId, job);
+                    if (promptId != null) {
+                        pending.remove(promptId, job);
+                    }
+                });
+    }
+
+    // --- Websocket ---
+
+    private void startWebsocket() {
+        String wsUrl = baseUrl.replaceFirst("^http", "ws") + "/ws?clientId=" + clientId;
+        log.info("Connecting ComfyUI completion websocket {}", wsUrl);
+
+        websocketSubscription = HttpClient.create()
+                .websocket()
+                .uri(wsUrl)
+                .handle((inbound, outbound) -> {
+                    websocketConnected.set(true);
+                    log.info("ComfyUI websocket connected ({})", wsUrl);
+                    return inbound.aggregateFrames()
+                            .receiveFrames()
+                            .filter(frame -> frame instanceof TextWebSocketFrame)
+                            .map(frame -> ((TextWebSocketFrame) frame).text())
+                            .doOnNext(this::onMessage)
+                            .then();
+                })
+                .doFinally(signal -> websocketConnected.set(false))
+                .then()
+                .doOnError(e -> log.warn("ComfyUI websocket error ({}), reconnecting: {}", wsUrl, e.toString()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .repeatWhen(closed -> closed.delayElements(Duration.ofSeconds(1)))
+                .subscribe();
+    }
+
+    void onMessage(String text) {
+        JsonNode msg;
+        try {
+            msg = objectMapper.readTree(text);
+        } catch (IOException e) {
+            log.debug("Ignoring unparsable ComfyUI message: {}", e.toString());
+            return;
+        }
+        String type = msg.path("type").asText("");
+        JsonNode data = msg.path("data");
+        String promptId = data.path("prompt_id").asText(null);
+        if (promptId == null) {
+            return;
+        }
+
+        switch (type) {
+            case "execution_start" -> {
+                PendingImage job = pending.get(promptId);
+                if (job != null) {
+                    job.markStarted(queueTimer);
+                }
+            }
+            case "executed" -> {
+                String path = imagePathFromImages(outputDir, data.path("output").path("images"));
+                if (path != null) {
+                    PendingImage job = pending.get(promptId);
+                    if (job != null) {
+                        job.outputPath = path;
+                    } else {
+                        rememberEarly(promptId, path);
+                    }
+                }
+            }
+            // executing mit node == null bzw. execution_success: Prompt ist komplett durchgelaufen
+            case "executing", "execution_success" -> {
+                if ("executing".equals(type) && !data.path("node").isNull()) {
+                    return;
+                }
+                PendingImage job = pending.get(promptId);
+                if (job != null) {
+                    job.complete(job.outputPath, "websocket");
+                } else {
+                    earlyCompletions.asMap().putIfAbsent(promptId, new EarlyEvent(null, null));
+                }
+            }
+            case "execution_error", "execution_interrupted" -> {
+                IllegalStateException error = new IllegalStateException("ComfyUI " + type + " for promptId " + promptId
+                        + ": " + data.path("exception_message").asText(""));
+                PendingImage job = pending.get(promptId);
+                if (job != null) {
+                    job.fail(type, error);
+                } else {
+                    // sonst liefe der Aufrufer, der sich gleich registriert, bis in den Timeout
+                    earlyCompletions.put(promptId, new EarlyEvent(null, error));
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // --- WatchService-Fallback ---
+
+    private void startWatcher() {
+        try {
+            Files.createDirectories(outputDir);
+            watchService = FileSystems.getDefault().newWatchService();
+            outputDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Cannot watch IMAGE_OUTPUT_DIR {} ({}), relying on websocket only", outputDir, e.toString());
+            return;
+        }
+
+        watchThread = new Thread(this::watchLoop, "comfyui-output-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.context() instanceof Path name) {
+                    onFileEvent(outputDir.resolve(name));
+                }
+            }
+            if (!key.reset()) {
+                log.warn("WatchKey for {} no longer valid, stopping watcher", outputDir);
+                return;
+            }
+        }
+    }
+
+    private void onFileEvent(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.toLowerCase().endsWith(".png")) {
+            return;
+        }
+        // SaveImage schreibt "<filename_prefix>_00001_.png"
+        int sep = name.indexOf('_');
+        String imageId = sep > 0 ? name.substring(0, sep) : name.substring(0, name.length() - 4);
+        PendingImage job = pending.get(imageId);
+        if (job == null) {
+            rememberEarly(imageId, file.toString());
+            return;
+        }
+        if (job.watcherArmed.compareAndSet(false, true)) {
+            completeWhenStable(job, file);
+        }
+    }
+
+    /**
+     * Wartet ohne geparkten Thread, bis die Dateigröße zwischen zwei Ticks gleich bleibt.
+     */
+    private void completeWhenStable(PendingImage job, Path file) {
+        Flux.interval(Duration.ofMillis(100))
+                .map(tick -> sizeOf(file))
+                .buffer(2, 1)
+                .filter(sizes -> sizes.size() == 2 && sizes.get(0) > 0 && sizes.get(0).equals(sizes.get(1)))
+                .next()
+                .timeout(Duration.ofSeconds(10), Mono.just(-1L))
+                .subscribe(size -> {
+                    log.info("Found image file for imageId {} -> {}", job.imageId, file);
+                    job.complete(file.toString(), "watcher");
+                });
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    private void rememberEarly(String key, String path) {
+        earlyCompletions.put(key, new EarlyEvent(path, null));
+    }
+
+    /**
+     * Löst das erste Bild aus einem ComfyUI-"images"-Array (filename/subfolder/type) gegen das Output-Verzeichnis auf.
+     */
+    static String imagePathFromImages(Path outputDir, JsonNode images) {
+        if (images == null || !images.isArray()) {
+            return null;
+        }
+        for (JsonNode img : images) {
+            String filename = img.path("filename").asText(null);
+            if (filename == null || !"output".equals(img.path("type").asText("output"))) {
+                continue;
+            }
+            String subfolder = img.path("subfolder").asText("");
+            Path dir = subfolder.isEmpty() ? outputDir : outputDir.resolve(subfolder);
+            return dir.resolve(filename).toString();
+        }
+        return null;
+    }
+
+    private void recordCompletion(PendingImage job, String source) {
+        Counter.builder("comfyui.completions")
+                .description("Abgeschlossene ComfyUI-Jobs nach Quelle des Signals")
+                .tag("source", source)
+                .tag("backend", baseUrl)
+                .register(meterRegistry)
+                .increment();
+        long startedAt = job.startedAt;
+        if (startedAt > 0) {
+            renderTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Ende eines Jobs, das vor seiner Registrierung kam: Bildpfad (null = fertig ohne Bild) oder Fehler.
+     */
+    private record EarlyEvent(String path, RuntimeException error) {
+    }
+
+    private final class PendingImage {
+        private final String imageId;
+        private final Sinks.One<Optional<String>> sink = Sinks.one();
+        private final AtomicBoolean watcherArmed = new AtomicBoolean(false);
+        private final long registeredAt = System.nanoTime();
+        private volatile long startedAt;
+        private volatile String outputPath;
+
+        private PendingImage(String imageId) {
+            this.imageId = imageId;
+        }
+
+        private void markStarted(Timer queueTimer) {
+            if (startedAt == 0) {
+                startedAt = System.nanoTime();
+                queueTimer.record(startedAt - registeredAt, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void complete(String path, String source) {
+            if (sink.tryEmitValue(Optional.ofNullable(path)).isSuccess()) {
+                recordCompletion(this, source);
+            }
+        }
+
+        private void fail(String source, Throwable error) {
+            if (sink.tryEmitError(error).isSuccess()) {
+                recordCompletion(this, source);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Warteschlange eines {@link AdaptiveLimit} mit Deficit Round Robin über Flows aus (Mandant, Priorität).
+ * <p>
+ * Jeder Flow, der an der Reihe ist, darf bis zu seinem Gewicht (INTERACTIVE z.B. 4, BATCH 1) Arbeitsschritte
+ * nacheinander starten und wandert dann ans Ende der Runde; innerhalb eines Flows gilt FIFO. Ein Mandant mit einer
+ * 30-Szenen-Story blockiert so keinen anderen, und eine interaktive Vorschau überholt Batch-Jobs, ohne sie
+ * auszuhungern. Da jeder Schritt gleich viel zählt, ist der Deficit-Zähler einfach die Restmenge des Flows vorne.
+ * <p>
+ * Hintergrund-Schritte ({@link WorkOwner#background()}, z.B. Bild-Upgrades) haben eine eigene Runde, die nur
+ * drankommt, wenn sonst nichts wartet. Sie können also verhungern – dafür verzögern sie keine Vorschau.
+ * <p>
+ * Nicht thread-safe, der Aufrufer hält den Lock.
+ */
+final class FairQueue {
+    private final Map<StoryPriority, Integer> weights;
+    private final Map<Flow, Deque<Ticket>> flows = new HashMap<>();
+    private final Deque<Flow> rotation = new ArrayDeque<>();
+    private int headCredit;
+    private int size;
+    // nur in der äußeren Queue: Runde der Hintergrund-Schritte
+    private final FairQueue background;
+
+    FairQueue(Map<StoryPriority, Integer> weights) {
+        this.weights = new EnumMap<>(StoryPriority.class);
+        this.weights.putAll(weights);
+        this.background = new FairQueue(this.weights, null);
+    }
+
+    private FairQueue(Map<StoryPriority, Integer> weights, FairQueue background) {
+        this.weights = weights;
+        this.background = background;
+    }
+
+    private FairQueue(FairQueue other) {
+        this.weights = other.weights;
+        other.flows.forEach((flow, tickets) -> flows.put(flow, new ArrayDeque<>(tickets)));
+        this.rotation.addAll(other.rotation);
+        this.headCredit = other.headCredit;
+        this.size = other.size;
+        this.background = other.background == null ? null : new FairQueue(other.background);
+    }
+
+    Ticket add(WorkOwner owner) {
+        if (owner.background() && background != null) {
+            return background.add(owner);
+        }
+        Ticket ticket = new Ticket(owner);
+        Flow flow = ticket.flow();
+        Deque<Ticket> tickets = flows.get(flow);
+        if (tickets == null) {
+            tickets = new ArrayDeque<>();
+            flows.put(flow, tickets);
+            rotation.addLast(flow);
+            if (rotation.size() == 1) {
+                resetHeadCredit();
+            }
+        }
+        tickets.addLast(ticket);
+        size++;
+        return ticket;
+    }
+
+    /**
+     * Der Schritt, der als Nächstes starten darf (ohne ihn zu entnehmen).
+     */
+    Ticket peek() {
+        Flow head = rotation.peekFirst();
+        if (head == null) {
+            return background == null ? null : background.peek();
+        }
+        return flows.get(head).peekFirst();
+    }
+
+    Ticket poll() {
+        Flow head = rotation.peekFirst();
+        if (head == null) {
+            return background == null ? null : background.poll();
+        }
+        Deque<Ticket> tickets = flows.get(head);
+        Ticket ticket = tickets.pollFirst();
+        size--;
+        headCredit--;
+        if (tickets.isEmpty()) {
+            // leere Flows verlieren ihr Restguthaben (klassisches DRR)
+            flows.remove(head);
+            rotation.pollFirst();
+            resetHeadCredit();
+        } else if (headCredit <= 0) {
+            rotation.addLast(rotation.pollFirst());
+            resetHeadCredit();
+        }
+        return ticket;
+    }
+
+    boolean remove(Ticket ticket) {
+        if (ticket.owner().background() && background != null) {
+            return background.remove(ticket);
+        }
+        Flow flow = ticket.flow();
+        Deque<Ticket> tickets = flows.get(flow);
+        if (tickets == null || !tickets.remove(ticket)) {
+            return false;
+        }
+        size--;
+        if (tickets.isEmpty()) {
+            boolean wasHead = flow.equals(rotation.peekFirst());
+            flows.remove(flow);
+            rotation.remove(flow);
+            if (wasHead) {
+                resetHeadCredit();
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return size + (background == null ? 0 : background.size());
+    }
+
+    /**
+     * Wie viele Schritte vor dem ersten wartenden Schritt der Story starten, wenn niemand Neues dazukommt;
+     * -1, wenn die Story hier nichts wartend hat.
+     */
+    int position(String storyId) {
+        FairQueue simulation = new FairQueue(this);
+        for (int position = 0; simulation.size() > 0; position++) {
+            if (simulation.poll().owner().storyId().equals(storyId)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private void resetHeadCredit() {
+        Flow head = rotation.peekFirst();
+        headCredit = head == null ? 0 : Math.max(1, weights.getOrDefault(head.priority(), 1));
+    }
+
+    private record Flow(String tenant, StoryPriority priority) {
+    }
+
+    /**
+     * Platz eines wartenden Arbeitsschritts; Identität zählt, nicht der Inhalt.
+     */
+    static final class Ticket {
+        private final WorkOwner owner;
+
+        private Ticket(WorkOwner owner) {
+            this.owner = owner;
+        }
+
+        WorkOwner owner() {
+            return owner;
+        }
+
+        private Flow flow() {
+            return new Flow(owner.tenant(), owner.priority());
+        }
+    }
+}
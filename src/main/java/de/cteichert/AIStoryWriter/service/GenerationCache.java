@@ -0,0 +1,278 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Opt-in, inhaltsadressierter Cache für Szenentexte (LLM) und Bilder (ComfyUI) auf der Platte.
+ * <p>
+ * Schlüssel ist der SHA-256 über alle Eingaben (fertiger Prompt, Modell, Seed, Workflow, Auflösung), Werte liegen als
+ * {@code <key>.txt} bzw. {@code <key>.png} in {@code app.cache.dir}. Ein LRU-Index im Speicher hält nur Dateiname
+ * und Größe; überschreitet die Summe {@code app.cache.max-size}, werden die am längsten nicht genutzten Einträge
+ * gelöscht. Beim Start wird der Index aus dem Verzeichnis (sortiert nach letzter Nutzung) wieder aufgebaut.
+ * <p>
+ * Exakte Wiederholungen brauchen deterministische Seeds, siehe {@link #seed(Object...)}.
+ */
+@Slf4j
+@Component
+public class GenerationCache {
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final MeterRegistry meterRegistry;
+
+    // Dateiname -> Größe, access-order = LRU
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    public GenerationCache(@Value("${app.cache.enabled:false}") boolean enabled,
+                           @Value("${app.cache.dir:./data/cache}") String directory,
+                           @Value("${app.cache.max-size:2GB}") DataSize maxSize,
+                           MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.maxBytes = maxSize.toBytes();
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("story.cache.size", this, GenerationCache::sizeInBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(Files::isRegularFile)
+                        .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                        .sorted(Comparator.comparing(GenerationCache::lastModified))
+                        .forEach(file -> {
+                            long size = sizeOf(file);
+                            index.put(file.getFileName().toString(), size);
+                            totalBytes += size;
+                        });
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot initialize generation cache in " + directory, e);
+        }
+        evict();
+        log.info("Generation cache {}: {} entries, {} bytes (max {})", directory, index.size(), totalBytes, maxBytes);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Cache-Schlüssel (SHA-256, hex) über alle Teile; null-Teile zählen als leer.
+     */
+    public static String key(Object... parts) {
+        return HexFormat.of().formatHex(digest(parts));
+    }
+
+    /**
+     * Deterministischer Seed (0..Integer.MAX_VALUE) aus denselben Eingaben wie der Schlüssel.
+     */
+    public static int seed(Object... parts) {
+        return ByteBuffer.wrap(digest(parts)).getInt() & Integer.MAX_VALUE;
+    }
+
+    public Optional<String> getText(String key) {
+        return lookup(key + ".txt", "text").flatMap(file -> {
+            try {
+                return Optional.of(Files.readString(file, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log.warn("Cannot read cached text {}: {}", file, e.toString());
+                forget(file.getFileName().toString());
+                return Optional.empty();
+            }
+        });
+    }
+
+    public void putText(String key, String text) {
+        if (!enabled || text == null || text.isBlank()) {
+            return;
+        }
+        store(key + ".txt", tmp -> Files.writeString(tmp, text, StandardCharsets.UTF_8));
+    }
+
+    public Optional<Path> getImage(String key) {
+        return lookup(key + ".png", "image");
+    }
+
+    /**
+     * Kopiert ein fertiges Bild in den Cache. Nicht lokal erreichbare Pfade (entfernte Backends) werden übersprungen.
+     */
+    public void putImage(String key, String imagePath) {
+        if (!enabled || imagePath == null || imagePath.isBlank()) {
+            return;
+        }
+        Path source = Paths.get(imagePath);
+        if (!Files.isRegularFile(source)) {
+            log.debug("Not caching image {}, file not reachable from here", imagePath);
+            return;
+        }
+        store(key + ".png", tmp -> Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    /**
+     * true, wenn der Pfad auf eine Datei im Cache zeigt (Ergebnis kam ohne Rendern zurück).
+     */
+    public boolean isCachedFile(String path) {
+        return enabled && path != null && !path.isBlank() && Paths.get(path).toAbsolutePath().startsWith(directory);
+    }
+
+    synchronized long sizeInBytes() {
+        return totalBytes;
+    }
+
+    private Optional<Path> lookup(String name, String type) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        boolean hit;
+        synchronized (this) {
+            // get() aktualisiert die LRU-Reihenfolge
+            hit = index.get(name) != null;
+        }
+        Path file = directory.resolve(name);
+        if (hit && !Files.isRegularFile(file)) {
+            forget(name);
+            hit = false;
+        }
+        count(type, hit);
+        if (!hit) {
+            return Optional.empty();
+        }
+        try {
+            // letzte Nutzung auch auf der Platte, damit die LRU-Reihenfolge einen Neustart überlebt
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Cannot touch cache entry {}: {}", file, e.toString());
+        }
+        return Optional.of(file);
+    }
+
+    private void store(String name, TmpWriter writer) {
+        Path target = directory.resolve(name);
+        Path tmp = directory.resolve(name + ".tmp");
+        try {
+            writer.write(tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot write cache entry {}: {}", target, e.toString());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // nichts zu tun
+            }
+            return;
+        }
+        long size = sizeOf(target);
+        synchronized (this) {
+            Long previous = index.put(name, size);
+            totalBytes += size - (previous != null ? previous : 0);
+        }
+        evict();
+    }
+
+    private void evict() {
+        while (true) {
+            String eldest;
+            synchronized (this) {
+                if (totalBytes <= maxBytes || index.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+                Map.Entry<String, Long> entry = it.next();
+                eldest = entry.getKey();
+                totalBytes -= entry.getValue();
+                it.remove();
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(eldest));
+            } catch (IOException e) {
+                log.warn("Cannot evict cache entry {}: {}", eldest, e.toString());
+            }
+        }
+    }
+
+    private synchronized void forget(String name) {
+        Long size = index.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private void count(String type, boolean hit) {
+        Counter.builder("story.cache.requests")
+                .tag("type", type)
+                .tag("result", hit ? "hit" : "miss")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static byte[] digest(Object... parts) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                sha.update(String.valueOf(part == null ? "" : part).getBytes(StandardCharsets.UTF_8));
+                // Trenner, damit ("ab","c") und ("a","bc") verschiedene Schlüssel ergeben
+                sha.update((byte) 0);
+            }
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    @FunctionalInterface
+    private interface TmpWriter {
+        void write(Path tmp) throws IOException;
+    }
+}
@@ -0,0 +1,20 @@
+package de.cteichert.AIStoryWriter.service;
+
+/**
+ * Ablaufmodus für {@link StoryService#generateStory}.
+ */
+public enum GenerationMode {
+    /**
+     * Eine Szene nach der anderen, Text- und Bild-Stufe teilen sich das heavy-Limit ({@link StageLimits}).
+     */
+    SERIAL,
+    /**
+     * Zweistufige Pipeline: Text von Szene N+1 wird geschrieben, während das Bild von Szene N rendert.
+     */
+    PIPELINE,
+    /**
+     * Erst eine Gliederung (ein LLM-Call mit Beats, Figuren und Bild-Prompt pro Szene), dann alle Szenentexte
+     * und Bilder parallel gegen die Gliederung, begrenzt wie PIPELINE durch die llm-/image-Limits.
+     */
+    OUTLINE
+}
@@ -0,0 +1,308 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+/**
+ * Warteschlange vor dem {@link StableDiffusionService}, die Bildjobs nach Checkpoint, Workflow und Auflösung gruppiert.
+ * <p>
+ * Statt jeden Job sofort abzuschicken (und ComfyUI bei gemischten Checkpoints ständig Modelle ins VRAM laden zu lassen),
+ * werden Jobs der gerade laufenden Gruppe zuerst abgearbeitet. Auf eine andere Gruppe wird erst gewechselt, wenn die
+ * aktuelle leer ist und der älteste Job der neuen Gruppe mindestens {@code batch-window} gewartet hat – dann gewinnt
+ * die größte Gruppe. {@code max-wait} begrenzt die Latenz: ein Job, der so lange wartet, ist sofort als nächster dran.
+ * <p>
+ * Hintergrund-Jobs (finale Bilder nach einer Vorschau) bilden eigene Gruppen und werden nur dispatcht, wenn kein
+ * anderer Job wartet; für sie gilt auch max-wait nicht. Gleichzeitig laufen höchstens
+ * {@code max-background-in-flight} von ihnen, der Rest von {@code max-in-flight} bleibt frei für Jobs, die später
+ * kommen – ein einmal abgeschicktes Upgrade lässt sich nicht mehr zurückstellen.
+ * <p>
+ * Verschiedene Prompts lassen sich in ComfyUI nicht in einen Latent-Batch mergen (ein Sampler, eine Conditioning),
+ * deshalb wird hier nur die Reihenfolge optimiert, nicht die Anzahl der Workflows.
+ * <p>
+ * Jobs warten hier, nicht vor dem Bild-Limit der Story-Pipeline: die {@code admission} eines Jobs (z.B. das Warten auf
+ * einen Platz im {@link AdaptiveLimit}) läuft erst beim Dispatch. Sonst sähe der Scheduler nur die wenigen Jobs, die
+ * das Limit schon durchgelassen hat, und hätte nichts zum Gruppieren.
+ */
+@Slf4j
+@Component
+public class ImageJobScheduler {
+    private final StableDiffusionService stableDiffusionService;
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final int maxBackgroundInFlight;
+    private final Duration batchWindow;
+    private final Duration maxWait;
+
+    private final Map<BatchKey, Deque<PendingJob>> groups = new LinkedHashMap<>();
+    private final AtomicBoolean timerScheduled = new AtomicBoolean(false);
+    private BatchKey currentKey;
+    private int inFlight;
+    private int backgroundInFlight;
+    private int queued;
+
+    private final Timer queueWait;
+    private final Counter checkpointSwitches;
+    // identische Bildjobs (Prompt, Checkpoint, Größe, Seed) laufen nur einmal
+    private final SingleFlight<String, String> imageFlights;
+
+    public ImageJobScheduler(StableDiffusionService stableDiffusionService,
+                             ComfyUiBackendPool backendPool,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.comfyui.scheduler.enabled:true}") boolean enabled,
+                             @Value("${app.comfyui.scheduler.max-in-flight:0}") int maxInFlight,
+                             @Value("${app.comfyui.scheduler.max-background-in-flight:0}") int maxBackgroundInFlight,
+                             @Value("${app.comfyui.scheduler.batch-window:PT0.5S}") Duration batchWindow,
+                             @Value("${app.comfyui.scheduler.max-wait:PT30S}") Duration maxWait) {
+        this.stableDiffusionService = stableDiffusionService;
+        this.enabled = enabled;
+        // 0 = zwei Jobs pro Backend: einer rendert, der nächste liegt schon in der ComfyUI-Queue
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : 2 * backendPool.backends().size();
+        // 0 = die Hälfte von max-in-flight, mindestens einer
+        this.maxBackgroundInFlight = maxBackgroundInFlight > 0 ? maxBackgroundInFlight : Math.max(1, this.maxInFlight / 2);
+        this.batchWindow = batchWindow;
+        this.maxWait = maxWait;
+
+        this.queueWait = Timer.builder("comfyui.scheduler.wait")
+                .description("Wartezeit eines Bildjobs im Scheduler bis zum Submit")
+                .register(meterRegistry);
+        this.checkpointSwitches = Counter.builder("comfyui.scheduler.switches")
+                .description("Wechsel der abgearbeiteten Gruppe (Checkpoint/Workflow/Auflösung)")
+                .register(meterRegistry);
+        Gauge.builder("comfyui.scheduler.queued", this, ImageJobScheduler::queuedJobs)
+                .register(meterRegistry);
+        this.imageFlights = new SingleFlight<>("image", meterRegistry);
+    }
+
+    /**
+     * Reiht einen Bildjob ein; das Mono liefert den Bildpfad. Abbrechen entfernt einen noch wartenden Job
+     * bzw. bricht einen schon gestarteten ab.
+     * <p>
+     * {@code admission} umschließt das Rendern beim Dispatch, typischerweise Platz im Bild-Limit holen und danach
+     * freigeben. Ein Job mit denselben Eingaben wie ein laufender (der Seed hängt nur davon ab, siehe
+     * {@link GenerationCache#seed(Object...)}) wird nicht noch einmal eingereiht, sondern teilt dessen Ergebnis
+     * (und dessen admission); abgebrochen wird erst, wenn alle Aufrufer abgebrochen haben.
+     *
+     * @param background strikt nachrangig, siehe Klassenkommentar
+     */
+    public Mono<String> submit(String workflow, String checkpoint, String prompt, String negativePrompt, int width, int height,
+                               boolean background, UnaryOperator<Mono<String>> admission) {
+        int seed = GenerationCache.seed(workflow, checkpoint, prompt, negativePrompt, width, height);
+        String key = GenerationCache.key("image", workflow, checkpoint, prompt, negativePrompt, width, height, seed);
+        return imageFlights.execute(key, () -> enqueue(new BatchKey(workflow, checkpoint, width, height, background),
+                prompt, negativePrompt, admission));
+    }
+
+    Mono<String> submit(String workflow, String checkpoint, String prompt, String negativePrompt, int width, int height) {
+        return submit(workflow, checkpoint, prompt, negativePrompt, width, height, false, UnaryOperator.identity());
+    }
+
+    private Mono<String> enqueue(BatchKey key, String prompt, String negativePrompt, UnaryOperator<Mono<String>> admission) {
+        if (!enabled) {
+            return admission.apply(stableDiffusionService.generateImageWithComfyUI(key.workflow(), key.checkpoint(), prompt,
+                    negativePrompt, key.width(), key.height()));
+        }
+        return Mono.defer(() -> {
+            PendingJob job = new PendingJob(key, prompt, negativePrompt, admission);
+            synchronized (this) {
+                groups.computeIfAbsent(job.key, key -> new ArrayDeque<>()).addLast(job);
+                queued++;
+            }
+            dispatch();
+            return job.result.asMono()
+                    .doOnCancel(() -> remove(job));
+        });
+    }
+
+    synchronized int queuedJobs() {
+        return queued;
+    }
+
+    private void dispatch() {
+        List<PendingJob> toStart = new ArrayList<>();
+        boolean waiting;
+        synchronized (this) {
+            long now = System.nanoTime();
+            while (inFlight < maxInFlight && queued > 0) {
+                PendingJob next = pickNext(now);
+                if (next == null) {
+                    break;
+                }
+                Deque<PendingJob> group = groups.get(next.key);
+                group.remove(next);
+                if (group.isEmpty()) {
+                    groups.remove(next.key);
+                }
+                queued--;
+                inFlight++;
+                if (next.key.background()) {
+                    backgroundInFlight++;
+                }
+                if (!next.key.equals(currentKey)) {
+                    if (currentKey != null) {
+                        checkpointSwitches.increment();
+                        log.info("Image scheduler switching group {} -> {}", currentKey, next.key);
+                    }
+                    currentKey = next.key;
+                }
+                toStart.add(next);
+            }
+            waiting = queued > 0 && inFlight < maxInFlight && (foregroundWaiting() || backgroundSlotFree());
+        }
+
+        for (PendingJob job : toStart) {
+            start(job);
+        }
+        if (waiting) {
+            // Jobs warten auf das Batch-Fenster -> nachsehen, sobald es abgelaufen sein kann
+            scheduleDispatch(batchWindow);
+        }
+    }
+
+    /**
+     * Nächster Job: wer max-wait überschritten hat, sonst die aktuelle Gruppe, sonst die größte Gruppe
+     * (sobald ihr ältester Job das Batch-Fenster abgewartet hat oder nichts mehr läuft). Hintergrund-Gruppen zählen
+     * nur, solange keine andere Gruppe wartet und im Hintergrund-Budget Platz ist.
+     */
+    private PendingJob pickNext(long now) {
+        boolean foreground = foregroundWaiting();
+        boolean background = !foreground && backgroundSlotFree();
+        PendingJob oldest = null;
+        Deque<PendingJob> largest = null;
+        for (Deque<PendingJob> group : groups.values()) {
+            PendingJob head = group.peekFirst();
+            if (head.key.background() && !background) {
+                continue;
+            }
+            if (oldest == null || head.enqueuedAt < oldest.enqueuedAt) {
+                oldest = head;
+            }
+            if (largest == null || group.size() > largest.size()) {
+                largest = group;
+            }
+        }
+        if (oldest == null) {
+            return null;
+        }
+        if (foreground && now - oldest.enqueuedAt >= maxWait.toNanos()) {
+            return oldest;
+        }
+        Deque<PendingJob> current = currentKey != null && (background || !currentKey.background()) ? groups.get(currentKey) : null;
+        if (current != null && !current.isEmpty()) {
+            return current.peekFirst();
+        }
+        PendingJob candidate = largest.peekFirst();
+        if (inFlight == 0 || now - candidate.enqueuedAt >= batchWindow.toNanos()) {
+            return candidate;
+        }
+        return null;
+    }
+
+    private boolean foregroundWaiting() {
+        return groups.keySet().stream().anyMatch(key -> !key.background());
+    }
+
+    private boolean backgroundSlotFree() {
+        return backgroundInFlight < maxBackgroundInFlight;
+    }
+
+    private void start(PendingJob job) {
+        queueWait.record(System.nanoTime() - job.enqueuedAt, TimeUnit.NANOSECONDS);
+        BatchKey key = job.key;
+        job.running = job.admission.apply(stableDiffusionService.generateImageWithComfyUI(
+                        key.workflow(), key.checkpoint(), job.prompt, job.negativePrompt, key.width(), key.height()))
+                .doFinally(signal -> {
+                    synchronized (this) {
+                        inFlight--;
+                        if (key.background()) {
+                            backgroundInFlight--;
+                        }
+                    }
+                    dispatch();
+                })
+                .subscribe(
+                        path -> job.result.tryEmitValue(path),
+                        job.result::tryEmitError,
+                        () -> job.result.tryEmitEmpty());
+        if (job.cancelled) {
+            // Abbruch kam zwischen Dispatch und Start
+            job.running.dispose();
+        }
+    }
+
+    private void remove(PendingJob job) {
+        synchronized (this) {
+            Deque<PendingJob> group = groups.get(job.key);
+            if (group != null && group.remove(job)) {
+                queued--;
+                if (group.isEmpty()) {
+                    groups.remove(job.key);
+                }
+                return;
+            }
+        }
+        // schon gestartet: jeder Job hat genau einen Abnehmer, also den Lauf selbst canceln
+        job.cancelled = true;
+        Disposable running = job.running;
+        if (running != null) {
+            running.dispose();
+        }
+    }
+
+    private void scheduleDispatch(Duration delay) {
+        if (timerScheduled.compareAndSet(false, true)) {
+            Mono.delay(delay).subscribe(tick -> {
+                timerScheduled.set(false);
+                dispatch();
+            });
+        }
+    }
+
+    /**
+     * Jobs mit gleichem Schlüssel laufen ohne Modellwechsel direkt hintereinander.
+     */
+    record BatchKey(String workflow, String checkpoint, int width, int height, boolean background) {
+        @Override
+        public String toString() {
+            return Objects.requireNonNullElse(checkpoint, "default") + "@" + width + "x" + height
+                    + (workflow != null ? " (" + workflow + ")" : "") + (background ? " [background]" : "");
+        }
+    }
+
+    private static final class PendingJob {
+        private final BatchKey key;
+        private final String prompt;
+        private final String negativePrompt;
+        private final UnaryOperator<Mono<String>> admission;
+        private final long enqueuedAt = System.nanoTime();
+        private final Sinks.One<String> result = Sinks.one();
+        private volatile Disposable running;
+        private volatile boolean cancelled;
+
+        private PendingJob(BatchKey key, String prompt, String negativePrompt, UnaryOperator<Mono<String>> admission) {
+            this.key = key;
+            this.prompt = prompt;
+            this.negativePrompt = negativePrompt;
+            this.admission = admission;
+        }
+    }
+}
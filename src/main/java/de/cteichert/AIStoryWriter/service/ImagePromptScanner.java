@@ -0,0 +1,76 @@
+package de.cteichert.AIStoryWriter.service;
+
+import java.util.Optional;
+
+/**
+ * Inkrementeller Scanner für gestreamte LLM-Antworten.
+ * <p>
+ * Sammelt die Chunks und prüft jede abgeschlossene Zeile genau einmal auf {@code IMAGE_PROMPT:}.
+ * Sobald eine solche Zeile komplett ist (Zeilenumbruch empfangen), steht der Bild-Prompt zur Verfügung,
+ * auch wenn der restliche Szenentext noch nicht angekommen ist.
+ */
+public final class ImagePromptScanner {
+    private static final String MARKER = "IMAGE_PROMPT:";
+
+    private final StringBuilder text = new StringBuilder();
+    private int lineStart = 0;
+    private String imagePrompt;
+
+    /**
+     * Hängt einen Chunk an und liefert den Bild-Prompt, sobald dessen Zeile vollständig ist.
+     */
+    public Optional<String> append(CharSequence chunk) {
+        if (chunk != null) {
+            text.append(chunk);
+        }
+        int nl;
+        while (imagePrompt == null && (nl = text.indexOf("\n", lineStart)) >= 0) {
+            checkLine(lineStart, nl);
+            lineStart = nl + 1;
+        }
+        return Optional.ofNullable(imagePrompt);
+    }
+
+    /**
+     * Ende des Streams: prüft auch die letzte Zeile ohne abschließenden Zeilenumbruch.
+     */
+    public Optional<String> finish() {
+        if (imagePrompt == null && lineStart < text.length()) {
+            checkLine(lineStart, text.length());
+            lineStart = text.length();
+        }
+        return Optional.ofNullable(imagePrompt);
+    }
+
+    public Optional<String> imagePrompt() {
+        return Optional.ofNullable(imagePrompt);
+    }
+
+    public String text() {
+        return text.toString();
+    }
+
+    private void checkLine(int from, int to) {
+        int last = to - MARKER.length();
+        for (int i = from; i <= last; i++) {
+            if (text.charAt(i) == 'I' || text.charAt(i) == 'i') {
+                if (regionMatchesMarker(i)) {
+                    String prompt = text.substring(i + MARKER.length(), to).trim();
+                    if (!prompt.isEmpty()) {
+                        imagePrompt = prompt;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean regionMatchesMarker(int offset) {
+        for (int j = 0; j < MARKER.length(); j++) {
+            if (Character.toUpperCase(text.charAt(offset + j)) != MARKER.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.SceneDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Stabile Ids für erzeugte Bilder, damit Clients sie über {@code GET /api/images/{id}} laden können statt mit
+ * einem lokalen Pfad wie {@code D:/ComfyUI/output/...}.
+ * <p>
+ * Die Id ist {@code <Hash des Wurzelverzeichnisses>.<Base64url des relativen Pfads>} und kommt ohne Zustand aus:
+ * sie überlebt Neustarts und steht so auch im Job-Journal. Der Hash hängt nur am absoluten Pfad der Wurzel, nicht an
+ * ihrer Position in der Konfiguration; Umsortieren oder Hinzufügen von Backends ändert keine ausgegebene Id.
+ * Wurzeln sind die Output-Verzeichnisse der ComfyUI-Backends und das Verzeichnis des {@link GenerationCache};
+ * aufgelöst wird nur innerhalb dieser Wurzeln, mit {@code ../} kommt man nicht heraus.
+ */
+@Slf4j
+@Component
+public class ImageStore {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    // 48 Bit: bei einer Handvoll Wurzeln keine Kollision, die Id bleibt kurz
+    private static final int ROOT_ID_LENGTH = 12;
+
+    // Root-Id -> Wurzel
+    private final Map<String, Path> roots = new LinkedHashMap<>();
+
+    public ImageStore(ComfyUiBackendPool backendPool, GenerationCache cache) {
+        this(directories(backendPool, cache));
+    }
+
+    ImageStore(List<Path> dirs) {
+        dirs.stream()
+                .map(dir -> dir.toAbsolutePath().normalize())
+                .distinct()
+                .forEach(root -> {
+                    Path other = roots.put(rootId(root), root);
+                    if (other != null) {
+                        throw new IllegalStateException("Image roots " + other + " and " + root + " have the same id");
+                    }
+                });
+        log.info("Serving generated images from {}", roots.values());
+    }
+
+    private static List<Path> directories(ComfyUiBackendPool backendPool, GenerationCache cache) {
+        List<Path> dirs = new ArrayList<>();
+        backendPool.backends().forEach(backend -> dirs.add(backend.tracker().outputDir()));
+        dirs.add(cache.directory());
+        return dirs;
+    }
+
+    private static String rootId(Path root) {
+        return GenerationCache.key("image-root", root.toString().replace('\\', '/')).substring(0, ROOT_ID_LENGTH);
+    }
+
+    /**
+     * Id zu einem Bildpfad, null ohne Bild oder wenn der Pfad außerhalb der bekannten Verzeichnisse liegt.
+     */
+    public String idFor(String imagePath) {
+        if (imagePath == null || imagePath.isBlank()) {
+            return null;
+        }
+        Path path;
+        try {
+            path = Paths.get(imagePath).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        // bei verschachtelten Wurzeln die innerste, damit auch hier die Reihenfolge keine Rolle spielt
+        Map.Entry<String, Path> match = null;
+        for (Map.Entry<String, Path> root : roots.entrySet()) {
+            if (path.startsWith(root.getValue()) && !path.equals(root.getValue())
+                    && (match == null || root.getValue().startsWith(match.getValue()))) {
+                match = root;
+            }
+        }
+        if (match != null) {
+            String relative = match.getValue().relativize(path).toString().replace('\\', '/');
+            return match.getKey() + "." + ENCODER.encodeToString(relative.getBytes(StandardCharsets.UTF_8));
+        }
+        log.warn("Image {} is outside of {}, no image id", imagePath, roots.values());
+        return null;
+    }
+
+    /**
+     * Szene mit aktueller Bild-Id, neu aus dem Pfad berechnet (z.B. für Szenen aus einem Journal von vor den Ids oder
+     * mit Ids im alten Format aus dem Index der Wurzel).
+     */
+    public SceneDto withImageId(SceneDto scene) {
+        if (scene.imagePath() == null || scene.imagePath().isBlank()) {
+            return scene;
+        }
+        String id = idFor(scene.imagePath());
+        if (id == null ? scene.imageId() == null : id.equals(scene.imageId())) {
+            return scene;
+        }
+        return new SceneDto(scene.index(), scene.text(), scene.imagePath(), id);
+    }
+
+    /**
+     * Datei zu einer Id, leer bei ungültigen Ids, Pfaden außerhalb der Wurzeln oder fehlenden Dateien.
+     */
+    public Optional<Path> resolve(String id) {
+        int dot = id.indexOf('.');
+        if (dot <= 0) {
+            return Optional.empty();
+        }
+        Path root = roots.get(id.substring(0, dot));
+        if (root == null) {
+            return Optional.empty();
+        }
+        try {
+            String relative = new String(DECODER.decode(id.substring(dot + 1)), StandardCharsets.UTF_8);
+            Path path = root.resolve(relative).normalize();
+            if (!path.startsWith(root) || !Files.isRegularFile(path)) {
+                return Optional.empty();
+            }
+            return Optional.of(path);
+        } catch (IllegalArgumentException | InvalidPathException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Baut die Prompts der Szenen so, dass der Prefix-/KV-Cache des LLM-Servers (LM Studio, llama.cpp, vLLM) greift.
+ * <p>
+ * Die System-Message ist für alle Szenen einer Story byteidentisch: zuerst die festen Anweisungen (gleich für alle
+ * Stories), dann die Story-Konstanten (Szenenanzahl, Genre, Ton, Zusatzwünsche, ggf. die Gliederung). Alles, was
+ * sich pro Szene ändert (Szenennummer, Story-Gedächtnis), steht am Ende in der User-Message. Der Server muss pro
+ * Szene dadurch nur noch den kurzen Rest verarbeiten.
+ */
+@Component
+public class PromptAssembler {
+    // feste Anweisungen, keine Platzhalter: gemeinsamer Prefix aller Stories
+    static final String INSTRUCTIONS = """
+            WICHTIG:
+            Du schreibst eigenständig eine Szene. Stelle **keine** Rückfragen an den Nutzer. Wenn dir Informationen fehlen aber halte dich stets an bisherige information der Geschichte!
+            achte darauf, dass diese auch für die nächste Szene (sofern es nicht die letzte ist) fortgeführt werden kann und dich nicht wiederholst.
+            **Sei kreativ und bring Abwechslung in die Geschichte.**
+
+            ***Jede Szene ergibt, wenn man alle szenen kombiniert, eine einheitliche zusammenpassende und fortlaufende Geschichte***
+            zu jeder Szene erstelle ein Bild der die Szene visualisiert, gib **genau eine einzelne Zeile** aus, beginnend mit `IMAGE_PROMPT: ` gefolgt vom ins englisch übersetzte prompt mit dem Genre/Ton.
+
+            PRODUZIERE NUR die Szene und optional die einzelne IMAGE_PROMPT-Zeile. Antworte niemals mit Rückfragen oder TODO-Listen.
+            """;
+
+    // konstant innerhalb einer Story
+    static final String STORY_TEMPLATE = """
+
+            Die Geschichte hat %d Szenen im Genre %s mit Ton '%s'.
+            Berücksichtige bitte auch folgendes:
+            %s
+            """;
+
+    // ändert sich pro Szene, deshalb ganz am Ende
+    static final String SCENE_TEMPLATE = """
+            Schreibe Szene %d von %d.
+            %s
+            """;
+
+    /**
+     * System- und User-Message einer Szene.
+     */
+    public record ScenePrompt(String system, String user) {
+
+        int estimatedTokens() {
+            return StoryContext.estimateTokens(system) + StoryContext.estimateTokens(user);
+        }
+    }
+
+    /**
+     * @param outline Gliederung (OUTLINE-Modus), sonst null
+     * @param memory  Story-Gedächtnis aus {@link StoryContext#promptContext(int)}, ohne Gliederung
+     */
+    ScenePrompt scene(StoryRequest request, int sceneIndex, StoryOutline outline, String memory) {
+        String system = system(request, outline);
+        String context;
+        if (outline != null) {
+            context = outline.sceneBrief(sceneIndex);
+        } else {
+            context = "Bisheriger Verlauf der Geschichte: " + (memory == null || memory.isEmpty() ? "Dies ist der Anfang der Geschichte." : memory);
+        }
+        return new ScenePrompt(system, SCENE_TEMPLATE.formatted(sceneIndex, request.scenes(), context));
+    }
+
+    private String system(StoryRequest request, StoryOutline outline) {
+        String system = INSTRUCTIONS + STORY_TEMPLATE.formatted(request.scenes(), request.genre(), request.tone(), request.additonalTextPrompt());
+        // die Gliederung ist für alle Szenen gleich und gehört deshalb in den gemeinsamen Prefix
+        return outline == null ? system : system + "\n" + outline.overview();
+    }
+}
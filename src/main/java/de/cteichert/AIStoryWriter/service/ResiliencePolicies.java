@@ -0,0 +1,55 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Die {@link ResiliencePolicy}s der Backends: eine für das LLM ({@code app.llm.resilience.*}) und eine pro
+ * ComfyUI-Backend ({@code app.comfyui.resilience.*}). Perzentil-Fenster und Circuit Breaker teilen sich die
+ * Einstellungen unter {@code app.resilience.*}.
+ * <p>
+ * Das LLM ist ein Server mit (optional) mehreren Slots, ein Hedge geht dort an einen zweiten Slot und ist deshalb
+ * per Default aus; bei ComfyUI geht er an ein anderes, weniger belastetes Backend.
+ */
+@Slf4j
+@Component
+public class ResiliencePolicies {
+    private final ResiliencePolicy llm;
+    private final ResiliencePolicy.Settings comfyUi;
+    private final MeterRegistry registry;
+
+    public ResiliencePolicies(MeterRegistry registry,
+                              @Value("${app.llm.resilience.min-timeout:PT30S}") Duration llmMinTimeout,
+                              @Value("${app.llm.resilience.max-timeout:PT15M}") Duration llmMaxTimeout,
+                              @Value("${app.llm.resilience.hedge:false}") boolean llmHedge,
+                              @Value("${app.comfyui.resilience.min-timeout:PT30S}") Duration comfyUiMinTimeout,
+                              @Value("${app.comfyui.resilience.max-timeout:PT10M}") Duration comfyUiMaxTimeout,
+                              @Value("${app.comfyui.resilience.hedge:true}") boolean comfyUiHedge,
+                              @Value("${app.resilience.timeout-multiplier:3.0}") double timeoutMultiplier,
+                              @Value("${app.resilience.min-samples:20}") int minSamples,
+                              @Value("${app.resilience.failure-threshold:5}") int failureThreshold,
+                              @Value("${app.resilience.open-duration:PT30S}") Duration openDuration) {
+        this.registry = registry;
+        int threshold = Math.max(1, failureThreshold);
+        this.llm = new ResiliencePolicy("llm", new ResiliencePolicy.Settings(llmMinTimeout, llmMaxTimeout,
+                timeoutMultiplier, llmHedge, minSamples, threshold, openDuration), registry);
+        this.comfyUi = new ResiliencePolicy.Settings(comfyUiMinTimeout, comfyUiMaxTimeout,
+                timeoutMultiplier, comfyUiHedge, minSamples, threshold, openDuration);
+        log.info("Resilience: {}, ComfyUI {}", llm, comfyUi);
+    }
+
+    ResiliencePolicy llm() {
+        return llm;
+    }
+
+    /**
+     * Neue Policy für ein ComfyUI-Backend (ein Aufruf pro Backend beim Aufbau des {@link ComfyUiBackendPool}).
+     */
+    ResiliencePolicy comfyUi(String baseUrl) {
+        return new ResiliencePolicy(baseUrl, comfyUi, registry);
+    }
+}
@@ -0,0 +1,289 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Timeout, Hedging und Circuit Breaker für ein Backend (das LLM bzw. ein ComfyUI-Backend).
+ * <ul>
+ *     <li>Timeout: p99 der letzten erfolgreichen Aufrufe mal {@code timeout-multiplier}, begrenzt auf
+ *     {@code min-timeout}..{@code max-timeout}; solange es weniger als {@code min-samples} Messungen gibt, gilt
+ *     {@code max-timeout}. Damit ist die Dauer eines Aufrufs durch die Policy begrenzt, nicht durch Tage-Timeouts.</li>
+ *     <li>Hedging: ist ein Aufruf nach p95 noch nicht fertig, geht derselbe Aufruf zusätzlich an ein zweites
+ *     Backend bzw. einen zweiten Slot; der schnellere gewinnt, der andere wird abgebrochen.</li>
+ *     <li>Circuit Breaker: nach {@code failure-threshold} Fehlern (inkl. Timeouts) in Folge werden Aufrufe für
+ *     {@code open-duration} sofort mit {@link CircuitOpenException} abgelehnt. Danach ist der Breaker halb offen:
+ *     genau ein Probe-Aufruf darf durch, alle anderen werden bis zu dessen Ende weiter abgelehnt. Erfolg der Probe
+ *     schließt den Breaker, ein Fehler öffnet ihn wieder.</li>
+ * </ul>
+ * Abgebrochene Aufrufe (z.B. der Verlierer eines Hedges) zählen weder als Erfolg noch als Fehler.
+ */
+@Slf4j
+public final class ResiliencePolicy {
+    private static final int WINDOW = 200;
+
+    public enum State {CLOSED, HALF_OPEN, OPEN}
+
+    /**
+     * @param hedge ob nach p95 ein zweiter Aufruf gestartet werden darf
+     */
+    public record Settings(Duration minTimeout, Duration maxTimeout, double timeoutMultiplier, boolean hedge,
+                           int minSamples, int failureThreshold, Duration openDuration) {
+    }
+
+    private final String name;
+    private final Settings settings;
+
+    // Ringpuffer der letzten Latenzen erfolgreicher Aufrufe in ns
+    private final long[] samples = new long[WINDOW];
+    private int next;
+    private int count;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // nanoTime, bis zu dem der Breaker offen ist; 0 = geschlossen
+    private volatile long openUntil;
+    // halb offen: läuft gerade der eine Probe-Aufruf?
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final LongSupplier nanoTime;
+
+    private final Counter rejected;
+    private final Counter timeouts;
+    private final Counter hedges;
+
+    ResiliencePolicy(String name, Settings settings, MeterRegistry registry) {
+        this(name, settings, registry, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime Uhr für Latenzen und die offene Zeit des Breakers (Tests)
+     */
+    ResiliencePolicy(String name, Settings settings, MeterRegistry registry, LongSupplier nanoTime) {
+        this.name = name;
+        this.settings = settings;
+        this.nanoTime = nanoTime;
+        this.rejected = Counter.builder("resilience.rejected")
+                .description("Aufrufe, die der offene Circuit Breaker sofort abgelehnt hat")
+                .tag("backend", name)
+                .register(registry);
+        this.timeouts = Counter.builder("resilience.timeouts")
+                .description("Aufrufe, die den perzentilbasierten Timeout überschritten haben")
+                .tag("backend", name)
+                .register(registry);
+        this.hedges = Counter.builder("resilience.hedges")
+                .description("Zusätzliche Aufrufe nach p95 an ein zweites Backend bzw. einen zweiten Slot")
+                .tag("backend", name)
+                .register(registry);
+        Gauge.builder("resilience.circuit.state", this, policy -> policy.state().ordinal())
+                .description("0 = geschlossen, 1 = halb offen, 2 = offen")
+                .tag("backend", name)
+                .register(registry);
+        Gauge.builder("resilience.timeout", this, policy -> policy.timeout().toMillis() / 1000.0)
+                .description("Aktueller Timeout in Sekunden")
+                .tag("backend", name)
+                .register(registry);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public State state() {
+        long until = openUntil;
+        if (until == 0) {
+            return State.CLOSED;
+        }
+        return nanoTime.getAsLong() - until < 0 ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * Ob ein Aufruf jetzt durchgelassen würde: geschlossen, oder halb offen und die Probe ist noch frei.
+     */
+    public boolean allowsRequests() {
+        State state = state();
+        return state == State.CLOSED || (state == State.HALF_OPEN && !probing.get());
+    }
+
+    /**
+     * Timeout für den nächsten Aufruf, siehe Klassenkommentar.
+     */
+    public Duration timeout() {
+        long p99 = percentile(0.99);
+        if (p99 < 0) {
+            return settings.maxTimeout();
+        }
+        long nanos = (long) (p99 * settings.timeoutMultiplier());
+        nanos = Math.max(settings.minTimeout().toNanos(), Math.min(settings.maxTimeout().toNanos(), nanos));
+        return Duration.ofNanos(nanos);
+    }
+
+    /**
+     * Verzögerung bis zum Hedge (p95), leer wenn Hedging aus ist oder noch zu wenig gemessen wurde.
+     */
+    public Optional<Duration> hedgeDelay() {
+        if (!settings.hedge()) {
+            return Optional.empty();
+        }
+        long p95 = percentile(0.95);
+        return p95 < 0 ? Optional.empty() : Optional.of(Duration.ofNanos(p95));
+    }
+
+    /**
+     * Ein Aufruf mit Circuit Breaker und Timeout; Latenz bzw. Fehler fließen in die Policy ein.
+     */
+    public <T> Mono<T> call(Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> {
+            State state = state();
+            if (!admit(state)) {
+                return Mono.error(rejection());
+            }
+            long start = nanoTime.getAsLong();
+            Duration timeout = timeout();
+            return attempt.get()
+                    .timeout(timeout, Mono.error(() -> new TimeoutException(name + " did not answer within " + timeout)))
+                    .doOnSuccess(value -> recordSuccess(nanoTime.getAsLong() - start))
+                    .doOnError(this::recordFailure)
+                    // nach recordSuccess/recordFailure: der Breaker ist dann schon zu bzw. wieder offen
+                    .doFinally(signal -> endProbe(state));
+        });
+    }
+
+    /**
+     * Wie {@link #call(Supplier)}, nach p95 zusätzlich derselbe Aufruf noch einmal (zweiter Slot desselben Backends).
+     */
+    public <T> Mono<T> hedged(Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> hedgeDelay()
+                .map(delay -> hedge(call(attempt), delay, Mono.defer(() -> {
+                    recordHedge();
+                    return call(attempt);
+                })))
+                .orElseGet(() -> call(attempt)));
+    }
+
+    /**
+     * Streaming-Aufruf: der Timeout gilt für den ganzen Stream, nicht pro Chunk. Ohne Hedge, weil die ersten
+     * Chunks schon beim Client sind.
+     */
+    public <T> Flux<T> stream(Supplier<Flux<T>> attempt) {
+        return Flux.defer(() -> {
+            State state = state();
+            if (!admit(state)) {
+                return Flux.error(rejection());
+            }
+            long start = nanoTime.getAsLong();
+            Duration timeout = timeout();
+            long deadline = start + timeout.toNanos();
+            return attempt.get()
+                    .timeout(Mono.delay(timeout),
+                            chunk -> Mono.delay(Duration.ofNanos(Math.max(0, deadline - nanoTime.getAsLong()))))
+                    .doOnComplete(() -> recordSuccess(nanoTime.getAsLong() - start))
+                    .doOnError(this::recordFailure)
+                    .doFinally(signal -> endProbe(state));
+        });
+    }
+
+    /**
+     * Lässt einen Aufruf im Zustand {@code state} zu; halb offen nur den ersten, der die Probe bekommt.
+     */
+    private boolean admit(State state) {
+        return state == State.CLOSED || (state == State.HALF_OPEN && probing.compareAndSet(false, true));
+    }
+
+    /**
+     * Gibt die Probe frei, wenn der Aufruf sie hatte. Ein abgebrochener Probe-Aufruf lässt den Breaker halb offen,
+     * der nächste Aufruf wird zur Probe.
+     */
+    private void endProbe(State admittedIn) {
+        if (admittedIn == State.HALF_OPEN) {
+            probing.set(false);
+        }
+    }
+
+    private CircuitOpenException rejection() {
+        rejected.increment();
+        return new CircuitOpenException("Circuit for " + name + " is open");
+    }
+
+    /**
+     * Startet {@code backup} nach {@code delay}, falls {@code primary} bis dahin nicht fertig ist; das erste Ergebnis
+     * gewinnt, der andere Aufruf wird abgebrochen. Ein Fehler von {@code primary} kommt sofort durch, ohne auf den
+     * Hedge zu warten. Ein leeres {@code backup} (kein zweites Backend frei) oder ein Fehler des Hedges lässt
+     * {@code primary} allein weiterlaufen.
+     */
+    static <T> Mono<T> hedge(Mono<T> primary, Duration delay, Mono<T> backup) {
+        Mono<T> hedge = Mono.delay(delay)
+                .then(backup)
+                .onErrorResume(ex -> {
+                    log.debug("Hedge failed, waiting for the primary call: {}", ex.toString());
+                    return Mono.never();
+                })
+                .switchIfEmpty(Mono.never());
+        return Mono.firstWithSignal(primary, hedge);
+    }
+
+    void recordHedge() {
+        hedges.increment();
+    }
+
+    void recordSuccess(long nanos) {
+        synchronized (samples) {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+        consecutiveFailures.set(0);
+        if (openUntil != 0) {
+            openUntil = 0;
+            log.info("Circuit for {} closed again", name);
+        }
+    }
+
+    void recordFailure(Throwable error) {
+        if (error instanceof CircuitOpenException) {
+            return;
+        }
+        if (error instanceof TimeoutException) {
+            timeouts.increment();
+        }
+        int failures = consecutiveFailures.incrementAndGet();
+        State state = state();
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= settings.failureThreshold())) {
+            openUntil = nanoTime.getAsLong() + settings.openDuration().toNanos();
+            log.warn("Circuit for {} opened for {} after {} failures in a row: {}", name, settings.openDuration(),
+                    failures, error.toString());
+        }
+    }
+
+    /**
+     * q-Perzentil der Latenz in ns, -1 solange es weniger als {@code min-samples} Messungen gibt.
+     */
+    long percentile(double q) {
+        long[] sorted;
+        synchronized (samples) {
+            if (count == 0 || count < settings.minSamples()) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + state() + ", timeout=" + timeout() + "]";
+    }
+}
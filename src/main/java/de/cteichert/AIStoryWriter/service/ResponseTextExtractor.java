@@ -0,0 +1,166 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Holt den Text aus einer LLM-Antwort.
+ * <p>
+ * Spring AI {@link ChatResponse} wird direkt und typisiert gelesen. Für alle anderen Typen werden die
+ * Zugriffe (gängige Getter, danach deklarierte Felder) einmal pro Klasse als {@link MethodHandle} aufgelöst
+ * und gecacht, statt bei jedem Aufruf per Reflection zu suchen. Die Rekursion ist in der Tiefe begrenzt
+ * und gegen Zyklen geschützt.
+ */
+@Component
+public class ResponseTextExtractor {
+    private static final int MAX_DEPTH = 8;
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // gleiche Reihenfolge wie bisher: erst Text, dann Container
+    private static final String[] CANDIDATE_METHODS = {
+            "getText", "text",
+            "getContent", "getMessage", "getMessages",
+            "getOutput", "getResult", "getBody",
+            "getChoices", "getData"
+    };
+    private static final String[] MAP_TEXT_KEYS = {"text", "content", "message"};
+    private static final String[] MAP_CONTAINER_KEYS = {"body", "output", "result"};
+    private static final String[] MAP_LIST_KEYS = {"choices", "messages"};
+
+    private final ClassValue<List<MethodHandle>> accessors = new ClassValue<>() {
+        @Override
+        protected List<MethodHandle> computeValue(Class<?> type) {
+            return resolveAccessors(type);
+        }
+    };
+
+    public String extract(Object resp) {
+        if (resp instanceof ChatResponse chatResponse) {
+            return fromChatResponse(chatResponse);
+        }
+        String text = extract(resp, 0, null);
+        return text == null ? "" : text;
+    }
+
+    private static String fromChatResponse(ChatResponse response) {
+        Generation result = response.getResult();
+        if (result == null || result.getOutput() == null) {
+            return "";
+        }
+        String text = result.getOutput().getText();
+        return text == null ? "" : text;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private String extract(Object resp, int depth, Set<Object> visited) {
+        switch (resp) {
+            case null -> {
+                return "";
+            }
+            case CharSequence ignored -> {
+                return resp.toString();
+            }
+            case ChatResponse chatResponse -> {
+                return fromChatResponse(chatResponse);
+            }
+            case Map map -> {
+                Object v;
+                for (String key : MAP_TEXT_KEYS) {
+                    if ((v = map.get(key)) != null) {
+                        return v.toString();
+                    }
+                }
+                for (String key : MAP_CONTAINER_KEYS) {
+                    if ((v = map.get(key)) != null) {
+                        return extract(v, depth + 1, visited);
+                    }
+                }
+                for (String key : MAP_LIST_KEYS) {
+                    if ((v = map.get(key)) instanceof List list && !list.isEmpty()) {
+                        return extract(list.getFirst(), depth + 1, visited);
+                    }
+                }
+            }
+            case List list -> {
+                return list.isEmpty() ? "" : extract(list.getFirst(), depth + 1, visited);
+            }
+            default -> {
+            }
+        }
+
+        if (depth >= MAX_DEPTH) {
+            return resp.toString();
+        }
+        if (visited == null) {
+            visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+        if (!visited.add(resp)) {
+            return null;
+        }
+
+        for (MethodHandle accessor : accessors.get(resp.getClass())) {
+            Object value;
+            try {
+                value = (Object) accessor.invokeExact(resp);
+            } catch (Throwable e) {
+                continue;
+            }
+            if (value != null) {
+                String extracted = extract(value, depth + 1, visited);
+                if (extracted != null && !extracted.isBlank()) {
+                    return extracted;
+                }
+            }
+        }
+
+        try {
+            return resp.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * Einmal pro Klasse: passende Getter in Kandidaten-Reihenfolge, danach alle deklarierten Instanzfelder.
+     */
+    private static List<MethodHandle> resolveAccessors(Class<?> type) {
+        List<MethodHandle> handles = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        for (String name : CANDIDATE_METHODS) {
+            try {
+                Method m = type.getMethod(name);
+                if (Modifier.isStatic(m.getModifiers()) || m.getReturnType() == void.class) {
+                    continue;
+                }
+                if (!m.trySetAccessible()) {
+                    continue;
+                }
+                handles.add(lookup.unreflect(m).asType(ACCESSOR_TYPE));
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ignored) {
+                // Methode nicht vorhanden/zugreifbar -> weiter
+            }
+        }
+
+        for (Field f : type.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers()) || !f.trySetAccessible()) {
+                continue;
+            }
+            try {
+                handles.add(lookup.unreflectGetter(f).asType(ACCESSOR_TYPE));
+            } catch (IllegalAccessException ignored) {
+                // Feld nicht zugreifbar -> weiter
+            }
+        }
+        return List.copyOf(handles);
+    }
+}
@@ -0,0 +1,108 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-Flight: gleichzeitige Aufrufe mit demselben Schlüssel teilen sich eine Ausführung.
+ * <p>
+ * Wer kommt, während eine Ausführung läuft (z.B. ein Client, der nach einem Timeout dieselbe Story noch einmal
+ * anfordert), hängt sich an das laufende Mono und bekommt dasselbe Ergebnis bzw. denselben Fehler. Abgebrochen wird
+ * die Ausführung erst, wenn der letzte Abonnent weg ist. Nach dem Ende (Wert, Fehler, Abbruch) startet der nächste
+ * Aufruf neu – Ergebnisse wiederverwenden ist Sache des {@link GenerationCache}.
+ * <p>
+ * Anhängen und das Austragen beim Abbruch des letzten Abonnenten laufen beide in {@code inFlight.compute}: ein
+ * Aufruf, der währenddessen kommt, hängt sich entweder noch an oder startet eine neue Ausführung, nie an eine, die
+ * gerade abgebrochen wird.
+ * <p>
+ * Jeder angehängte Aufruf zählt als Treffer in {@code story.coalesced{type}}.
+ */
+final class SingleFlight<K, V> {
+    private final Map<K, Flight> inFlight = new ConcurrentHashMap<>();
+    private final Counter hits;
+
+    SingleFlight(String type, MeterRegistry registry) {
+        this.hits = Counter.builder("story.coalesced")
+                .description("Aufrufe, die sich an eine laufende identische Ausführung gehängt haben")
+                .tag("type", type)
+                .register(registry);
+    }
+
+    /**
+     * Mono, das die laufende Ausführung für {@code key} teilt oder beim Abonnieren eine neue aus {@code work} startet.
+     */
+    Mono<V> execute(K key, Supplier<Mono<V>> work) {
+        return Mono.defer(() -> {
+            boolean[] joined = {false};
+            Flight flight = inFlight.compute(key, (k, running) -> {
+                if (running == null) {
+                    return new Flight(k, work);
+                }
+                running.subscribers++;
+                joined[0] = true;
+                return running;
+            });
+            if (joined[0]) {
+                hits.increment();
+            }
+            return flight.join();
+        });
+    }
+
+    boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    int size() {
+        return inFlight.size();
+    }
+
+    private final class Flight {
+        private final K key;
+        private final Flux<V> shared;
+        private final Disposable.Swap connection = Disposables.swap();
+        // Abonnenten, die nicht abgebrochen haben; nur in inFlight.compute* geändert
+        private int subscribers = 1;
+
+        Flight(K key, Supplier<Mono<V>> work) {
+            this.key = key;
+            // replay(1) für Nachzügler zwischen Wert und Austragen; die Quelle startet mit dem ersten Abonnenten
+            // (außerhalb von compute) und endet von selbst oder per leave() des letzten Abonnenten
+            this.shared = Mono.defer(work)
+                    .doFinally(signal -> inFlight.remove(key, this))
+                    .flux()
+                    .replay(1)
+                    .autoConnect(1, connection::update);
+        }
+
+        Mono<V> join() {
+            return shared.singleOrEmpty().doOnCancel(this::leave);
+        }
+
+        /**
+         * Ein Abonnent bricht ab; beim letzten wird der Flight im selben Schritt ausgetragen und erst danach die Quelle
+         * abgebrochen.
+         */
+        private void leave() {
+            boolean[] last = {false};
+            inFlight.computeIfPresent(key, (k, flight) -> {
+                if (flight != this || --subscribers > 0) {
+                    return flight;
+                }
+                last[0] = true;
+                return null;
+            });
+            if (last[0]) {
+                connection.dispose();
+            }
+        }
+    }
+}
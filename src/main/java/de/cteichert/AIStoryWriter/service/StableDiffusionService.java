@@ -3,219 +3,315 @@ package de.cteichert.AIStoryWriter.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.handler.timeout.ReadTimeoutException;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.PrematureCloseException;
 
-import java.io.File;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.util.Random;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
 public class StableDiffusionService {
-    private final WebClient comfyUiWebClient;
+    private final ComfyUiBackendPool backendPool;
+    private final WorkflowTemplateRegistry workflowRegistry;
+    private final GenerationCache cache;
+    private final MeterRegistry meterRegistry;
+    private final Counter historyFallbacks;
+    private final Duration historyPollInterval;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final String WORKFLOW_PATH = "stable-diffusion-workflows/default.json";
-    private static final String IMAGE_OUTPUT_DIR = "D:/ComfyUI/output"; // anpassen falls nötig
-
-    public StableDiffusionService(WebClient comfyUiWebClient) {
-        this.comfyUiWebClient = comfyUiWebClient;
+    public StableDiffusionService(ComfyUiBackendPool backendPool,
+                                  WorkflowTemplateRegistry workflowRegistry,
+                                  GenerationCache cache,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.comfyui.history-poll-interval:PT10S}") Duration historyPollInterval) {
+        this.backendPool = backendPool;
+        this.historyPollInterval = historyPollInterval;
+        this.workflowRegistry = workflowRegistry;
+        this.cache = cache;
+        this.meterRegistry = meterRegistry;
+        this.historyFallbacks = Counter.builder("comfyui.history.fallback")
+                .description("Bilder, deren Pfad nachträglich über /history aufgelöst werden musste")
+                .register(meterRegistry);
     }
 
     /**
-     * Verbessertes, instrumentiertes ComfyUI-Polling:
-     * - loggt POST-Response / promptId
-     * - pollt /history/{id} (falls vorhanden) und fallback: sucht Dateien im IMAGE_OUTPUT_DIR mit prefix imageId
-     * - viel mehr debug-Logs für die Fehlersuche
+     * Event-basierte ComfyUI-Generierung:
+     * - wählt über den {@link ComfyUiBackendPool} das am wenigsten belastete Backend (Checkpoint-Affinität)
+     * - baut den Workflow und schickt ihn mit der client_id des {@link ComfyUiCompletionTracker} des Backends an /prompt
+     * - wartet ohne geparkten Thread auf das Websocket-Event bzw. die Datei im IMAGE_OUTPUT_DIR
+     * - meldet ComfyUI "fertig" ohne Bild, wird der Pfad einmalig über /history/{id} aufgelöst
+     * - geht ein Event verloren, findet das langsame Polling von /history/{id} (app.comfyui.history-poll-interval) das Bild
+     * - Timeout oder Abbruch des Monos löscht den Job aus der ComfyUI-Queue, es wartet danach nichts mehr darauf
+     * - lehnt ComfyUI /prompt ab oder ist nicht erreichbar, scheitert der Versuch sofort; gewartet wird nur, wenn der
+     *   Job trotz Fehler (Timeout der Antwort) in der Queue sein kann
+     * - Timeout, Hedge und Circuit Breaker kommen aus der {@link ResiliencePolicy} des Backends: braucht der Job länger
+     *   als p95, läuft derselbe Job (gleicher Seed, also dasselbe Bild) zusätzlich auf einem weniger belasteten Backend
+     * Der Seed wird aus Workflow, Checkpoint, Prompts und Auflösung abgeleitet: gleiche Eingaben ergeben dasselbe Bild,
+     * das mit app.cache.enabled aus dem {@link GenerationCache} kommt statt neu gerendert zu werden.
      */
     public Mono<String> generateImageWithComfyUI(String modelName, String prompt, String negativePrompt, int width, int height) {
-        log.info("Generating image - width: {}, height: {}, prompt: '{}'", width, height, prompt);
+        return generateImageWithComfyUI(null, modelName, prompt, negativePrompt, width, height);
+    }
+
+    /**
+     * Wie {@link #generateImageWithComfyUI(String, String, String, int, int)}, aber mit benanntem Workflow
+     * aus der {@link WorkflowTemplateRegistry} (null = Default-Workflow).
+     */
+    public Mono<String> generateImageWithComfyUI(String workflowName, String modelName, String prompt, String negativePrompt, int width, int height) {
+        log.info("Generating image - workflow: {}, width: {}, height: {}, prompt: '{}'", workflowName, width, height, prompt);
+
+        final Timer.Sample imageSample = Timer.start(meterRegistry);
+
+        return Mono.defer(() -> {
+                    String workflow = workflowRegistry.get(workflowName).name();
+                    int seed = GenerationCache.seed(workflow, modelName, prompt, negativePrompt, width, height);
+                    String cacheKey = GenerationCache.key("image", workflow, modelName, prompt, negativePrompt, width, height, seed);
+                    Optional<Path> cached = cache.getImage(cacheKey);
+                    if (cached.isPresent()) {
+                        log.info("Image for workflow {} served from cache -> {}", workflow, cached.get());
+                        return Mono.just(cached.get().toString());
+                    }
+                    ComfyUiBackend backend = backendPool.select(modelName);
+                    Mono<String> image = attempt(backend, workflowName, modelName, prompt, negativePrompt, width, height, seed);
+                    Mono<String> hedged = backend.policy().hedgeDelay()
+                            .map(delay -> ResiliencePolicy.hedge(image, delay, Mono.defer(() -> backendPool.selectHedge(modelName, backend)
+                                    .map(other -> {
+                                        log.info("Image on {} slower than p95 ({}), hedging to {}", backend, delay, other);
+                                        backend.policy().recordHedge();
+                                        return attempt(other, workflowName, modelName, prompt, negativePrompt, width, height, seed);
+                                    })
+                                    .orElseGet(Mono::empty))))
+                            .orElse(image);
+                    return hedged.flatMap(path -> storeInCache(cacheKey, path));
+                })
+                .doOnSuccess(path -> imageSample.stop(timer("comfyui.image.duration", "success")))
+                .doOnError(ex -> imageSample.stop(timer("comfyui.image.duration",
+                        ex instanceof TimeoutException ? "timeout" : "error")));
+    }
 
-        final String imageId = UUID.randomUUID().toString();
+    /**
+     * Ein Versuch auf einem Backend, mit eigener imageId (der Tracker ordnet Ergebnisse darüber zu).
+     */
+    private Mono<String> attempt(ComfyUiBackend backend, String workflowName, String modelName,
+                                 String prompt, String negativePrompt, int width, int height, int seed) {
+        return backend.policy().call(() -> {
+            String imageId = UUID.randomUUID().toString();
+            backend.dispatched(modelName);
+            return generateOn(backend, imageId, workflowName, modelName, prompt, negativePrompt, width, height, seed)
+                    .doFinally(signal -> backend.finished());
+        });
+    }
+
+    private Mono<String> generateOn(ComfyUiBackend backend, String imageId, String workflowName, String modelName,
+                                    String prompt, String negativePrompt, int width, int height, int seed) {
         final Duration submitTimeout = Duration.ofSeconds(20);
-        final Duration pollTimeout = Duration.ofMinutes(10);
-        final long pollIntervalMillis = 800L;
+        final ComfyUiCompletionTracker completionTracker = backend.tracker();
 
         return Mono.fromCallable(() -> {
-            // --- Build workflow JSON (wie vorher) ---
-            File jsonFile = new ClassPathResource(WORKFLOW_PATH).getFile();
-            JsonNode workflow = objectMapper.readTree(jsonFile);
-
-            int seed = new Random().nextInt(Integer.MAX_VALUE);
-            ((ObjectNode) workflow.get("3").get("inputs")).put("seed", seed);
-            ((ObjectNode) workflow.get("4").get("inputs")).put("ckpt_name", modelName);
-            ((ObjectNode) workflow.get("6").get("inputs")).put("text", prompt.replace("\"", "'").replace("\\", ""));
-            if (StringUtils.isNotBlank(negativePrompt)) {
-                ((ObjectNode) workflow.get("7").get("inputs")).put("text", negativePrompt.replace("\"", "'").replace("\\", ""));
-            }
-            ObjectNode latentImageInputs = (ObjectNode) workflow.get("5").get("inputs");
-            latentImageInputs.put("width", width);
-            latentImageInputs.put("height", height);
+                    // Template ist beim Start geparst, hier nur tiefe Kopie + Parameter
+                    ObjectNode workflow = workflowRegistry.get(workflowName).instantiate(new WorkflowParameters(
+                            modelName, prompt, negativePrompt, width, height, seed, imageId));
 
-            ((ObjectNode) workflow.get("9").get("inputs")).put("filename_prefix", imageId);
+                    ObjectNode request = objectMapper.createObjectNode();
+                    request.set("prompt", workflow);
+                    request.put("client_id", completionTracker.clientId());
+                    return request;
+                })
+                .flatMap(request -> {
+                    log.info("Posting prompt to ComfyUI {} (/prompt). imageId={}", backend, imageId);
+                    Timer.Sample submitSample = Timer.start(meterRegistry);
+                    return backend.webClient().post()
+                            .uri("/prompt")
+                            .bodyValue(request)
+                            .retrieve()
+                            .bodyToMono(JsonNode.class)
+                            .timeout(submitTimeout)
+                            .doOnSuccess(resp -> submitSample.stop(timer("comfyui.submit", "success")))
+                            .doOnError(ex -> submitSample.stop(timer("comfyui.submit", "error")))
+                            .doOnError(ex -> log.error("Error while POST /prompt to ComfyUI {}: {}", backend, ex.toString()))
+                            .doOnError(ex -> backendPool.reportFailure(backend, ex))
+                            // nur wenn unklar ist, ob ComfyUI den Job angenommen hat, auf das Bild warten;
+                            // abgelehnte oder gar nicht gesendete Requests lassen den Versuch sofort scheitern
+                            .onErrorResume(StableDiffusionService::maybeSubmitted, ex -> Mono.empty())
+                            .map(Optional::of)
+                            .defaultIfEmpty(Optional.empty());
+                })
+                .flatMap(submitResp -> {
+                    // Try to extract possible direct outputs from submit response
+                    if (submitResp.isPresent() && submitResp.get().has("outputs")) {
+                        String path = tryExtractPathFromOutputs(submitResp.get().get("outputs"), completionTracker.outputDir());
+                        if (path != null) {
+                            log.info("ComfyUI returned outputs immediately for imageId {} -> {}", imageId, path);
+                            return Mono.just(path);
+                        }
+                    }
 
-            ObjectNode request = objectMapper.createObjectNode();
-            request.set("prompt", workflow);
+                    String promptId = submitResp.map(this::extractPromptId).orElse(null);
+                    log.info("Using imageId={}, promptId={}", imageId, promptId);
+
+                    Mono<String> completion = completionTracker.awaitCompletion(imageId, promptId)
+                            .switchIfEmpty(Mono.defer(() -> resolveFromHistory(backend, promptId)));
+                    // das erste Signal gewinnt (Polling liefert nur Pfade, Fehler des Events kommen also durch)
+                    return Mono.firstWithSignal(completion, pollHistory(backend, promptId))
+                            .doOnNext(path -> log.info("Found image for imageId {} on {} -> {}", imageId, backend, path))
+                            .doOnCancel(() -> deleteFromQueue(backend, promptId));
+                });
+    }
 
-            // --- Ensure output dir exists / is readable ---
-            File folder = new File(IMAGE_OUTPUT_DIR);
-            if (!folder.exists()) {
-                log.warn("IMAGE_OUTPUT_DIR does not exist: {} (will attempt to create)", IMAGE_OUTPUT_DIR);
-                boolean created = folder.mkdirs();
-                log.info("IMAGE_OUTPUT_DIR created? {}", created);
+    /**
+     * Ob der Job trotz Fehler in der ComfyUI-Queue sein kann: der Request ging raus, die Antwort kam nicht
+     * (Timeout, Verbindung danach abgebrochen). HTTP-Fehlerstatus und Verbindungsfehler sind eindeutig.
+     */
+    static boolean maybeSubmitted(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException
+                    || cause instanceof ReadTimeoutException
+                    || cause instanceof PrematureCloseException) {
+                return true;
+            }
+            if (cause instanceof WebClientResponseException) {
+                return false;
             }
-            if (!folder.canRead()) {
-                log.warn("IMAGE_OUTPUT_DIR is not readable by process: {}", IMAGE_OUTPUT_DIR);
+        }
+        return false;
+    }
+
+    private Mono<String> storeInCache(String cacheKey, String path) {
+        if (!cache.isEnabled()) {
+            return Mono.just(path);
+        }
+        // Kopieren ist Datei-IO -> nicht auf dem Websocket-/Watcher-Thread
+        return Mono.fromRunnable(() -> cache.putImage(cacheKey, path))
+                .subscribeOn(Schedulers.boundedElastic())
+                .thenReturn(path);
+    }
+
+    private Timer timer(String name, String outcome) {
+        return Timer.builder(name)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private String extractPromptId(JsonNode submitResp) {
+        for (String key : new String[]{"id", "job_id", "uuid", "prompt_id"}) {
+            if (submitResp.has(key)) {
+                return submitResp.get(key).asText(null);
             }
+        }
+        return null;
+    }
+
+    /**
+     * Einmaliger, nicht-blockierender Blick in /history/{id}, falls das Completion-Event keinen Pfad enthielt.
+     */
+    private Mono<String> resolveFromHistory(ComfyUiBackend backend, String promptId) {
+        if (promptId == null) {
+            return Mono.error(new IllegalStateException("ComfyUI finished without output and without promptId"));
+        }
+        historyFallbacks.increment();
+        Path outputDir = backend.tracker().outputDir();
+        return backend.webClient().get()
+                .uri("/history/{id}", promptId)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .timeout(Duration.ofSeconds(15))
+                .flatMap(hist -> Mono.justOrEmpty(extractPathFromHistory(hist, promptId, outputDir)))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No image output in /history for promptId " + promptId)));
+    }
 
-            // --- POST to ComfyUI and capture response (as JSON if possible) ---
-            JsonNode submitResp = null;
-            try {
-                log.info("Posting prompt to ComfyUI (/prompt). imageId={}", imageId);
-                submitResp = comfyUiWebClient.post()
-                        .uri("/prompt")
-                        .bodyValue(request)
+    /**
+     * Sicherheitsnetz für verlorene Websocket-/Watcher-Events: fragt /history/{id} alle historyPollInterval ab
+     * (verzögert über den Reactor-Timer statt Thread.sleep), leer solange ComfyUI noch rendert. Endet nie ohne Pfad.
+     */
+    private Mono<String> pollHistory(ComfyUiBackend backend, String promptId) {
+        if (promptId == null || historyPollInterval.isZero() || historyPollInterval.isNegative()) {
+            return Mono.never();
+        }
+        Path outputDir = backend.tracker().outputDir();
+        return Mono.defer(() -> backend.webClient().get()
+                        .uri("/history/{id}", promptId)
                         .retrieve()
                         .bodyToMono(JsonNode.class)
-                        .block(submitTimeout);
-            } catch (Exception ex) {
-                log.error("Error while POST /prompt to ComfyUI: {}", ex, ex);
-            }
+                        .timeout(Duration.ofSeconds(15))
+                        .flatMap(hist -> Mono.justOrEmpty(extractPathFromHistory(hist, promptId, outputDir)))
+                        .onErrorResume(ex -> Mono.empty()))
+                .repeatWhenEmpty(attempts -> attempts.delayElements(historyPollInterval))
+                .delaySubscription(historyPollInterval)
+                .doOnNext(path -> {
+                    historyFallbacks.increment();
+                    log.warn("Completion event for promptId {} on {} missing, found image via /history polling", promptId, backend);
+                });
+    }
+
+    /**
+     * Fire-and-forget: nimmt einen abgebrochenen Job aus der ComfyUI-Queue, damit die GPU ihn nicht umsonst rendert.
+     */
+    private void deleteFromQueue(ComfyUiBackend backend, String promptId) {
+        if (promptId == null) {
+            return;
+        }
+        log.info("Image request cancelled, deleting promptId {} from queue of {}", promptId, backend);
+        backend.webClient().post()
+                .uri("/queue")
+                .bodyValue(objectMapper.createObjectNode().set("delete", objectMapper.createArrayNode().add(promptId)))
+                .retrieve()
+                .toBodilessEntity()
+                .timeout(Duration.ofSeconds(15))
+                .subscribe(resp -> {
+                }, ex -> log.warn("Could not delete promptId {} from queue of {}: {}", promptId, backend, ex.toString()));
+    }
 
-            // Try to extract possible direct outputs from submit response
-            if (submitResp != null) {
-                if (submitResp.has("outputs")) {
-                    String path = tryExtractPathFromOutputs(submitResp.get("outputs"));
+    // package-private für die JMH-Benchmarks (src/jmh)
+    String extractPathFromHistory(JsonNode hist, String promptId) {
+        return extractPathFromHistory(hist, promptId, backendPool.defaultOutputDir());
+    }
+
+    String extractPathFromHistory(JsonNode hist, String promptId, Path outputDir) {
+        // check common places for outputs
+        if (hist.has("outputs")) {
+            String path = tryExtractPathFromOutputs(hist.get("outputs"), outputDir);
+            if (path != null) {
+                return path;
+            }
+        }
+        if (hist.has("executions") && hist.get("executions").isArray()) {
+            for (JsonNode exec : hist.get("executions")) {
+                if (exec.has("outputs")) {
+                    String path = tryExtractPathFromOutputs(exec.get("outputs"), outputDir);
                     if (path != null) {
-                        log.info("ComfyUI returned outputs immediately for imageId {} -> {}", imageId, path);
                         return path;
                     }
                 }
             }
-
-            // Extract possible prompt/job id
-            String promptId = null;
-            if (submitResp != null) {
-                if (submitResp.has("id")) {
-                    promptId = submitResp.get("id").asText(null);
-                } else if (submitResp.has("job_id")) {
-                    promptId = submitResp.get("job_id").asText(null);
-                } else if (submitResp.has("uuid")) {
-                    promptId = submitResp.get("uuid").asText(null);
-                } else if (submitResp.has("prompt_id")) {
-                    promptId = submitResp.get("prompt_id").asText(null);
-                }
-            }
-            log.info("Using imageId={}, promptId={}", imageId, promptId);
-
-            // --- Poll loop: prefer history endpoint if we have promptId ---
-            long start = System.currentTimeMillis();
-            int attempt = 0;
-            while (System.currentTimeMillis() - start < pollTimeout.toMillis()) {
-                attempt++;
-                if (Thread.currentThread().isInterrupted()) {
-                    throw new InterruptedException("Interrupted while waiting for ComfyUI output");
-                }
-
-                // 1) If promptId available -> try /history/{id}
-                if (promptId != null) {
-                    try {
-                        JsonNode hist = comfyUiWebClient.get()
-                                .uri("/history/{id}", promptId)
-                                .retrieve()
-                                .bodyToMono(JsonNode.class)
-                                .block(Duration.ofSeconds(15));
-
-                        log.debug("ComfyUI /history attempt #{} for promptId {} -> short: {}", attempt, promptId,
-                                hist == null ? "null" : hist.toString().substring(0, Math.min(800, hist.toString().length())));
-
-                        if (hist != null) {
-                            // check common places for outputs
-                            if (hist.has("outputs")) {
-                                String path = tryExtractPathFromOutputs(hist.get("outputs"));
-                                if (path != null) {
-                                    log.info("Found image via /history.outputs for promptId {} -> {}", promptId, path);
-                                    return path;
-                                }
-                            }
-                            if (hist.has("executions") && hist.get("executions").isArray()) {
-                                for (JsonNode exec : hist.get("executions")) {
-                                    if (exec.has("outputs")) {
-                                        String path = tryExtractPathFromOutputs(exec.get("outputs"));
-                                        if (path != null) {
-                                            log.info("Found image via /history.executions for promptId {} -> {}", promptId, path);
-                                            return path;
-                                        }
-                                    }
-                                }
-                            }
-                            // some installations return { promptId: { outputs: [...] } }
-                            if (hist.has(promptId)) {
-                                JsonNode node = hist.get(promptId);
-                                if (node != null && node.has("outputs")) {
-                                    String path = tryExtractPathFromOutputs(node.get("outputs"));
-                                    if (path != null) {
-                                        log.info("Found image via history[promptId].outputs for promptId {} -> {}", promptId, path);
-                                        return path;
-                                    }
-                                }
-                            }
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Error while querying /history/{} (attempt {}): {}", promptId, attempt, ex.toString());
-                        // continue to filesystem polling as fallback
-                    }
-                }
-
-                // 2) Filesystem polling: list files that match imageId prefix
-                File[] matchingFiles = new File(IMAGE_OUTPUT_DIR).listFiles((dir, name) ->
-                        name.toLowerCase().endsWith(".png") && name.startsWith(imageId));
-                int found = matchingFiles == null ? 0 : matchingFiles.length;
-                log.debug("Poll attempt #{}: found {} matching files for imageId {} in {}", attempt, found, imageId, IMAGE_OUTPUT_DIR);
-                if (found > 0) {
-                    // choose first file
-                    File imageFile = matchingFiles[0];
-                    // quick stability check
-                    long prev = -1;
-                    for (int i = 0; i < 6; i++) {
-                        long s = imageFile.length();
-                        if (s > 0 && s == prev) {
-                            break;
-                        }
-                        prev = s;
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            throw ie;
-                        }
-                    }
-                    log.info("Found image file for imageId {} -> {}", imageId, imageFile.getAbsolutePath());
-                    return imageFile.getAbsolutePath();
-                }
-
-                // nothing yet -> sleep and loop
-                try {
-                    Thread.sleep(pollIntervalMillis);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw ie;
-                }
+        }
+        // some installations return { promptId: { outputs: [...] } }
+        if (hist.has(promptId)) {
+            JsonNode node = hist.get(promptId);
+            if (node != null && node.has("outputs")) {
+                return tryExtractPathFromOutputs(node.get("outputs"), outputDir);
             }
+        }
+        return null;
+    }
 
-            throw new TimeoutException("Timeout waiting for ComfyUI result (imageId=" + imageId + ", promptId=" + promptId + ")");
-        }).subscribeOn(Schedulers.boundedElastic()); // run blocking work on boundedElastic
+    String tryExtractPathFromOutputs(JsonNode outputs) {
+        return tryExtractPathFromOutputs(outputs, backendPool.defaultOutputDir());
     }
 
-    private String tryExtractPathFromOutputs(JsonNode outputs) {
+    String tryExtractPathFromOutputs(JsonNode outputs, Path outputDir) {
         // einfache Heuristik: outputs kann eine Liste mit "path" oder "file" Feldern sein
         if (outputs == null) {
             return null;
@@ -236,6 +332,13 @@ public class StableDiffusionService {
             if (outputs.has("path")) {
                 return outputs.get("path").asText();
             }
+            // ComfyUI-Standard: { "<nodeId>": { "images": [ { filename, subfolder, type } ] } }
+            for (JsonNode nodeOutput : outputs) {
+                String path = ComfyUiCompletionTracker.imagePathFromImages(outputDir, nodeOutput.get("images"));
+                if (path != null) {
+                    return path;
+                }
+            }
         }
         return null;
     }
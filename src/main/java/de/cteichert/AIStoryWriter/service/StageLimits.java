@@ -0,0 +1,93 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Die {@link AdaptiveLimit}s der Story-Pipeline, geteilt von allen Stories:
+ * <ul>
+ *     <li>{@code heavy} – SERIAL: Text und Bild teilen sich ein Limit (LLM und ComfyUI auf derselben GPU)</li>
+ *     <li>{@code llm} / {@code image} – PIPELINE/OUTLINE: getrennte Limits für Text- und Bild-Stufe</li>
+ * </ul>
+ * Startwerte sind 1 bzw. {@code app.story.pipeline.text-/image-concurrency}, danach regelt AIMD zwischen
+ * {@code app.story.limit.min} und {@code app.story.limit.max} (mit {@code adaptive=false} bleiben die Startwerte fest).
+ * <p>
+ * Wartende Szenen werden pro Limit per {@link FairQueue} nach Mandant und Priorität verteilt
+ * ({@code app.story.scheduler.interactive-weight/batch-weight} Schritte pro Runde).
+ * <p>
+ * Überlast wird beim Start einer Story abgewiesen ({@link #admit(GenerationMode)}), nicht mitten in einer Story:
+ * warten schon {@code max-queue} Szenen auf die erste Stufe, gibt es eine {@link CapacityExceededException}.
+ */
+@Slf4j
+@Component
+public class StageLimits {
+    private final AdaptiveLimit heavy;
+    private final AdaptiveLimit llm;
+    private final AdaptiveLimit image;
+    private final int maxQueue;
+    private final StoryMetrics metrics;
+
+    public StageLimits(StoryMetrics metrics,
+                       @Value("${app.story.limit.adaptive:true}") boolean adaptive,
+                       @Value("${app.story.pipeline.text-concurrency:1}") int textConcurrency,
+                       @Value("${app.story.pipeline.image-concurrency:1}") int imageConcurrency,
+                       @Value("${app.story.limit.min:1}") int minLimit,
+                       @Value("${app.story.limit.max:4}") int maxLimit,
+                       @Value("${app.story.limit.backoff-ratio:0.9}") double backoffRatio,
+                       @Value("${app.story.limit.latency-tolerance:2.0}") double latencyTolerance,
+                       @Value("${app.story.limit.max-queue:64}") int maxQueue,
+                       @Value("${app.story.scheduler.interactive-weight:4}") int interactiveWeight,
+                       @Value("${app.story.scheduler.batch-weight:1}") int batchWeight) {
+        this.metrics = metrics;
+        this.maxQueue = maxQueue;
+        Map<StoryPriority, Integer> weights = Map.of(
+                StoryPriority.INTERACTIVE, interactiveWeight,
+                StoryPriority.BATCH, batchWeight);
+        this.heavy = new AdaptiveLimit("heavy", adaptive, 1, minLimit, maxLimit, backoffRatio, latencyTolerance, weights);
+        this.llm = new AdaptiveLimit("llm", adaptive, textConcurrency, minLimit, maxLimit, backoffRatio, latencyTolerance, weights);
+        this.image = new AdaptiveLimit("image", adaptive, imageConcurrency, minLimit, maxLimit, backoffRatio, latencyTolerance, weights);
+        for (AdaptiveLimit limit : new AdaptiveLimit[]{heavy, llm, image}) {
+            metrics.registerLimit(limit);
+        }
+        log.info("Stage limits (adaptive={}): {}, {}, {}", adaptive, heavy, llm, image);
+    }
+
+    AdaptiveLimit text(GenerationMode mode) {
+        return mode == GenerationMode.SERIAL ? heavy : llm;
+    }
+
+    AdaptiveLimit image(GenerationMode mode) {
+        return mode == GenerationMode.SERIAL ? heavy : image;
+    }
+
+    /**
+     * Kleinste Queue-Position eines wartenden Schritts der Story über die Limits des Modus, null wenn nichts wartet.
+     */
+    Integer queuePosition(GenerationMode mode, String storyId) {
+        int text = text(mode).position(storyId);
+        int image = mode == GenerationMode.SERIAL ? -1 : image(mode).position(storyId);
+        if (text < 0 && image < 0) {
+            return null;
+        }
+        return text < 0 ? image : image < 0 ? text : Math.min(text, image);
+    }
+
+    /**
+     * Lastabwurf vor dem Start einer Story; bereits laufende Stories warten dagegen immer.
+     *
+     * @throws CapacityExceededException wenn die Warteschlange der Text-Stufe voll ist
+     */
+    public void admit(GenerationMode mode) {
+        AdaptiveLimit limit = text(mode);
+        int queued = limit.queued();
+        if (maxQueue > 0 && queued >= maxQueue) {
+            metrics.storyRejected(limit.name());
+            throw new CapacityExceededException("Story rejected, " + queued + " scenes already waiting for "
+                    + limit.name() + " (limit " + limit.currentLimit() + ")");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package de.cteichert.AIStoryWriter.service;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+
+/**
+ * Rollierendes Gedächtnis einer Story mit festem Token-Budget.
+ * <p>
+ * Für den Prompt von Szene N gibt es die laufende Zusammenfassung aller bereits eingearbeiteten Szenen plus
+ * das Ende der letzten fertigen Szene (wörtlich, für nahtlose Übergänge). Fertige Szenen werden in Index-Reihenfolge
+ * asynchron in die Zusammenfassung eingearbeitet (ein LLM-Call pro Szene, alte Zusammenfassung + neue Szene);
+ * noch nicht eingearbeitete Szenen gehen bis dahin mit ihrem Ende in den Kontext ein.
+ * Die Prompt-Größe bleibt dadurch unabhängig von der Szenenanzahl ungefähr konstant.
+ * <p>
+ * Die Zusammenfassungen gehören zur Story: {@link #close()} am Ende des Story-Laufs bricht eine laufende ab.
+ */
+@Slf4j
+final class StoryContext {
+    // grobe Schätzung für Llama/GPT-Tokenizer, reicht fürs Budget
+    static final int CHARS_PER_TOKEN = 4;
+
+    private final int maxChars;
+    private final int tailChars;
+    private final int summaryChars;
+    private final int totalScenes;
+    private final BiFunction<String, String, Mono<String>> summarizer;
+
+    private String summary = "";
+    private int summarizedUpTo;
+    private boolean summarizing;
+    private final Disposable.Composite summaries = Disposables.composite();
+    // volle Texte, die noch in die Zusammenfassung müssen
+    private final NavigableMap<Integer, String> unsummarized = new TreeMap<>();
+    // Enden der fertigen Szenen (nur die letzten werden gebraucht, ältere fallen beim Zusammenfassen raus)
+    private final NavigableMap<Integer, String> tails = new TreeMap<>();
+
+    /**
+     * @param summarizer (bisherige Zusammenfassung, neuer Szenentext) -> neue Zusammenfassung
+     */
+    StoryContext(int totalScenes, int maxTokens, int tailTokens, int summaryTokens, BiFunction<String, String, Mono<String>> summarizer) {
+        this.totalScenes = totalScenes;
+        this.maxChars = maxTokens * CHARS_PER_TOKEN;
+        this.tailChars = Math.min(tailTokens, maxTokens) * CHARS_PER_TOKEN;
+        this.summaryChars = summaryTokens * CHARS_PER_TOKEN;
+        this.summarizer = summarizer;
+    }
+
+    static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Meldet den fertigen Text einer Szene; die Zusammenfassung läuft im Hintergrund.
+     */
+    synchronized void sceneFinished(int index, String text) {
+        if (maxChars <= 0 || text == null || text.isBlank() || index <= summarizedUpTo) {
+            return;
+        }
+        unsummarized.put(index, text);
+        tails.put(index, tail(text, tailChars));
+        summarizeNext();
+    }
+
+    /**
+     * Kontext für den Prompt von Szene sceneIndex, höchstens maxTokens groß. Leer für die erste Szene
+     * und bei maxTokens = 0 (Kontext abgeschaltet).
+     */
+    synchronized String promptContext(int sceneIndex) {
+        Map.Entry<Integer, String> last = tails.lowerEntry(sceneIndex);
+        String currentSummary = summarizedUpTo < sceneIndex ? summary : "";
+        if (last == null && currentSummary.isEmpty()) {
+            return "";
+        }
+
+        // Budget: zuerst das Ende der letzten Szene, dann die Zusammenfassung, der Rest für noch nicht eingearbeitete Szenen
+        int remaining = maxChars;
+        String lastTail = last != null ? tail(last.getValue(), Math.min(tailChars, remaining)) : "";
+        remaining -= lastTail.length();
+        String summaryPart = tail(currentSummary, Math.min(summaryChars, remaining));
+        remaining -= summaryPart.length();
+
+        StringBuilder gaps = new StringBuilder();
+        if (last != null) {
+            // neueste zuerst, damit bei knappem Budget die älteren wegfallen
+            for (Map.Entry<Integer, String> gap : tails.subMap(summarizedUpTo, false, last.getKey(), false).descendingMap().entrySet()) {
+                if (remaining <= 0) {
+                    break;
+                }
+                String part = tail(gap.getValue(), remaining);
+                remaining -= part.length();
+                gaps.insert(0, "Ende von Szene " + gap.getKey() + ": " + part + "\n");
+            }
+        }
+
+        StringBuilder context = new StringBuilder();
+        if (!summaryPart.isEmpty()) {
+            context.append("Bisherige Handlung (Zusammenfassung): ").append(summaryPart).append('\n');
+        }
+        context.append(gaps);
+        if (last != null) {
+            context.append("Ende von Szene ").append(last.getKey()).append(" (direkt daran anschließen): ").append(lastTail).append('\n');
+        }
+        return context.toString().trim();
+    }
+
+    synchronized String summary() {
+        return summary;
+    }
+
+    synchronized int summarizedUpTo() {
+        return summarizedUpTo;
+    }
+
+    /**
+     * Bricht eine laufende Zusammenfassung ab und startet keine neuen mehr.
+     */
+    void close() {
+        summaries.dispose();
+    }
+
+    private void summarizeNext() {
+        if (summaries.isDisposed() || summarizing || unsummarized.isEmpty() || unsummarized.firstKey() != summarizedUpTo + 1) {
+            return;
+        }
+        if (unsummarized.firstKey() >= totalScenes) {
+            // nach der letzten Szene kommt kein Prompt mehr, der die Zusammenfassung bräuchte
+            return;
+        }
+        int index = unsummarized.firstKey();
+        String text = unsummarized.get(index);
+        summarizing = true;
+        summaries.add(summarizer.apply(summary, text)
+                .filter(newSummary -> !newSummary.isBlank())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .subscribe(
+                        newSummary -> newSummary.ifPresentOrElse(value -> summarized(index, value), this::summarizeFailed),
+                        error -> {
+                            log.warn("Zusammenfassung für Szene {} fehlgeschlagen, Szenenende bleibt im Kontext: {}", index, error.toString());
+                            summarizeFailed();
+                        }));
+    }
+
+    private synchronized void summarized(int index, String newSummary) {
+        summary = tail(newSummary.trim(), summaryChars);
+        summarizedUpTo = index;
+        unsummarized.remove(index);
+        // das Ende der letzten eingearbeiteten Szene wird noch als Übergang gebraucht, ältere nicht
+        tails.headMap(index, false).clear();
+        summarizing = false;
+        summarizeNext();
+    }
+
+    private synchronized void summarizeFailed() {
+        // nächster Versuch, sobald die nächste Szene fertig wird
+        summarizing = false;
+    }
+
+    private static String tail(String text, int maxChars) {
+        if (maxChars <= 0) {
+            return "";
+        }
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        String cut = text.substring(text.length() - maxChars);
+        int space = cut.indexOf(' ');
+        return space > 0 && space < cut.length() / 4 ? "…" + cut.substring(space + 1) : "…" + cut;
+    }
+}
@@ -0,0 +1,98 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.configuration.ChatModelFactory;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Erzeugt pro Story einen {@link StoryContext} und fasst fertige Szenen per LLM inkrementell zusammen.
+ * Die Zusammenfassung läuft parallel zur Bildgenerierung der Szene und blockiert den nächsten Szenen-Prompt nicht:
+ * ist sie noch nicht fertig, geht stattdessen das Ende der Szene in den Kontext ein.
+ * <p>
+ * Der LLM-Call läuft über die LLM-{@link ResiliencePolicy} und die admission der Story (Platz im Text-Limit, siehe
+ * {@link #newContext(StoryRequest, UnaryOperator)}); Cache-Treffer brauchen keinen Platz.
+ */
+@Slf4j
+@Component
+public class StoryContextManager {
+    static final String SUMMARY_TEMPLATE = """
+            Fasse die bisherige Handlung einer Geschichte zusammen. Antworte NUR mit der Zusammenfassung, ohne Einleitung.
+            Höchstens %d Wörter. Behalte Namen, Orte, offene Handlungsstränge und wichtige Gegenstände bei, lass Stilmittel weg.
+
+            Bisherige Zusammenfassung:
+            %s
+
+            Neue Szene:
+            %s
+            """;
+
+    private final ChatModelFactory chatModelFactory;
+    private final ResponseTextExtractor responseTextExtractor;
+    private final GenerationCache cache;
+    private final BlockingExecution blockingExecution;
+    private final ResiliencePolicy llmPolicy;
+    private final int maxTokens;
+    private final int tailTokens;
+    private final int summaryTokens;
+    private final Duration summaryTimeout;
+
+    public StoryContextManager(ChatModelFactory chatModelFactory,
+                               ResponseTextExtractor responseTextExtractor,
+                               GenerationCache cache,
+                               BlockingExecution blockingExecution,
+                               ResiliencePolicies resiliencePolicies,
+                               @Value("${app.story.context.max-tokens:800}") int maxTokens,
+                               @Value("${app.story.context.tail-tokens:250}") int tailTokens,
+                               @Value("${app.story.context.summary-tokens:450}") int summaryTokens,
+                               @Value("${app.story.context.summary-timeout:PT5M}") Duration summaryTimeout) {
+        this.chatModelFactory = chatModelFactory;
+        this.responseTextExtractor = responseTextExtractor;
+        this.cache = cache;
+        this.blockingExecution = blockingExecution;
+        this.llmPolicy = resiliencePolicies.llm();
+        this.maxTokens = Math.max(0, maxTokens);
+        this.tailTokens = Math.max(0, tailTokens);
+        this.summaryTokens = Math.max(0, summaryTokens);
+        this.summaryTimeout = summaryTimeout;
+    }
+
+    /**
+     * @param admission wartet vor dem LLM-Call einer Zusammenfassung auf einen Platz und gibt ihn danach frei
+     */
+    StoryContext newContext(StoryRequest request, UnaryOperator<Mono<String>> admission) {
+        return new StoryContext(request.scenes(), maxTokens, tailTokens, summaryTokens,
+                (summary, sceneText) -> summarize(request.model(), summary, sceneText, admission));
+    }
+
+    private Mono<String> summarize(String model, String summary, String sceneText, UnaryOperator<Mono<String>> admission) {
+        // Wörter ~ 0.75 Tokens, etwas Reserve lassen
+        int maxWords = Math.max(50, summaryTokens * 2 / 3);
+        String prompt = SUMMARY_TEMPLATE.formatted(maxWords, summary.isEmpty() ? "(noch keine)" : summary, sceneText);
+        // auch Zusammenfassungen cachen, sonst weicht der Kontext und damit der Schlüssel der nächsten Szene ab
+        String cacheKey = GenerationCache.key("summary", model, prompt);
+        // gestreamt (WebClient): Timeout und Abbruch der Story schließen die Verbindung, statt einen blockierenden
+        // Call bis zum Transport-Timeout weiterlaufen zu lassen
+        Mono<String> generated = admission.apply(llmPolicy.call(() -> chatModelFactory.chatClient(model)
+                        .prompt()
+                        .user(prompt)
+                        .stream()
+                        .chatResponse()
+                        .map(responseTextExtractor::extract)
+                        .collect(Collectors.joining())
+                        .map(String::trim)))
+                .doOnNext(text -> cache.putText(cacheKey, text));
+        return Mono.fromCallable(() -> cache.getText(cacheKey).orElse(null))
+                .subscribeOn(blockingExecution.scheduler())
+                .switchIfEmpty(generated)
+                // inklusive Warten auf den Platz: kommt sie zu spät, bleibt einfach das Szenenende im Kontext
+                .timeout(summaryTimeout)
+                .doOnNext(text -> log.debug("Neue Story-Zusammenfassung ({} Tokens)", StoryContext.estimateTokens(text)));
+    }
+}
@@ -0,0 +1,150 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryEvent;
+import de.cteichert.AIStoryWriter.model.StoryJob;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Asynchrone Story-Jobs: {@link #submit(StoryRequest)} liefert sofort eine jobId, die Story läuft im Hintergrund.
+ * Jede fertige Szene (Text + Bildpfad) wird im {@link StoryJobStore} gesichert, Fallback-Szenen (Text oder Bild
+ * fehlgeschlagen) nicht. Nach einem Neustart werden unterbrochene Jobs fortgesetzt: fertige Szenen werden nicht neu
+ * generiert, fehlende und fehlgeschlagene schon.
+ */
+@Slf4j
+@Service
+public class StoryJobService {
+    private final StoryService storyService;
+    private final StoryJobStore jobStore;
+    private final boolean resumeOnStartup;
+
+    // laufende Jobs: Subscription + Event-Replay für /events (ohne SCENE_TEXT_DELTA, damit der Puffer klein bleibt)
+    private final Map<String, RunningJob> running = new ConcurrentHashMap<>();
+
+    public StoryJobService(StoryService storyService,
+                           StoryJobStore jobStore,
+                           @Value("${app.story.jobs.resume-on-startup:true}") boolean resumeOnStartup) {
+        this.storyService = storyService;
+        this.jobStore = jobStore;
+        this.resumeOnStartup = resumeOnStartup;
+    }
+
+    /**
+     * @throws CapacityExceededException (503) bei Überlast, es wird dann kein Job angelegt
+     */
+    public StoryJob submit(StoryRequest request) {
+        storyService.checkCapacity();
+        String jobId = UUID.randomUUID().toString();
+        StoryJob job = jobStore.create(jobId, request);
+        log.info("Story job {} submitted ({} Szenen)", jobId, request.scenes());
+        start(job);
+        return job;
+    }
+
+    /**
+     * Status aus dem Journal, bei laufenden Jobs ergänzt um die aktuelle Queue-Position.
+     */
+    public Optional<StoryJob> find(String jobId) {
+        return jobStore.find(jobId)
+                .map(job -> running.containsKey(jobId) ? job.withQueuePosition(storyService.queuePosition(jobId)) : job);
+    }
+
+    /**
+     * Events eines Jobs. Laufende Jobs liefern alle bisherigen und künftigen Events,
+     * alle anderen den gesicherten Stand (STARTED, SCENE_IMAGE je Szene, COMPLETED falls abgeschlossen).
+     */
+    public Flux<StoryEvent> events(String jobId) {
+        RunningJob job = running.get(jobId);
+        if (job != null) {
+            return job.events.asFlux();
+        }
+        return Flux.defer(() -> Flux.fromStream(jobStore.find(jobId).stream()))
+                .flatMap(stored -> {
+                    int total = stored.totalScenes();
+                    return Flux.concat(
+                            Flux.just(StoryEvent.started(jobId, stored.request().title(), total)),
+                            Flux.fromIterable(stored.scenes())
+                                    .map(scene -> StoryEvent.sceneImage(jobId, scene, stored.completedScenes(), total)),
+                            stored.status() == StoryJob.Status.COMPLETED
+                                    ? Flux.just(StoryEvent.completed(jobId, stored.request().title(), stored.completedScenes(), total))
+                                    : Flux.empty());
+                });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        if (!resumeOnStartup) {
+            return;
+        }
+        for (StoryJob job : jobStore.findUnfinished()) {
+            log.info("Resuming story job {} at {}/{} Szenen", job.jobId(), job.completedScenes(), job.totalScenes());
+            start(job);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Jobs bleiben im Journal unfertig und werden beim nächsten Start fortgesetzt
+        running.values().forEach(job -> job.subscription.dispose());
+    }
+
+    private void start(StoryJob job) {
+        String jobId = job.jobId();
+        Sinks.Many<StoryEvent> events = Sinks.many().replay().all();
+        RunningJob runningJob = new RunningJob(events);
+        running.put(jobId, runningJob);
+        jobStore.markRunning(jobId);
+
+        runningJob.subscription = storyService.streamStory(job.request(), jobId, job.scenes())
+                .doOnNext(event -> {
+                    if (event.type() == StoryEvent.Type.SCENE_IMAGE) {
+                        if (StoryService.isFallback(event.scene())) {
+                            log.warn("Story job {}: Szene {} fehlgeschlagen, wird nicht gesichert", jobId, event.scene().index());
+                        } else {
+                            jobStore.saveScene(jobId, event.scene());
+                        }
+                    } else if (event.type() == StoryEvent.Type.SCENE_IMAGE_UPGRADE) {
+                        jobStore.updateSceneImage(jobId, event.scene());
+                    }
+                    if (event.type() != StoryEvent.Type.SCENE_TEXT_DELTA) {
+                        events.tryEmitNext(event);
+                    }
+                })
+                .doFinally(signal -> running.remove(jobId, runningJob))
+                .subscribe(
+                        event -> {
+                        },
+                        error -> {
+                            log.error("Story job {} failed: {}", jobId, error.toString());
+                            jobStore.fail(jobId, error.toString());
+                            events.tryEmitError(error);
+                        },
+                        () -> {
+                            log.info("Story job {} completed", jobId);
+                            jobStore.complete(jobId);
+                            events.tryEmitComplete();
+                        });
+    }
+
+    private static final class RunningJob {
+        private final Sinks.Many<StoryEvent> events;
+        private volatile Disposable subscription;
+
+        private RunningJob(Sinks.Many<StoryEvent> events) {
+            this.events = events;
+        }
+    }
+}
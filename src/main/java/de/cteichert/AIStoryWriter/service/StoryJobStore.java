@@ -0,0 +1,262 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.cteichert.AIStoryWriter.model.SceneDto;
+import de.cteichert.AIStoryWriter.model.StoryJob;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistenter Job-Store als Append-only-Journal: pro Job eine Datei {@code <jobId>.jsonl} im Verzeichnis
+ * {@code app.story.jobs.dir}, eine JSON-Zeile pro Ereignis (submitted, scene, completed, failed).
+ * <p>
+ * Jede fertige Szene wird mit DSYNC geschrieben, bevor sie als fertig gilt. Beim Start wird das Journal
+ * wieder eingelesen; eine abgeschnittene letzte Zeile (Absturz beim Schreiben) wird ignoriert.
+ */
+@Slf4j
+@Component
+public class StoryJobStore {
+    private static final String SUFFIX = ".jsonl";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path directory;
+    private final Map<String, JobState> jobs = new ConcurrentHashMap<>();
+
+    public StoryJobStore(@Value("${app.story.jobs.dir:./data/jobs}") String directory) {
+        this.directory = Paths.get(directory).toAbsolutePath();
+    }
+
+    @PostConstruct
+    public void load() {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create story job directory " + directory, e);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .forEach(this::replay);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read story job directory " + directory, e);
+        }
+        log.info("Loaded {} story jobs from {}", jobs.size(), directory);
+    }
+
+    public StoryJob create(String jobId, StoryRequest request) {
+        JobState state = new JobState(jobId, request, Instant.now());
+        ObjectNode entry = entry("submitted", state.submittedAt);
+        entry.set("request", objectMapper.valueToTree(request));
+        append(jobId, entry);
+        jobs.put(jobId, state);
+        return state.snapshot();
+    }
+
+    public Optional<StoryJob> find(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(JobState::snapshot);
+    }
+
+    public List<StoryJob> findAll() {
+        return jobs.values().stream().map(JobState::snapshot).toList();
+    }
+
+    /**
+     * Jobs, die weder abgeschlossen noch fehlgeschlagen sind (z.B. durch einen Neustart unterbrochen).
+     */
+    public List<StoryJob> findUnfinished() {
+        return findAll().stream().filter(job -> !job.isFinished()).toList();
+    }
+
+    public void markRunning(String jobId) {
+        JobState state = require(jobId);
+        synchronized (state) {
+            state.status = StoryJob.Status.RUNNING;
+            state.updatedAt = Instant.now();
+        }
+    }
+
+    /**
+     * Sichert eine fertige Szene. Bereits gesicherte Indizes (z.B. beim Fortsetzen erneut gemeldet) werden ignoriert.
+     */
+    public void saveScene(String jobId, SceneDto scene) {
+        JobState state = require(jobId);
+        synchronized (state) {
+            if (state.scenes.containsKey(scene.index())) {
+                return;
+            }
+            ObjectNode entry = entry("scene", Instant.now());
+            entry.set("scene", objectMapper.valueToTree(scene));
+            append(jobId, entry);
+            state.scenes.put(scene.index(), scene);
+            state.updatedAt = Instant.now();
+        }
+    }
+
+    /**
+     * Ersetzt das Bild einer schon gesicherten Szene (progressiver Modus: finales Bild statt Vorschau).
+     */
+    public void updateSceneImage(String jobId, SceneDto scene) {
+        JobState state = require(jobId);
+        synchronized (state) {
+            if (!state.scenes.containsKey(scene.index())) {
+                return;
+            }
+            ObjectNode entry = entry("image", Instant.now());
+            entry.set("scene", objectMapper.valueToTree(scene));
+            append(jobId, entry);
+            state.scenes.put(scene.index(), scene);
+            state.updatedAt = Instant.now();
+        }
+    }
+
+    public void complete(String jobId) {
+        finish(jobId, StoryJob.Status.COMPLETED, null);
+    }
+
+    public void fail(String jobId, String error) {
+        finish(jobId, StoryJob.Status.FAILED, error);
+    }
+
+    private void finish(String jobId, StoryJob.Status status, String error) {
+        JobState state = require(jobId);
+        synchronized (state) {
+            ObjectNode entry = entry(status == StoryJob.Status.COMPLETED ? "completed" : "failed", Instant.now());
+            if (error != null) {
+                entry.put("error", error);
+            }
+            append(jobId, entry);
+            state.status = status;
+            state.error = error;
+            state.updatedAt = Instant.now();
+        }
+    }
+
+    private JobState require(String jobId) {
+        JobState state = jobs.get(jobId);
+        if (state == null) {
+            throw new IllegalArgumentException("Unknown story job " + jobId);
+        }
+        return state;
+    }
+
+    private ObjectNode entry(String type, Instant at) {
+        ObjectNode entry = objectMapper.createObjectNode();
+        entry.put("type", type);
+        entry.put("at", at.toString());
+        return entry;
+    }
+
+    private void append(String jobId, JsonNode entry) {
+        try {
+            byte[] line = (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+            Files.write(directory.resolve(jobId + SUFFIX), line,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write story job journal for " + jobId, e);
+        }
+    }
+
+    private void replay(Path file) {
+        String name = file.getFileName().toString();
+        String jobId = name.substring(0, name.length() - SUFFIX.length());
+        JobState state = null;
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.warn("Skipping unreadable story job journal {}: {}", file, e.toString());
+            return;
+        }
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonNode entry;
+            try {
+                entry = objectMapper.readTree(line);
+            } catch (IOException e) {
+                log.warn("Ignoring corrupt line in story job journal {}: {}", file, e.toString());
+                continue;
+            }
+            Instant at = Instant.parse(entry.path("at").asText(Instant.EPOCH.toString()));
+            try {
+                switch (entry.path("type").asText("")) {
+                    case "submitted" -> state = new JobState(jobId,
+                            objectMapper.treeToValue(entry.get("request"), StoryRequest.class), at);
+                    case "scene" -> {
+                        if (state != null) {
+                            SceneDto scene = objectMapper.treeToValue(entry.get("scene"), SceneDto.class);
+                            state.scenes.put(scene.index(), scene);
+                        }
+                    }
+                    case "image" -> {
+                        if (state != null) {
+                            SceneDto scene = objectMapper.treeToValue(entry.get("scene"), SceneDto.class);
+                            state.scenes.replace(scene.index(), scene);
+                        }
+                    }
+                    case "completed" -> {
+                        if (state != null) {
+                            state.status = StoryJob.Status.COMPLETED;
+                        }
+                    }
+                    case "failed" -> {
+                        if (state != null) {
+                            state.status = StoryJob.Status.FAILED;
+                            state.error = entry.path("error").asText(null);
+                        }
+                    }
+                    default -> log.debug("Ignoring unknown journal entry {} in {}", entry.path("type"), file);
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable entry in story job journal {}: {}", file, e.toString());
+            }
+            if (state != null) {
+                state.updatedAt = at;
+            }
+        }
+        if (state != null) {
+            jobs.put(jobId, state);
+        }
+    }
+
+    private static final class JobState {
+        private final String jobId;
+        private final StoryRequest request;
+        private final Instant submittedAt;
+        private final Map<Integer, SceneDto> scenes = new TreeMap<>();
+        private StoryJob.Status status = StoryJob.Status.QUEUED;
+        private String error;
+        private Instant updatedAt;
+
+        private JobState(String jobId, StoryRequest request, Instant submittedAt) {
+            this.jobId = jobId;
+            this.request = request;
+            this.submittedAt = submittedAt;
+            this.updatedAt = submittedAt;
+        }
+
+        private synchronized StoryJob snapshot() {
+            return new StoryJob(jobId, status, request, List.copyOf(scenes.values()), error, submittedAt, updatedAt, null);
+        }
+    }
+}
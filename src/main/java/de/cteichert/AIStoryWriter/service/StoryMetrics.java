@@ -0,0 +1,207 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer-Metriken der Story-Pipeline (Actuator: /actuator/metrics, /actuator/prometheus).
+ * <ul>
+ *     <li>{@code story.generate} – Observation pro Story (Timer + Trace-Span, storyId als high-cardinality Key)</li>
+ *     <li>{@code story.limit.wait} – Wartezeit auf die Stufen-Limits, {@code story.limit.current/inflight/queued} als Gauges</li>
+ *     <li>{@code story.limit.rejected} – wegen Überlast abgewiesene Stories</li>
+ *     <li>{@code story.llm.duration}, {@code story.llm.tokens}, {@code story.llm.tokens.per.second} – LLM-Calls</li>
+ *     <li>{@code story.llm.prompt.tokens} – geschätzte Prompt-Größe pro Szene</li>
+ *     <li>{@code story.scene.fallback} – Szenen, die über onErrorResume ohne Text bzw. Bild enden</li>
+ *     <li>{@code story.coalesced} – Aufrufe, die sich an eine laufende identische Story bzw. ein Bild gehängt haben</li>
+ * </ul>
+ * Die ComfyUI-Seite misst {@link StableDiffusionService} bzw. {@link ComfyUiCompletionTracker} selbst.
+ */
+@Component
+public class StoryMetrics {
+    static final String STORY_ID_KEY = "story.id";
+
+    private final MeterRegistry registry;
+    private final ObservationRegistry observationRegistry;
+    private final AtomicInteger activeStories = new AtomicInteger();
+
+    public StoryMetrics(MeterRegistry registry, ObservationRegistry observationRegistry) {
+        this.registry = registry;
+        this.observationRegistry = observationRegistry;
+        Gauge.builder("story.active", activeStories, AtomicInteger::get)
+                .description("Stories, die gerade generiert werden")
+                .register(registry);
+    }
+
+    /**
+     * Gauges für aktuelles (adaptives) Limit, belegte Plätze und Wartende eines Stufen-Limits.
+     */
+    void registerLimit(AdaptiveLimit limit) {
+        Gauge.builder("story.limit.current", limit, AdaptiveLimit::currentLimit)
+                .description("Aktuelles Nebenläufigkeitslimit der Stufe")
+                .tag("limit", limit.name())
+                .register(registry);
+        Gauge.builder("story.limit.inflight", limit, AdaptiveLimit::inFlight)
+                .tag("limit", limit.name())
+                .register(registry);
+        Gauge.builder("story.limit.queued", limit, AdaptiveLimit::queued)
+                .tag("limit", limit.name())
+                .register(registry);
+    }
+
+    /**
+     * {@link SingleFlight} mit Treffer-Zähler {@code story.coalesced{type}}.
+     */
+    <K, V> SingleFlight<K, V> singleFlight(String type) {
+        return new SingleFlight<>(type, registry);
+    }
+
+    public void storyRejected(String limit) {
+        Counter.builder("story.limit.rejected")
+                .description("Stories, die wegen voller Warteschlange abgewiesen wurden")
+                .tag("limit", limit)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Startet die Observation für einen Story-Lauf; mit Tracing auf dem Classpath wird daraus ein Span über alle Szenen.
+     */
+    public Observation startStory(String storyId, GenerationMode mode) {
+        activeStories.incrementAndGet();
+        return Observation.createNotStarted("story.generate", observationRegistry)
+                .lowCardinalityKeyValue("mode", mode.name())
+                .highCardinalityKeyValue(STORY_ID_KEY, storyId)
+                .start();
+    }
+
+    public void storyFinished(Observation observation, Throwable error) {
+        activeStories.decrementAndGet();
+        if (error != null) {
+            observation.error(error);
+        }
+        observation.stop();
+    }
+
+    public void recordLimitWait(String limit, long nanos) {
+        Timer.builder("story.limit.wait")
+                .description("Wartezeit auf ein Stufen-Limit")
+                .tag("limit", limit)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Misst einen LLM-Call. tokens darf null sein, wenn der Server keine Usage liefert.
+     */
+    public void recordLlmCall(String model, boolean streaming, long nanos, Number tokens, boolean success) {
+        String modelTag = model == null || model.isBlank() ? "default" : model;
+        Timer.builder("story.llm.duration")
+                .description("Dauer eines LLM-Calls pro Szene")
+                .tag("model", modelTag)
+                .tag("mode", streaming ? "stream" : "call")
+                .tag("outcome", success ? "success" : "error")
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        if (!success || tokens == null || tokens.longValue() <= 0) {
+            return;
+        }
+        DistributionSummary.builder("story.llm.tokens")
+                .description("Erzeugte Tokens pro Szene")
+                .baseUnit("tokens")
+                .tag("model", modelTag)
+                .register(registry)
+                .record(tokens.doubleValue());
+        if (nanos > 0) {
+            DistributionSummary.builder("story.llm.tokens.per.second")
+                    .description("Durchsatz des LLM-Hosts")
+                    .tag("model", modelTag)
+                    .register(registry)
+                    .record(tokens.doubleValue() / (nanos / 1_000_000_000d));
+        }
+    }
+
+    /**
+     * Geschätzte Prompt-Größe pro Szene; sollte dank {@link StoryContext} unabhängig von der Szenenanzahl bleiben.
+     */
+    public void recordPromptTokens(int tokens) {
+        DistributionSummary.builder("story.llm.prompt.tokens")
+                .description("Geschätzte Prompt-Tokens pro Szene")
+                .baseUnit("tokens")
+                .register(registry)
+                .record(tokens);
+    }
+
+    /**
+     * Vom Server aus dem Prefix-/KV-Cache übernommene Prompt-Tokens ({@code usage.prompt_tokens_details.cached_tokens},
+     * liefern z.B. vLLM und neuere llama.cpp-Server). Ohne Angabe des Servers wird nichts aufgezeichnet.
+     */
+    public void recordCachedPromptTokens(String model, ChatResponse response) {
+        Integer cached = cachedPromptTokens(response);
+        if (cached == null) {
+            return;
+        }
+        String modelTag = model == null || model.isBlank() ? "default" : model;
+        DistributionSummary.builder("story.llm.prompt.cached.tokens")
+                .description("Prompt-Tokens pro Szene, die der LLM-Server aus seinem Prefix-Cache übernommen hat")
+                .baseUnit("tokens")
+                .tag("model", modelTag)
+                .register(registry)
+                .record(cached);
+        Number prompt = response.getMetadata().getUsage().getPromptTokens();
+        if (prompt != null && prompt.longValue() > 0) {
+            DistributionSummary.builder("story.llm.prompt.cache.ratio")
+                    .description("Anteil der gecachten Prompt-Tokens pro Szene")
+                    .tag("model", modelTag)
+                    .register(registry)
+                    .record(Math.min(1.0, cached / prompt.doubleValue()));
+        }
+    }
+
+    public void sceneFallback(String stage) {
+        Counter.builder("story.scene.fallback")
+                .description("Szenen, die wegen eines Fehlers ohne Text bzw. Bild ausgeliefert wurden")
+                .tag("stage", stage)
+                .register(registry)
+                .increment();
+    }
+
+    static Integer cachedPromptTokens(ChatResponse response) {
+        if (response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return null;
+        }
+        if (response.getMetadata().getUsage().getNativeUsage() instanceof OpenAiApi.Usage usage
+                && usage.promptTokensDetails() != null) {
+            return usage.promptTokensDetails().cachedTokens();
+        }
+        return null;
+    }
+
+    /**
+     * Completion-Tokens aus der Usage der Antwort (total - prompt), null wenn nicht vorhanden.
+     */
+    static Number completionTokens(ChatResponse response) {
+        if (response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return null;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        Number total = usage.getTotalTokens();
+        Number prompt = usage.getPromptTokens();
+        if (total == null) {
+            return null;
+        }
+        return prompt == null ? total : total.longValue() - prompt.longValue();
+    }
+}
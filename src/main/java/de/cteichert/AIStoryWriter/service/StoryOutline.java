@@ -0,0 +1,93 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Gliederung einer Story für {@link GenerationMode#OUTLINE}: pro Szene Handlung (Beats), beteiligte Figuren und
+ * Bild-Prompt. Alle Szenen werden gegen dieselbe Gliederung geschrieben und brauchen deshalb nicht aufeinander
+ * zu warten.
+ */
+record StoryOutline(List<Scene> scenes) {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    record Scene(int index, String beats, List<String> characters, String imagePrompt) {
+    }
+
+    /**
+     * Liest die JSON-Antwort des LLM ({@code {"scenes":[{"index","beats","characters","imagePrompt"}]}}).
+     * Text um das JSON herum (z.B. Markdown-Codeblöcke) wird ignoriert. Leer, wenn das JSON unbrauchbar ist oder
+     * nicht jede der {@code totalScenes} Szenen Beats hat; dann läuft die Story ohne Gliederung.
+     */
+    static Optional<StoryOutline> parse(String raw, int totalScenes) {
+        if (raw == null) {
+            return Optional.empty();
+        }
+        int start = raw.indexOf('{');
+        int end = raw.lastIndexOf('}');
+        if (start < 0 || end <= start) {
+            return Optional.empty();
+        }
+        JsonNode root;
+        try {
+            root = OBJECT_MAPPER.readTree(raw.substring(start, end + 1));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        JsonNode array = root.path("scenes");
+        if (!array.isArray()) {
+            return Optional.empty();
+        }
+
+        Map<Integer, Scene> scenes = new TreeMap<>();
+        int position = 0;
+        for (JsonNode node : array) {
+            position++;
+            int index = node.path("index").asInt(position);
+            String beats = node.path("beats").asText("").trim();
+            if (index < 1 || index > totalScenes || beats.isEmpty()) {
+                continue;
+            }
+            List<String> characters = new ArrayList<>();
+            node.path("characters").forEach(character -> characters.add(character.asText()));
+            String imagePrompt = node.path("imagePrompt").asText("").trim();
+            scenes.putIfAbsent(index, new Scene(index, beats, List.copyOf(characters), imagePrompt.isEmpty() ? null : imagePrompt));
+        }
+        if (scenes.size() != totalScenes) {
+            return Optional.empty();
+        }
+        return Optional.of(new StoryOutline(List.copyOf(scenes.values())));
+    }
+
+    Optional<Scene> scene(int index) {
+        return index >= 1 && index <= scenes.size() ? Optional.of(scenes.get(index - 1)) : Optional.empty();
+    }
+
+    /**
+     * Die ganze Gliederung, für alle Szenen gleich (gehört in den gemeinsamen Prompt-Prefix).
+     */
+    String overview() {
+        StringBuilder overview = new StringBuilder("Gliederung der ganzen Geschichte:\n");
+        for (Scene scene : scenes) {
+            overview.append("Szene ").append(scene.index()).append(": ").append(scene.beats()).append('\n');
+        }
+        return overview.toString();
+    }
+
+    /**
+     * Was in Szene sceneIndex passieren soll, samt Figuren.
+     */
+    String sceneBrief(int sceneIndex) {
+        return scene(sceneIndex).map(scene -> {
+            String brief = "Schreibe jetzt NUR Szene " + sceneIndex + ": " + scene.beats();
+            return scene.characters().isEmpty() ? brief : brief + " Figuren: " + String.join(", ", scene.characters()) + ".";
+        }).orElse("");
+    }
+}
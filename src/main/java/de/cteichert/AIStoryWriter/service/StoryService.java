@@ -1,25 +1,42 @@
 package de.cteichert.AIStoryWriter.service;
 
 import de.cteichert.AIStoryWriter.configuration.ChatModelFactory;
+import de.cteichert.AIStoryWriter.model.SceneDraft;
 import de.cteichert.AIStoryWriter.model.SceneDto;
+import de.cteichert.AIStoryWriter.model.StoryEvent;
+import de.cteichert.AIStoryWriter.model.StoryPriority;
 import de.cteichert.AIStoryWriter.model.StoryRequest;
 import de.cteichert.AIStoryWriter.model.StoryResult;
 import de.cteichert.AIStoryWriter.tool.StableDiffusionTool;
-import jakarta.annotation.PreDestroy;
+import io.micrometer.observation.Observation;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 @Service
 public class StoryService {
@@ -27,266 +44,720 @@ public class StoryService {
 
     private final ChatModelFactory chatModelFactory;
     private final StableDiffusionTool stableDiffusionTool;
-
-    private static final Pattern IMAGE_PROMPT_PATTERN =
+    private final ResponseTextExtractor responseTextExtractor;
+    private final StoryMetrics metrics;
+    private final StoryContextManager contextManager;
+    private final GenerationCache cache;
+    // Bild-Ids für /api/images statt lokaler Pfade
+    private final ImageStore imageStore;
+    private final PromptAssembler promptAssembler;
+    // Timeout (p99), Hedge (p95) und Circuit Breaker der LLM-Calls; Bilder regelt der StableDiffusionService pro Backend
+    private final ResiliencePolicy llmPolicy;
+
+    // package-private für die JMH-Benchmarks (src/jmh)
+    static final Pattern IMAGE_PROMPT_PATTERN =
             Pattern.compile("IMAGE_PROMPT:\\s*(.+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
-    // Timeouts (anpassen)
-    private static final Duration LLM_TIMEOUT = Duration.ofDays(30);
-    private static final Duration IMAGE_TIMEOUT = Duration.ofDays(40);
+    // Text einer Szene, deren LLM-Call fehlgeschlagen ist (mit dem Grund dahinter)
+    static final String FALLBACK_TEXT = "Fehler beim Generieren der Szene: ";
+    private static final String NEGATIVE_PROMPT = "Bad anatomy, Low quality, incorrect object placements";
+    private static final int IMAGE_SIZE = 1024;
+
+
+    // Dedizierter Scheduler für blockierende Calls (cancel möglich), optional auf Virtual Threads
+    private final Scheduler blockingScheduler;
+
+    // SERIAL: ein gemeinsames Limit für LLM + Bild, PIPELINE: getrennte Limits für Text- und Bild-Stufe;
+    // alle passen sich per AIMD an die Hardware an und bedienen Wartende fair nach Mandant und Priorität
+    private final StageLimits stageLimits;
+    private final GenerationMode generationMode;
+
+    // LLM-Antwort tokenweise streamen und Bild schon beim IMAGE_PROMPT starten
+    private final boolean llmStreaming;
+
+    // erst schnelle Vorschau, finales Bild später mit niedriger Priorität (SCENE_IMAGE_UPGRADE)
+    private final boolean progressiveImages;
+
+    // wiederholte /generate-Aufrufe (Client-Retry nach Timeout) hängen sich an die laufende Story
+    private final SingleFlight<String, StoryResult> storyFlights;
+
+    static final String OUTLINE_TEMPLATE = """
+            WICHTIG:
+            Du planst eigenständig eine Geschichte. Stelle **keine** Rückfragen an den Nutzer.
+            Plane genau %d Szenen im Genre %s mit Ton '%s' für die Geschichte '%s'.
+            Die Szenen ergeben zusammen eine fortlaufende Geschichte mit Anfang, Höhepunkt und Ende, ohne Wiederholungen.
+            Antworte NUR mit JSON in genau dieser Form, ohne weiteren Text:
+            {"scenes":[{"index":1,"beats":"was in der Szene passiert (2-4 Sätze)","characters":["Name"],"imagePrompt":"ins Englische übersetzter Bild-Prompt mit Genre/Ton"}]}
+            Berücksichtige bitte auch folgendes:
+            %s
+            """;
+
+    public StoryService(ChatModelFactory chatModelFactory,
+                        StableDiffusionTool stableDiffusionTool,
+                        ResponseTextExtractor responseTextExtractor,
+                        StoryMetrics metrics,
+                        StoryContextManager contextManager,
+                        GenerationCache cache,
+                        ImageStore imageStore,
+                        PromptAssembler promptAssembler,
+                        ResiliencePolicies resiliencePolicies,
+                        StageLimits stageLimits,
+                        BlockingExecution blockingExecution,
+                        @Value("${app.story.mode:SERIAL}") GenerationMode generationMode,
+                        @Value("${app.story.llm-streaming:false}") boolean llmStreaming,
+                        @Value("${app.story.image.progressive:false}") boolean progressiveImages) {
+        this.chatModelFactory = chatModelFactory;
+        this.stableDiffusionTool = stableDiffusionTool;
+        this.responseTextExtractor = responseTextExtractor;
+        this.metrics = metrics;
+        this.contextManager = contextManager;
+        this.cache = cache;
+        this.imageStore = imageStore;
+        this.promptAssembler = promptAssembler;
+        this.llmPolicy = resiliencePolicies.llm();
+        this.stageLimits = stageLimits;
+        this.blockingScheduler = blockingExecution.scheduler();
+        this.generationMode = generationMode;
+        this.llmStreaming = llmStreaming;
+        this.progressiveImages = progressiveImages;
+        this.storyFlights = metrics.singleFlight("story");
+    }
 
+    /**
+     * Erzeugt die ganze Story. Läuft dieselbe Anfrage (siehe {@link #requestKey(StoryRequest)}) schon, bekommt der
+     * Aufrufer deren Ergebnis statt eines zweiten Laufs; abgebrochen wird erst, wenn alle Aufrufer weg sind.
+     * Der progressive Bildmodus gilt hier nicht: ohne Stream sieht niemand die Vorschauen, das Ergebnis enthält
+     * direkt die finalen Bilder.
+     */
+    public Mono<StoryResult> generateStory(StoryRequest request) {
+        String key = requestKey(request);
+        // ein Duplikat erzeugt keine Last, also auch nicht abweisen
+        if (!storyFlights.isInFlight(key)) {
+            checkCapacity();
+        }
+        // Szenen kommen im Stream in Fertigstellungsreihenfolge -> für das Gesamtergebnis nach Index sortieren
+        return storyFlights.execute(key, () -> streamStory(request, UUID.randomUUID().toString(), List.of(), false)
+                .filter(event -> event.type() == StoryEvent.Type.SCENE_IMAGE)
+                .map(StoryEvent::scene)
+                .collectMap(SceneDto::index, scene -> scene, TreeMap::new)
+                .map(scenes -> new StoryResult(request.title(), List.copyOf(scenes.values()))));
+    }
 
-    // Dedizierter Executor für blockierende Calls (steuerbar, cancel möglich)
-    private final ExecutorService blockingExecutor = Executors.newCachedThreadPool(r -> {
-        Thread t = new Thread(r);
-        t.setName("story-blocking-exec-" + t.getId());
-        t.setDaemon(true);
-        return t;
-    });
+    /**
+     * Normalisierte Anfrage als Schlüssel: Whitespace zusammengefasst, fehlende Felder wie ihre Defaults
+     * (Mandant, Priorität), damit ein Retry mit leicht anderem JSON dieselbe Story trifft.
+     */
+    static String requestKey(StoryRequest request) {
+        WorkOwner owner = WorkOwner.of(null, request);
+        return GenerationCache.key("story", normalize(request.title()), normalize(request.genre()),
+                normalize(request.additonalTextPrompt()), normalize(request.additonalImagePrompt()), request.scenes(),
+                normalize(request.tone()), normalize(request.model()), normalize(request.workflow()),
+                owner.tenant(), owner.priority());
+    }
 
-    // erlaubt nur einen heavy Job (LLM + Bild) gleichzeitig; setze 1 oder >1 je nach Hardware
-    private final Semaphore heavyJobSemaphore = new Semaphore(1);
+    private static String normalize(String value) {
+        return value == null ? "" : StringUtils.normalizeSpace(value);
+    }
 
+    /**
+     * Liefert den Fortschritt einer Story als Event-Stream: SCENE_TEXT sobald der Text einer Szene fertig ist,
+     * SCENE_IMAGE sobald ihr Bild vorliegt, dazu STARTED/PROGRESS/COMPLETED. Fertige Szenen werden nicht gepuffert.
+     * Mit app.story.llm-streaming kommen zusätzlich SCENE_TEXT_DELTA-Events mit den einzelnen LLM-Chunks.
+     * Alle Events tragen dieselbe storyId, die auch in den Logs und in der story.generate-Observation steht.
+     */
+    public Flux<StoryEvent> streamStory(StoryRequest request) {
+        checkCapacity();
+        return streamStory(request, UUID.randomUUID().toString(), List.of());
+    }
 
-    public StoryService(ChatModelFactory chatModelFactory, StableDiffusionTool stableDiffusionTool) {
-        this.chatModelFactory = chatModelFactory;
-        this.stableDiffusionTool = stableDiffusionTool;
+    /**
+     * Lastabwurf für neue Stories, siehe {@link StageLimits#admit(GenerationMode)}.
+     *
+     * @throws CapacityExceededException (503) wenn schon zu viele Szenen warten
+     */
+    public void checkCapacity() {
+        stageLimits.admit(generationMode);
     }
 
-    @PreDestroy
-    public void shutdown() {
-        blockingExecutor.shutdownNow();
+    /**
+     * Wie viele Arbeitsschritte anderer Stories vor der nächsten wartenden Szene dieser Story dran sind,
+     * null wenn gerade keine ihrer Szenen wartet.
+     */
+    public Integer queuePosition(String storyId) {
+        return stageLimits.queuePosition(generationMode, storyId);
     }
 
-    public Mono<StoryResult> generateStory(StoryRequest request) {
-        return Flux.range(1, request.scenes())
-                .concatMap(i -> {
-                    String promptTemplate = """
-                            WICHTIG:
-                            Du schreibst eigenständig eine Szene. Stelle **keine** Rückfragen an den Nutzer. Wenn dir Informationen fehlen aber halte dich stets an bisherige information der Geschichte!
-                            achte darauf, dass diese auch für die nächste Szene (sofern es nicht die letzte ist) fortgeführt werden kann und dich nicht wiederholst.
-                            **Sei kreativ und bring Abwechslung in die Geschichte.**
-                            Schreibe Szene %d von %d im Genre %s mit Ton '%s'.
-                            Derzeitige Szene ist: %s
-                            
-                            ***Jede Szene ergibt, wenn man alle szenen kombiniert, eine einheitliche zusammenpassende und fortlaufende Geschichte***
-                            zu jeder Szene erstelle ein Bild der die Szene visualisiert, gib **genau eine einzelne Zeile** aus, beginnend mit `IMAGE_PROMPT: ` gefolgt vom ins englisch übersetzte prompt mit dem Genre/Ton.
-                            
-                            PRODUZIERE NUR die Szene und optional die einzelne IMAGE_PROMPT-Zeile. Antworte niemals mit Rückfragen oder TODO-Listen.
-                            Berücksichtige bitte auch folgendes:
-                            %s
-                            """;
-                    return generateScene(request, i, promptTemplate);
-                })
-                .collectList()
-                .map(scenes -> new StoryResult(request.title(), scenes));
-    }
-
-    private Mono<SceneDto> generateScene(StoryRequest request, int sceneIndex, String promptTemplate) {
-        String context = "";
-        String prompt = promptTemplate.formatted(sceneIndex, request.scenes(), request.genre(), request.tone(), context, request.additonalTextPrompt());
-
-        // Wir führen LLM + Bilderzeugung in einer synchronen Callable aus, die vorher ein globales Semaphore erwirbt.
-        return Mono.fromCallable(() -> {
-                    // 1) heavy-job semaphore erwerben (interruptible)
-                    try {
-                        log.info("Versuche heavyJobSemaphore für Szene {} zu erwerben...", sceneIndex);
-                        heavyJobSemaphore.acquire();
-                        log.info("heavyJobSemaphore erworben für Szene {}", sceneIndex);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("Interrupted while waiting for heavyJobSemaphore", ie);
-                    }
+    /**
+     * Setzt eine Story fort: bereits fertige Szenen werden direkt nach STARTED als SCENE_IMAGE gemeldet
+     * und nicht neu generiert, es laufen nur LLM/Bild für die fehlenden Indizes.
+     */
+    public Flux<StoryEvent> streamStory(StoryRequest request, String storyId, Collection<SceneDto> finishedScenes) {
+        return streamStory(request, storyId, finishedScenes, progressiveImages);
+    }
 
-                    try {
-                        OpenAiChatModel model = chatModelFactory.create(request.model());
+    /**
+     * @param progressive erst die Vorschau (SCENE_IMAGE), dann das finale Bild (SCENE_IMAGE_UPGRADE)
+     */
+    private Flux<StoryEvent> streamStory(StoryRequest request, String storyId, Collection<SceneDto> finishedScenes,
+                                         boolean progressive) {
+        return Flux.defer(() -> {
+            Map<Integer, SceneDto> finished = new TreeMap<>();
+            finishedScenes.forEach(scene -> finished.put(scene.index(), imageStore.withImageId(scene)));
+            List<Integer> pendingScenes = IntStream.rangeClosed(1, request.scenes())
+                    .filter(i -> !finished.containsKey(i))
+                    .boxed()
+                    .toList();
+            // beim Fortsetzen werden die fertigen Szenen wieder ins Story-Gedächtnis eingearbeitet
+            WorkOwner owner = WorkOwner.of(storyId, request);
+            StoryContext context = contextManager.newContext(request, summaryAdmission(owner));
+            finished.values().forEach(scene -> context.sceneFinished(scene.index(), scene.text()));
+            StoryRun run = new StoryRun(storyId, request, owner, metrics.startStory(storyId, generationMode),
+                    pendingScenes, context, new AtomicInteger(finished.size()), new ConcurrentHashMap<>(), new AtomicReference<>(),
+                    new ConcurrentHashMap<>(), progressive, Sinks.many().unicast().onBackpressureBuffer(), Disposables.composite());
+            if (!finished.isEmpty()) {
+                log.info("Setze Story {} fort: {} von {} Szenen bereits fertig", storyId, finished.size(), run.total());
+            }
+            return Flux.concat(
+                            Mono.just(StoryEvent.started(run.storyId(), request.title(), run.total())),
+                            Flux.fromIterable(finished.values())
+                                    .map(scene -> StoryEvent.sceneImage(storyId, scene, finished.size(), run.total())),
+                            // Upgrades der Bilder (progressiver Modus) kommen, sobald sie fertig sind; COMPLETED erst danach
+                            Flux.merge(
+                                    sceneEvents(run).doFinally(signal -> run.upgradeEvents().tryEmitComplete()),
+                                    run.upgradeEvents().asFlux().flatMap(upgrade -> upgrade)),
+                            Mono.fromSupplier(() -> StoryEvent.completed(run.storyId(), request.title(), run.completed().get(), run.total())))
+                    .doOnError(e -> metrics.storyFinished(run.observation(), e))
+                    .doOnComplete(() -> metrics.storyFinished(run.observation(), null))
+                    .doOnCancel(() -> metrics.storyFinished(run.observation(), null))
+                    // eager gestartete Bilder und Zusammenfassungen hängen nicht am Story-Flux -> selbst abbrechen
+                    .doFinally(signal -> {
+                        run.eagerImages().dispose();
+                        run.context().close();
+                    });
+        });
+    }
 
-                        // 2) LLM-Call (blockierend, mit Timeout via callBlockingWithTimeout)
-                        Object resp = callBlockingWithTimeout(() -> ChatClient.create(model)
-                                .prompt()
-                                .user(prompt)
-                                .call()
-                                .chatResponse(), LLM_TIMEOUT);
+    private Flux<StoryEvent> sceneEvents(StoryRun run) {
+        AdaptiveLimit textLimit = stageLimits.text(generationMode);
+        AdaptiveLimit imageLimit = stageLimits.image(generationMode);
+        if (generationMode == GenerationMode.OUTLINE) {
+            // ohne brauchbare Gliederung läuft die Story wie PIPELINE
+            return generateOutline(run, textLimit)
+                    .doOnNext(outline -> startOutlineImages(run, outline, imageLimit))
+                    .map(outline -> true)
+                    .defaultIfEmpty(false)
+                    .flatMapMany(parallel -> sceneEvents(run, textLimit, imageLimit, parallel));
+        }
+        return sceneEvents(run, textLimit, imageLimit, false);
+    }
 
-                        log.info("LLM antwort für Szene {} erhalten.", sceneIndex);
+    /**
+     * @param parallel Szenen gegen die Gliederung schreiben: keine wartet auf die vorige, Events kommen in
+     *                 Fertigstellungsreihenfolge
+     */
+    private Flux<StoryEvent> sceneEvents(StoryRun run, AdaptiveLimit textLimit, AdaptiveLimit imageLimit, boolean parallel) {
+        // ohne Gliederung braucht Szene N+1 Text bzw. Zusammenfassung von Szene N: pro Story immer nur ein Text,
+        // parallel laufen dann nur Text und Bild. Das Limit regelt die Parallelität über Stories hinweg.
+        int maxText = parallel ? textLimit.maxLimit() : 1;
+
+        if (llmStreaming) {
+            // Bild startet bereits, sobald die IMAGE_PROMPT-Zeile komplett gestreamt ist
+            Flux<Integer> scenes = Flux.fromIterable(run.pendingScenes());
+            return (parallel
+                    ? scenes.flatMap(i -> streamSceneText(run, i, textLimit, imageLimit), maxText)
+                    : scenes.flatMapSequential(i -> streamSceneText(run, i, textLimit, imageLimit), maxText))
+                    // flatMap statt concatMap, damit Deltas der nächsten Szene nicht hinter dem laufenden Bild warten
+                    .flatMap(event -> event.type() == StoryEvent.Type.SCENE_TEXT
+                            ? Flux.concat(Mono.just(event), finishScene(run, run.images().remove(event.scene().index())
+                                    .map(path -> scene(event.scene().index(), event.scene().text(), path))))
+                            : Mono.just(event));
+        }
 
-                        String sceneText;
-                        try {
-                            sceneText = extractTextFromResp(resp);
-                        } catch (Exception ex) {
-                            log.warn("Fehler beim Auslesen LLM-Text für Szene {}: {}", sceneIndex, ex.toString());
-                            sceneText = "";
-                        }
+        if (parallel) {
+            // Bilder laufen schon seit der Gliederung, hier wird nur noch auf sie gewartet
+            return Flux.fromIterable(run.pendingScenes())
+                    .flatMap(i -> generateSceneText(run, i, textLimit), maxText)
+                    .flatMap(draft -> sceneEvents(run, draft, imageLimit));
+        }
 
-                        // 3) Prompt für Bild bestimmen (IMAGE_PROMPT oder Auto-Prompt)
-                        Matcher m = IMAGE_PROMPT_PATTERN.matcher(sceneText == null ? "" : sceneText);
-                        String imagePrompt = m.find() ? m.group(1).trim() : request.additonalImagePrompt() + sceneText;
+        return switch (generationMode) {
+            // eine Szene nach der anderen, Text und Bild teilen sich das heavy-Limit
+            case SERIAL -> Flux.fromIterable(run.pendingScenes())
+                    .concatMap(i -> generateSceneText(run, i, textLimit)
+                            .flatMapMany(draft -> sceneEvents(run, draft, imageLimit)));
+            // Text von Szene N+1 entsteht, während Bild von Szene N rendert; die Texte selbst nacheinander
+            case PIPELINE, OUTLINE -> Flux.fromIterable(run.pendingScenes())
+                    .concatMap(i -> generateSceneText(run, i, textLimit))
+                    .flatMap(draft -> sceneEvents(run, draft, imageLimit), imageLimit.maxLimit());
+        };
+    }
 
-                        log.info("Starte Bildgenerierung für Szene {} mit Prompt-Länge {}", sceneIndex, imagePrompt.length());
+    /**
+     * OUTLINE, Phase 1: ein LLM-Call für die Gliederung der ganzen Story. Leer, wenn sie unbrauchbar ist.
+     */
+    private Mono<StoryOutline> generateOutline(StoryRun run, AdaptiveLimit limit) {
+        StoryRequest request = run.request();
+        return acquireAsync(limit, "outline", run, run.owner(), 0)
+                .flatMap(permit -> {
+                    boolean[] success = {false};
+                    return Mono.defer(() -> {
+                                String prompt = OUTLINE_TEMPLATE.formatted(request.scenes(), request.genre(), request.tone(),
+                                        request.title(), request.additonalTextPrompt());
+                                metrics.recordPromptTokens(StoryContext.estimateTokens(prompt));
+                                String cacheKey = GenerationCache.key("outline", request.model(), prompt);
+                                String cached = cache.getText(cacheKey).orElse(null);
+                                if (cached != null) {
+                                    permit.ignoreLatency();
+                                }
+                                return (cached != null ? Mono.just(cached) : callLlm(run, 0, new PromptAssembler.ScenePrompt(null, prompt)))
+                                        .flatMap(raw -> {
+                                            success[0] = true;
+                                            StoryOutline outline = StoryOutline.parse(raw, request.scenes()).orElse(null);
+                                            if (outline != null && cached == null) {
+                                                // nur brauchbare Gliederungen cachen, sonst käme die kaputte Antwort immer wieder
+                                                cache.putText(cacheKey, raw);
+                                            }
+                                            return Mono.justOrEmpty(outline);
+                                        });
+                            })
+                            // Cache ist Datei-IO; der Thread ist frei, sobald der LLM-Call abgegeben ist
+                            .subscribeOn(blockingScheduler)
+                            .doFinally(signal -> release(limit, permit, 0, success[0]));
+                })
+                .doOnNext(outline -> {
+                    run.outline().set(outline);
+                    log.info("Gliederung für Story {} mit {} Szenen erstellt, Szenen laufen parallel.", run.storyId(), outline.scenes().size());
+                })
+                .switchIfEmpty(Mono.fromRunnable(() -> {
+                    log.warn("Keine brauchbare Gliederung für Story {}, Szenen laufen nacheinander.", run.storyId());
+                    metrics.sceneFallback("outline");
+                }))
+                .onErrorResume(e -> {
+                    log.error("Gliederung für Story {} fehlgeschlagen, Szenen laufen nacheinander (Grund: {})", run.storyId(), e.toString());
+                    metrics.sceneFallback("outline");
+                    return Mono.empty();
+                });
+    }
 
-                        // 4) Bildgenerierung blocking (stableDiffusionTool.generateImageBlocking) mit Timeout
-                        //    Wir rufen das innerhalb von callBlockingWithTimeout auf, damit dein existing timeout- & cancel-mechanismus greift.
-                        String imagePath = callBlockingWithTimeout(() -> {
-                            String negPrompt = "Bad anatomy, Low quality, incorrect object placements";
-                            return stableDiffusionTool.generateImageBlocking(imagePrompt, negPrompt, 1024, 1024, IMAGE_TIMEOUT);
-                        }, IMAGE_TIMEOUT);
+    /**
+     * OUTLINE, Phase 2: die Bild-Prompts stehen schon in der Gliederung, also starten alle Bilder sofort
+     * (das Bild-Limit entscheidet, wie viele gleichzeitig rendern).
+     */
+    private void startOutlineImages(StoryRun run, StoryOutline outline, AdaptiveLimit imageLimit) {
+        for (int sceneIndex : run.pendingScenes()) {
+            outline.scene(sceneIndex)
+                    .map(StoryOutline.Scene::imagePrompt)
+                    .ifPresent(imagePrompt -> run.images().computeIfAbsent(sceneIndex,
+                            idx -> startImage(run, idx, imagePrompt, imageLimit)));
+        }
+    }
 
-                        log.info("Bildgenerierung komplett für Szene {} -> {}", sceneIndex, imagePath);
+    private Flux<StoryEvent> sceneEvents(StoryRun run, SceneDraft draft, AdaptiveLimit imageLimit) {
+        return Flux.concat(
+                Mono.just(StoryEvent.sceneText(run.storyId(), draft.index(), draft.text(), run.completed().get(), run.total())),
+                finishScene(run, renderSceneImage(run, draft, imageLimit)));
+    }
 
-                        // entferne image prompt vom text
-                        sceneText = sceneText.replaceAll(IMAGE_PROMPT_PATTERN.pattern(), "").trim();
+    private Flux<StoryEvent> finishScene(StoryRun run, Mono<SceneDto> scene) {
+        int total = run.total();
+        return scene.flatMapMany(dto -> {
+            int done = run.completed().incrementAndGet();
+            Mono<String> upgrade = run.upgrades().remove(dto.index());
+            if (upgrade != null) {
+                // läuft neben den übrigen Szenen weiter und meldet sich mit SCENE_IMAGE_UPGRADE
+                run.upgradeEvents().emitNext(upgrade
+                                .filter(path -> !path.isEmpty())
+                                .map(path -> StoryEvent.sceneImageUpgrade(run.storyId(), scene(dto.index(), dto.text(), path),
+                                        run.completed().get(), total)),
+                        Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+            }
+            return Flux.just(
+                    StoryEvent.sceneImage(run.storyId(), dto, done, total),
+                    StoryEvent.progress(run.storyId(), run.request().title(), done, total));
+        });
+    }
 
-                        return new SceneDto(sceneIndex, sceneText, imagePath);
-                    } finally {
-                        // 5) Semaphore unbedingt freigeben (auch bei Exception)
-                        try {
-                            heavyJobSemaphore.release();
-                            log.info("heavyJobSemaphore freigegeben für Szene {}", sceneIndex);
-                        } catch (Exception e) {
-                            log.warn("Failed to release heavyJobSemaphore for scene {}: {}", sceneIndex, e.toString());
-                        }
-                    }
+    /**
+     * Stufe 1: erzeugt nur den Szenentext (LLM) und hält dafür nur das übergebene Limit.
+     * Bei Fehlern wird ein Draft ohne Bild-Prompt geliefert, die Bild-Stufe überspringt ihn dann.
+     */
+    private Mono<SceneDraft> generateSceneText(StoryRun run, int sceneIndex, AdaptiveLimit limit) {
+        StoryRequest request = run.request();
+
+        return acquireAsync(limit, "text", run, run.owner(), sceneIndex)
+                .flatMap(permit -> {
+                    boolean[] success = {false};
+                    return Mono.defer(() -> {
+                                // erst nach dem Permit bauen, damit der Kontext die zuletzt fertigen Szenen enthält
+                                PromptAssembler.ScenePrompt prompt = buildPrompt(run, sceneIndex);
+                                // gleicher Prompt + Modell -> Antwort aus dem GenerationCache (nur mit app.cache.enabled)
+                                String cacheKey = GenerationCache.key("text", request.model(), prompt.system(), prompt.user());
+                                String cached = cache.getText(cacheKey).orElse(null);
+                                if (cached != null) {
+                                    log.info("Text für Szene {} aus dem Cache.", sceneIndex);
+                                    permit.ignoreLatency();
+                                    return Mono.just(cached);
+                                }
+                                return callLlm(run, sceneIndex, prompt)
+                                        .doOnNext(text -> cache.putText(cacheKey, text));
+                            })
+                            // Cache ist Datei-IO; der Thread ist frei, sobald der LLM-Call abgegeben ist
+                            .subscribeOn(blockingScheduler)
+                            .map(raw -> {
+                                Matcher m = IMAGE_PROMPT_PATTERN.matcher(raw);
+                                String imagePrompt = m.find() ? m.group(1).trim() : request.additonalImagePrompt() + raw;
+                                String sceneText = raw.replaceAll(IMAGE_PROMPT_PATTERN.pattern(), "").trim();
+                                sceneFinished(run, sceneIndex, sceneText);
+
+                                success[0] = true;
+                                return new SceneDraft(sceneIndex, sceneText, imagePrompt);
+                            })
+                            .doFinally(signal -> release(limit, permit, sceneIndex, success[0]));
                 })
-                .subscribeOn(Schedulers.fromExecutor(blockingExecutor))
-                .doOnError(err -> log.error("Fehler beim Erzeugen der Szene {}: {}", sceneIndex, err.toString()))
+                .doOnError(err -> log.error("Fehler beim Erzeugen des Textes für Szene {} (story {}): {}", sceneIndex, run.storyId(), err.toString()))
                 .onErrorResume(e -> {
-                    // fallback, wenn Timeout oder andere Fehler auftreten
-                    String fallbackText = "Fehler beim Generieren der Szene: " + e.getMessage();
+                    String fallbackText = FALLBACK_TEXT + e.getMessage();
                     log.error("Fallback Szene für {} (Grund: {})", sceneIndex, e.toString());
-                    return Mono.just(new SceneDto(sceneIndex, fallbackText, ""));
+                    metrics.sceneFallback("text");
+                    return Mono.just(new SceneDraft(sceneIndex, fallbackText, null));
                 });
     }
 
     /**
-     * Führt einen blockierenden Callable in blockingExecutor aus und wartet max 'timeout'.
-     * Bei Timeout wird Future.cancel(true) aufgerufen (wenn möglich).
+     * LLM-Call samt Metriken; liefert den Rohtext inklusive IMAGE_PROMPT-Zeile. Läuft über den Streaming-Endpunkt
+     * (WebClient) und belegt keinen Thread: Timeout und verlorener Hedge der Policy schließen die Verbindung, der
+     * LLM-Server bricht die Generierung dann ab. Ein blockierender RestClient-Call liefe nach dem Abbruch des Monos
+     * bis zum Transport-Timeout weiter.
      */
-    private <T> T callBlockingWithTimeout(Callable<T> task, Duration timeout) throws Exception {
-        Future<T> future = blockingExecutor.submit(task);
+    private Mono<String> callLlm(StoryRun run, int sceneIndex, PromptAssembler.ScenePrompt prompt) {
+        StoryRequest request = run.request();
+        return Mono.defer(() -> {
+            ChatClient chatClient = chatModelFactory.chatClient(request.model());
+            long start = System.nanoTime();
+            return llmPolicy.hedged(() -> promptSpec(chatClient, prompt)
+                            .stream()
+                            .chatResponse()
+                            .reduceWith(LlmAnswer::new, (answer, chunk) -> answer.append(sceneText(chunk, sceneIndex), chunk)))
+                    .doOnError(e -> metrics.recordLlmCall(request.model(), false, System.nanoTime() - start, null, false))
+                    .map(answer -> {
+                        // Usage kommt (wenn überhaupt) im letzten Chunk, sonst ~ ein Token pro Chunk
+                        Number tokens = answer.usage != null ? StoryMetrics.completionTokens(answer.usage) : null;
+                        metrics.recordLlmCall(request.model(), false, System.nanoTime() - start,
+                                tokens != null ? tokens : answer.chunks, true);
+                        if (answer.usage != null) {
+                            metrics.recordCachedPromptTokens(request.model(), answer.usage);
+                        }
+                        log.info("LLM antwort für Szene {} erhalten (story {}).", sceneIndex, run.storyId());
+                        return answer.text.toString();
+                    })
+                    .defaultIfEmpty("");
+        });
+    }
+
+    private String sceneText(Object resp, int sceneIndex) {
+        String sceneText;
         try {
-            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
-        } catch (TimeoutException te) {
-            // versuche aktiv zu canceln / interrupten
-            future.cancel(true);
-            throw te;
-        } catch (ExecutionException ee) {
-            // unwrappen
-            Throwable cause = ee.getCause();
-            if (cause instanceof Exception) {
-                throw (Exception) cause;
-            } else {
-                throw new RuntimeException(cause);
-            }
-        } catch (InterruptedException ie) {
-            future.cancel(true);
-            Thread.currentThread().interrupt();
-            throw ie;
+            sceneText = responseTextExtractor.extract(resp);
+        } catch (Exception ex) {
+            log.warn("Fehler beim Auslesen LLM-Text für Szene {}: {}", sceneIndex, ex.toString());
+            sceneText = "";
         }
+        return sceneText == null ? "" : sceneText;
     }
 
-    @SuppressWarnings({"rawtypes"})
-    private String extractTextFromResp(Object resp) {
-        switch (resp) {
-            case null -> {
-                return "";
-            }
-
-            // 1) Direkter String / CharSequence
-            case CharSequence ignored -> {
-                return resp.toString();
+    /**
+     * Zusammengesetzte Antwort eines gestreamten LLM-Calls: Text, Anzahl Chunks und der letzte Chunk mit Usage.
+     */
+    private static final class LlmAnswer {
+        private final StringBuilder text = new StringBuilder();
+        private int chunks;
+        private ChatResponse usage;
+
+        private LlmAnswer append(String chunkText, ChatResponse chunk) {
+            text.append(chunkText);
+            chunks++;
+            if (StoryMetrics.completionTokens(chunk) != null) {
+                usage = chunk;
             }
+            return this;
+        }
+    }
 
-            // 2) Map-Handling (z. B. Jackson mapped to Map)
-            case java.util.Map map -> {
-                // direkte Keys prüfen
-                Object v;
-                if ((v = map.get("text")) != null) {
-                    return v.toString();
-                }
-                if ((v = map.get("content")) != null) {
-                    return v.toString();
-                }
-                if ((v = map.get("message")) != null) {
-                    return v.toString();
-                }
-                if ((v = map.get("body")) != null) {
-                    return extractTextFromResp(v);
+    /**
+     * Stufe 1 im Streaming-Modus: liefert die LLM-Chunks als SCENE_TEXT_DELTA und am Ende ein SCENE_TEXT-Event.
+     * Sobald der {@link ImagePromptScanner} eine vollständige IMAGE_PROMPT-Zeile sieht, wird das Bild gestartet
+     * und unter dem Szenenindex in {@code run.images()} abgelegt, während der restliche Text noch ankommt.
+     */
+    private Flux<StoryEvent> streamSceneText(StoryRun run, int sceneIndex, AdaptiveLimit textLimit, AdaptiveLimit imageLimit) {
+        StoryRequest request = run.request();
+        int total = run.total();
+        Map<Integer, Mono<String>> images = run.images();
+
+        return Flux.defer(() -> {
+            ImagePromptScanner scanner = new ImagePromptScanner();
+            ChatClient chatClient = chatModelFactory.chatClient(request.model());
+            AtomicInteger chunks = new AtomicInteger();
+            long[] start = new long[1];
+            PromptAssembler.ScenePrompt[] prompt = new PromptAssembler.ScenePrompt[1];
+            String[] cacheKey = new String[1];
+            String[] cached = new String[1];
+            boolean[] failed = new boolean[1];
+
+            Flux<StoryEvent> deltas = Flux.using(
+                            () -> {
+                                AdaptiveLimit.Permit permit = acquire(textLimit, "text", run, sceneIndex);
+                                prompt[0] = buildPrompt(run, sceneIndex);
+                                cacheKey[0] = GenerationCache.key("text", request.model(), prompt[0].system(), prompt[0].user());
+                                cached[0] = cache.getText(cacheKey[0]).orElse(null);
+                                if (cached[0] != null) {
+                                    permit.ignoreLatency();
+                                }
+                                start[0] = System.nanoTime();
+                                return permit;
+                            },
+                            // Cache-Treffer kommt als ein einziges Delta
+                            permit -> cached[0] != null
+                                    ? Flux.just(cached[0])
+                                    : llmPolicy.stream(() -> promptSpec(chatClient, prompt[0])
+                                            .stream()
+                                            .content())
+                                    .doOnError(e -> failed[0] = true),
+                            permit -> release(textLimit, permit, sceneIndex, !failed[0]))
+                    .subscribeOn(blockingScheduler)
+                    .doOnError(e -> metrics.recordLlmCall(request.model(), true, System.nanoTime() - start[0], chunks.get(), false))
+                    .map(chunk -> {
+                        chunks.incrementAndGet();
+                        scanner.append(chunk).ifPresent(imagePrompt -> images.computeIfAbsent(sceneIndex,
+                                idx -> startImage(run, idx, imagePrompt, imageLimit)));
+                        return StoryEvent.sceneTextDelta(run.storyId(), sceneIndex, chunk, run.completed().get(), total);
+                    });
+
+            Mono<StoryEvent> sceneText = Mono.fromSupplier(() -> {
+                String text = scanner.text();
+                if (cached[0] == null) {
+                    // ein Chunk entspricht bei LM Studio/llama.cpp in etwa einem Token
+                    metrics.recordLlmCall(request.model(), true, System.nanoTime() - start[0], chunks.get(), true);
+                    cache.putText(cacheKey[0], text);
                 }
+                log.info("LLM-Stream für Szene {} abgeschlossen ({} Zeichen).", sceneIndex, text.length());
+                String imagePrompt = scanner.finish().orElseGet(() -> request.additonalImagePrompt() + text);
+                images.computeIfAbsent(sceneIndex, idx -> startImage(run, idx, imagePrompt, imageLimit));
+                String cleaned = text.replaceAll(IMAGE_PROMPT_PATTERN.pattern(), "").trim();
+                sceneFinished(run, sceneIndex, cleaned);
+                return StoryEvent.sceneText(run.storyId(), sceneIndex, cleaned, run.completed().get(), total);
+            });
+
+            return Flux.concat(deltas, sceneText);
+        }).onErrorResume(e -> {
+            String fallbackText = FALLBACK_TEXT + e.getMessage();
+            log.error("Fallback Szene für {} (story {}, Grund: {})", sceneIndex, run.storyId(), e.toString());
+            metrics.sceneFallback("text");
+            images.putIfAbsent(sceneIndex, Mono.just(""));
+            return Mono.just(StoryEvent.sceneText(run.storyId(), sceneIndex, fallbackText, run.completed().get(), total));
+        });
+    }
 
-                // verschachtelte Container
-                if ((v = map.get("output")) != null) {
-                    return extractTextFromResp(v);
-                }
-                if ((v = map.get("result")) != null) {
-                    return extractTextFromResp(v);
-                }
+    /**
+     * Startet die Bildgenerierung sofort (eager) und liefert das Ergebnis für späte Abnehmer. Die Subscription gehört
+     * der Story: endet diese mit Abbruch oder Fehler, wird das Bild abgebrochen (Job raus aus Scheduler/ComfyUI-Queue,
+     * Platz im Limit frei).
+     */
+    private Mono<String> startImage(StoryRun run, int sceneIndex, String imagePrompt, AdaptiveLimit limit) {
+        log.info("Bild-Prompt für Szene {} steht, starte Bild vor Ende des Textes.", sceneIndex);
+        Sinks.One<String> image = Sinks.one();
+        run.eagerImages().add(renderImage(run, sceneIndex, imagePrompt, limit)
+                .subscribe(image::tryEmitValue, image::tryEmitError, image::tryEmitEmpty));
+        return image.asMono();
+    }
 
-                // choices / messages: meist Listen mit erstem Element relevant
-                if ((v = map.get("choices")) instanceof List && !((List) v).isEmpty()) {
-                    return extractTextFromResp(((List) v).getFirst());
-                }
-                if ((v = map.get("messages")) instanceof List && !((List) v).isEmpty()) {
-                    return extractTextFromResp(((List) v).getFirst());
-                }
-            }
-            default -> {
-            }
+    /**
+     * Stufe 2: rendert das Bild zu einem fertigen Szenentext und hält dafür nur das übergebene Limit.
+     * Schlägt nur das Bild fehl, bleibt der Text erhalten und imagePath ist leer.
+     */
+    private Mono<SceneDto> renderSceneImage(StoryRun run, SceneDraft draft, AdaptiveLimit limit) {
+        int sceneIndex = draft.index();
+        Mono<String> started = run.images().remove(sceneIndex);
+        if (started != null) {
+            // OUTLINE: Bild läuft schon mit dem Prompt aus der Gliederung
+            return started.map(imagePath -> scene(sceneIndex, draft.text(), imagePath));
         }
-
-        // 3) Liste => erstes Element
-        if (resp instanceof List list) {
-            if (list.isEmpty()) {
-                return "";
-            }
-            return extractTextFromResp(list.getFirst());
+        if (draft.imagePrompt() == null) {
+            return Mono.just(scene(sceneIndex, draft.text(), ""));
         }
+        return renderImage(run, sceneIndex, draft.imagePrompt(), limit)
+                .map(imagePath -> scene(sceneIndex, draft.text(), imagePath));
+    }
 
-        // 4) Reflection: gängige Getter-Methoden prüfen und rekursiv auswerten
-        String[] candidateMethods = {
-                "getText", "text",
-                "getContent", "getMessage", "getMessages",
-                "getOutput", "getResult", "getBody",
-                "getChoices", "getData"
-        };
+    private SceneDto scene(int sceneIndex, String text, String imagePath) {
+        return new SceneDto(sceneIndex, text, imagePath, imageStore.idFor(imagePath));
+    }
+
+    /**
+     * Ob die Szene ein Fallback ist: Text oder Bild sind fehlgeschlagen. Solche Szenen gelten beim Fortsetzen
+     * nicht als fertig.
+     */
+    static boolean isFallback(SceneDto scene) {
+        return scene.text() == null || scene.text().startsWith(FALLBACK_TEXT)
+                || scene.imagePath() == null || scene.imagePath().isEmpty();
+    }
 
-        for (String mName : candidateMethods) {
-            try {
-                java.lang.reflect.Method m = resp.getClass().getMethod(mName);
-                Object o = m.invoke(resp);
-                if (o != null) {
-                    String extracted = extractTextFromResp(o);
-                    if (extracted != null && !extracted.isBlank()) {
-                        return extracted;
+    /**
+     * Liefert den Bildpfad oder "" bei Fehlern. Im progressiven Modus ist das die Vorschau; das finale Bild wird
+     * danach für {@link #finishScene} in {@code run.upgrades()} vorgemerkt.
+     */
+    private Mono<String> renderImage(StoryRun run, int sceneIndex, String imagePrompt, AdaptiveLimit limit) {
+        StoryRequest request = run.request();
+        if (!run.progressive()) {
+            return renderImage(run, sceneIndex, limit, run.owner(), "image", admission ->
+                    stableDiffusionTool.generateImage(request.workflow(), imagePrompt, NEGATIVE_PROMPT, IMAGE_SIZE, IMAGE_SIZE, admission));
+        }
+        return renderImage(run, sceneIndex, limit, run.owner(), "preview", admission ->
+                stableDiffusionTool.generatePreviewImage(request.workflow(), imagePrompt, NEGATIVE_PROMPT, admission))
+                .doOnNext(previewPath -> {
+                    if (!previewPath.isEmpty()) {
+                        // finales Bild strikt nachrangig: füllt die GPU nur, wenn keine Vorschau/Szene wartet
+                        run.upgrades().put(sceneIndex, renderImage(run, sceneIndex, limit, run.owner().inBackground(), "upgrade", admission ->
+                                stableDiffusionTool.generateUpgradeImage(request.workflow(), imagePrompt, NEGATIVE_PROMPT, IMAGE_SIZE, IMAGE_SIZE, admission)));
                     }
-                }
-            } catch (NoSuchMethodException ignored) {
-                // Methode nicht vorhanden → weiter
-            } catch (Exception e) {
-                // Falls Invocation fehlschlägt, nicht crashen, sondern weiter versuchen
-            }
+                });
+    }
+
+    /**
+     * Komplett reaktiv: Warten auf das Limit und auf ComfyUI belegt keinen Thread, Timeout und Abbruch der Story
+     * entfernen die Szene aus der Warteschlange bzw. canceln den Job.
+     * <p>
+     * Der Job wartet zuerst im {@link ImageJobScheduler} (der nach Checkpoint gruppiert); den Platz im Limit holt
+     * er sich erst beim Dispatch über die admission.
+     *
+     * @param pass   image, preview oder upgrade; eigene Latenz-Basis im Limit und Tag der Fallback-Metrik
+     * @param submit reicht den Job mit der übergebenen admission beim Scheduler ein
+     */
+    private Mono<String> renderImage(StoryRun run, int sceneIndex, AdaptiveLimit limit, WorkOwner owner, String pass,
+                                     Function<UnaryOperator<Mono<String>>, Mono<String>> submit) {
+        UnaryOperator<Mono<String>> admission = render -> acquireAsync(limit, pass, run, owner, sceneIndex)
+                .flatMap(permit -> {
+                    boolean[] success = {false};
+                    log.info("Starte Bildgenerierung ({}) für Szene {} (story {})", pass, sceneIndex, run.storyId());
+                    // Timeout/Hedge pro ComfyUI-Backend, siehe StableDiffusionService
+                    return render
+                            .doOnNext(imagePath -> {
+                                log.info("Bildgenerierung ({}) komplett für Szene {} (story {}) -> {}", pass, sceneIndex, run.storyId(), imagePath);
+                                if (cache.isCachedFile(imagePath)) {
+                                    permit.ignoreLatency();
+                                }
+                                success[0] = true;
+                            })
+                            .doFinally(signal -> release(limit, permit, sceneIndex, success[0]));
+                });
+        return submit.apply(admission)
+                .onErrorResume(e -> {
+                    log.error("Bildgenerierung ({}) für Szene {} (story {}) fehlgeschlagen (Grund: {})", pass, sceneIndex, run.storyId(), e.toString());
+                    metrics.sceneFallback(pass);
+                    return Mono.just("");
+                });
+    }
+
+    /**
+     * Prompt für eine Szene mit der Gliederung bzw. dem aktuellen Story-Gedächtnis (Zusammenfassung + Ende der
+     * letzten Szene); Aufbau siehe {@link PromptAssembler}.
+     */
+    private PromptAssembler.ScenePrompt buildPrompt(StoryRun run, int sceneIndex) {
+        StoryOutline outline = run.outline().get();
+        String memory = outline != null ? "" : run.context().promptContext(sceneIndex);
+        PromptAssembler.ScenePrompt prompt = promptAssembler.scene(run.request(), sceneIndex, outline, memory);
+        metrics.recordPromptTokens(prompt.estimatedTokens());
+        return prompt;
+    }
+
+    /**
+     * System-Message (gemeinsamer Prefix aller Szenen) zuerst, dann die User-Message.
+     */
+    private static ChatClient.ChatClientRequestSpec promptSpec(ChatClient chatClient, PromptAssembler.ScenePrompt prompt) {
+        ChatClient.ChatClientRequestSpec spec = chatClient.prompt();
+        if (prompt.system() != null) {
+            spec = spec.system(prompt.system());
         }
+        return spec.user(prompt.user());
+    }
 
-        // 5) Versuch: Feldzugriff per Reflection (falls getter nicht vorhanden)
-        try {
-            java.lang.reflect.Field[] fields = resp.getClass().getDeclaredFields();
-            for (java.lang.reflect.Field f : fields) {
-                f.setAccessible(true);
-                Object val = f.get(resp);
-                if (val != null) {
-                    String extracted = extractTextFromResp(val);
-                    if (extracted != null && !extracted.isBlank()) {
-                        return extracted;
-                    }
-                }
-            }
-        } catch (Exception ignored) {
+    /**
+     * Meldet eine fertige Szene ans Story-Gedächtnis; mit Gliederung braucht kein Prompt die Zusammenfassung.
+     */
+    private void sceneFinished(StoryRun run, int sceneIndex, String text) {
+        if (run.outline().get() == null) {
+            run.context().sceneFinished(sceneIndex, text);
         }
+    }
+
+    /**
+     * Zusammenfassungen teilen sich das Text-Limit mit den Szenen, aber mit niedriger Priorität: sie sind optional
+     * (bis dahin steht das Szenenende im Kontext) und sollen keine wartende Szene aufhalten.
+     */
+    private UnaryOperator<Mono<String>> summaryAdmission(WorkOwner owner) {
+        AdaptiveLimit limit = stageLimits.text(generationMode);
+        WorkOwner background = new WorkOwner(owner.storyId(), owner.tenant(), StoryPriority.BATCH);
+        return summary -> Mono.defer(() -> {
+            long start = System.nanoTime();
+            return limit.acquireAsync("summary", background)
+                    .doFinally(signal -> metrics.recordLimitWait(limit.name(), System.nanoTime() - start));
+        }).flatMap(permit -> {
+            boolean[] success = {false};
+            return summary
+                    .doOnNext(text -> success[0] = true)
+                    .doFinally(signal -> permit.release(success[0]));
+        });
+    }
 
-        // 6) Letzter Ausweg: toString()
+    private AdaptiveLimit.Permit acquire(AdaptiveLimit limit, String kind, StoryRun run, int sceneIndex) {
+        long start = System.nanoTime();
         try {
-            return resp.toString();
-        } catch (Exception e) {
-            return "";
+            log.info("Versuche {} für Szene {} zu erwerben (tenant {}, {})...", limit, sceneIndex,
+                    run.owner().tenant(), run.owner().priority());
+            AdaptiveLimit.Permit permit = limit.acquire(kind, run.owner());
+            log.info("{} erworben für Szene {}", limit.name(), sceneIndex);
+            return permit;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + limit.name(), ie);
+        } finally {
+            metrics.recordLimitWait(limit.name(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wie {@link #acquire(AdaptiveLimit, String, StoryRun, int)}, aber ohne wartenden Thread.
+     */
+    private Mono<AdaptiveLimit.Permit> acquireAsync(AdaptiveLimit limit, String kind, StoryRun run, WorkOwner owner, int sceneIndex) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            log.info("Versuche {} für Szene {} (story {}) zu erwerben (tenant {}, {})...", limit, sceneIndex,
+                    run.storyId(), owner.tenant(), owner.priority());
+            return limit.acquireAsync(kind, owner)
+                    .doOnNext(permit -> log.info("{} erworben für Szene {} (story {})", limit.name(), sceneIndex, run.storyId()))
+                    .doFinally(signal -> metrics.recordLimitWait(limit.name(), System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Gibt den Platz frei; Dauer und Erfolg fließen in die Anpassung des Limits ein.
+     */
+    private void release(AdaptiveLimit limit, AdaptiveLimit.Permit permit, int sceneIndex, boolean success) {
+        permit.release(success);
+        log.info("{} freigegeben für Szene {}", limit, sceneIndex);
+    }
+
+    /**
+     * Zustand eines Story-Laufs: storyId (Trace-Id über alle Szenen), Mandant/Priorität, Observation,
+     * Story-Gedächtnis, Fortschritt, (OUTLINE) die Gliederung, ob die Bilder progressiv entstehen und die
+     * ausstehenden Upgrades, die Subscriptions der eager gestarteten Bilder.
+     */
+    private record StoryRun(String storyId, StoryRequest request, WorkOwner owner, Observation observation, List<Integer> pendingScenes,
+                            StoryContext context, AtomicInteger completed, Map<Integer, Mono<String>> images,
+                            AtomicReference<StoryOutline> outline, Map<Integer, Mono<String>> upgrades, boolean progressive,
+                            Sinks.Many<Mono<StoryEvent>> upgradeEvents, Disposable.Composite eagerImages) {
+
+        int total() {
+            return request.scenes();
         }
     }
-}
\ No newline at end of file
+}
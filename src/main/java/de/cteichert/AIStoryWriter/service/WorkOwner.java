@@ -0,0 +1,28 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+
+/**
+ * Wem ein wartender Arbeitsschritt (Text oder Bild einer Szene) gehört: Grundlage für die faire Verteilung
+ * im {@link FairQueue} und für die Queue-Position eines Jobs.
+ *
+ * @param background strikt nachrangig (Bild-Upgrades): startet erst, wenn im selben Limit nichts anderes wartet
+ */
+record WorkOwner(String storyId, String tenant, StoryPriority priority, boolean background) {
+    static final String DEFAULT_TENANT = "default";
+
+    WorkOwner(String storyId, String tenant, StoryPriority priority) {
+        this(storyId, tenant, priority, false);
+    }
+
+    WorkOwner inBackground() {
+        return new WorkOwner(storyId, tenant, priority, true);
+    }
+
+    static WorkOwner of(String storyId, StoryRequest request) {
+        String tenant = request.tenant() == null || request.tenant().isBlank() ? DEFAULT_TENANT : request.tenant().trim();
+        StoryPriority priority = request.priority() == null ? StoryPriority.INTERACTIVE : request.priority();
+        return new WorkOwner(storyId, tenant, priority);
+    }
+}
@@ -0,0 +1,17 @@
+package de.cteichert.AIStoryWriter.service;
+
+/**
+ * Werte, die pro Bild in ein {@link WorkflowTemplate} geschrieben werden.
+ * checkpoint und negativePrompt dürfen null/leer sein, dann bleibt der Wert aus dem Template stehen; ckpt_name wird
+ * also nur überschrieben, wenn ein Checkpoint explizit angegeben ist.
+ */
+public record WorkflowParameters(
+        String checkpoint,
+        String positivePrompt,
+        String negativePrompt,
+        int width,
+        int height,
+        long seed,
+        String filenamePrefix
+) {
+}
@@ -0,0 +1,138 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Einmal geparster ComfyUI-Workflow (API-Format) mit aufgelösten Node-Rollen.
+ * <p>
+ * Die Rollen werden über class_type bzw. die Verlinkung des Samplers bestimmt, nicht über feste Node-Ids.
+ * {@link #instantiate(WorkflowParameters)} arbeitet auf einer tiefen Kopie, das Template selbst bleibt unverändert.
+ */
+public final class WorkflowTemplate {
+    private final String name;
+    private final ObjectNode workflow;
+    private final String samplerNode;
+    private final String checkpointNode;
+    private final String latentNode;
+    private final String positiveNode;
+    private final String negativeNode;
+    private final String saveNode;
+
+    private WorkflowTemplate(String name, ObjectNode workflow, String samplerNode, String checkpointNode,
+                             String latentNode, String positiveNode, String negativeNode, String saveNode) {
+        this.name = name;
+        this.workflow = workflow;
+        this.samplerNode = samplerNode;
+        this.checkpointNode = checkpointNode;
+        this.latentNode = latentNode;
+        this.positiveNode = positiveNode;
+        this.negativeNode = negativeNode;
+        this.saveNode = saveNode;
+    }
+
+    /**
+     * Validiert den Workflow und löst die Rollen auf.
+     *
+     * @throws IllegalArgumentException wenn Sampler, positiver Prompt oder SaveImage fehlen
+     */
+    public static WorkflowTemplate of(String name, JsonNode json) {
+        if (!(json instanceof ObjectNode workflow)) {
+            throw new IllegalArgumentException("Workflow '" + name + "' is not a JSON object");
+        }
+
+        String sampler = findByClassType(workflow, "KSampler", "KSamplerAdvanced");
+        String save = findByClassType(workflow, "SaveImage");
+        if (sampler == null) {
+            throw new IllegalArgumentException("Workflow '" + name + "' has no KSampler node");
+        }
+        if (save == null) {
+            throw new IllegalArgumentException("Workflow '" + name + "' has no SaveImage node");
+        }
+
+        JsonNode samplerInputs = workflow.get(sampler).path("inputs");
+        String positive = linkedNode(samplerInputs, "positive");
+        String negative = linkedNode(samplerInputs, "negative");
+        String latent = linkedNode(samplerInputs, "latent_image");
+        if (positive == null || !workflow.has(positive)) {
+            throw new IllegalArgumentException("Workflow '" + name + "' sampler has no positive prompt node");
+        }
+
+        return new WorkflowTemplate(name, workflow, sampler,
+                findByClassType(workflow, "CheckpointLoaderSimple"),
+                latent, positive, negative, save);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * ckpt_name des Templates, null ohne CheckpointLoaderSimple.
+     */
+    public String checkpoint() {
+        if (checkpointNode == null) {
+            return null;
+        }
+        String checkpoint = workflow.get(checkpointNode).path("inputs").path("ckpt_name").asText(null);
+        return StringUtils.isBlank(checkpoint) ? null : checkpoint;
+    }
+
+    /**
+     * Tiefe Kopie des Templates mit eingesetzten Parametern, fertig für {"prompt": ...}.
+     */
+    public ObjectNode instantiate(WorkflowParameters params) {
+        ObjectNode copy = workflow.deepCopy();
+
+        inputs(copy, samplerNode).put("seed", params.seed());
+        if (checkpointNode != null && StringUtils.isNotBlank(params.checkpoint())) {
+            inputs(copy, checkpointNode).put("ckpt_name", params.checkpoint());
+        }
+        inputs(copy, positiveNode).put("text", sanitize(params.positivePrompt()));
+        if (negativeNode != null && StringUtils.isNotBlank(params.negativePrompt())) {
+            inputs(copy, negativeNode).put("text", sanitize(params.negativePrompt()));
+        }
+        if (latentNode != null && params.width() > 0 && params.height() > 0) {
+            ObjectNode latent = inputs(copy, latentNode);
+            latent.put("width", params.width());
+            latent.put("height", params.height());
+        }
+        inputs(copy, saveNode).put("filename_prefix", params.filenamePrefix());
+        return copy;
+    }
+
+    private static ObjectNode inputs(ObjectNode workflow, String nodeId) {
+        return (ObjectNode) workflow.get(nodeId).get("inputs");
+    }
+
+    private static String sanitize(String text) {
+        return text == null ? "" : text.replace("\"", "'").replace("\\", "");
+    }
+
+    private static String findByClassType(ObjectNode workflow, String... classTypes) {
+        Iterator<Map.Entry<String, JsonNode>> it = workflow.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> node = it.next();
+            String classType = node.getValue().path("class_type").asText("");
+            for (String wanted : classTypes) {
+                if (wanted.equals(classType)) {
+                    return node.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    // Links im API-Format: "positive": ["6", 0]
+    private static String linkedNode(JsonNode inputs, String input) {
+        JsonNode link = inputs.get(input);
+        if (link != null && link.isArray() && !link.isEmpty()) {
+            return link.get(0).asText();
+        }
+        return null;
+    }
+}
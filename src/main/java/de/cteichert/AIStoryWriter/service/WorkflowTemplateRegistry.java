@@ -0,0 +1,70 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lädt alle Workflows aus {@code stable-diffusion-workflows/*.json} einmalig beim Start (auch aus einem Fat-Jar,
+ * da nur über InputStreams gelesen wird) und stellt sie unter ihrem Dateinamen ohne Endung bereit.
+ */
+@Slf4j
+@Component
+public class WorkflowTemplateRegistry {
+    private static final String WORKFLOW_PATTERN = "classpath*:stable-diffusion-workflows/*.json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, WorkflowTemplate> templates = new ConcurrentHashMap<>();
+    private final String defaultWorkflow;
+
+    public WorkflowTemplateRegistry(@Value("${app.comfyui.default-workflow:default}") String defaultWorkflow) {
+        this.defaultWorkflow = defaultWorkflow;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(WORKFLOW_PATTERN);
+        for (Resource resource : resources) {
+            String filename = resource.getFilename();
+            if (filename == null) {
+                continue;
+            }
+            String name = filename.substring(0, filename.length() - ".json".length());
+            try (InputStream in = resource.getInputStream()) {
+                templates.put(name, WorkflowTemplate.of(name, objectMapper.readTree(in)));
+            }
+            log.info("Loaded ComfyUI workflow '{}'", name);
+        }
+        if (!templates.containsKey(defaultWorkflow)) {
+            throw new IllegalStateException("Default workflow '" + defaultWorkflow + "' not found in " + WORKFLOW_PATTERN);
+        }
+    }
+
+    /**
+     * Liefert das Template mit diesem Namen, bei null/leer das Default-Template.
+     *
+     * @throws IllegalArgumentException für unbekannte Namen
+     */
+    public WorkflowTemplate get(String name) {
+        String key = name == null || name.isBlank() ? defaultWorkflow : name;
+        WorkflowTemplate template = templates.get(key);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown workflow '" + key + "', available: " + templates.keySet());
+        }
+        return template;
+    }
+
+    public Set<String> names() {
+        return Set.copyOf(templates.keySet());
+    }
+}
@@ -1,31 +1,91 @@
 package de.cteichert.AIStoryWriter.tool;
 
 
-import de.cteichert.AIStoryWriter.service.StableDiffusionService;
+import de.cteichert.AIStoryWriter.service.ImageJobScheduler;
+import de.cteichert.AIStoryWriter.service.WorkflowTemplateRegistry;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.function.UnaryOperator;
 
 @Component
 @Data
 @RequiredArgsConstructor
 public class StableDiffusionTool {
-    private final StableDiffusionService stableDiffusionService;
+    private final ImageJobScheduler imageJobScheduler;
+    private final WorkflowTemplateRegistry workflowRegistry;
 
-    private String modelName = "Juggernaut-XI-byRunDiffusion.safetensors";
+    // Checkpoint (ckpt_name) für alle Workflows; leer = jeder Workflow behält seinen eigenen
+    @Value("${app.comfyui.checkpoint:}")
+    private String modelName = "";
+
+    // Vorschau im progressiven Modus: eigener (schneller) Workflow/Checkpoint, leer = wie das finale Bild
+    @Value("${app.story.image.preview-workflow:}")
+    private String previewWorkflow = "";
+
+    @Value("${app.story.image.preview-checkpoint:}")
+    private String previewCheckpoint = "";
+
+    @Value("${app.story.image.preview-size:512}")
+    private int previewSize = 512;
 
     /**
      * Blocking wrapper: ruft den Service auf und blockiert bis Pfad zurückkommt oder Timeout.
      */
     public String generateImageBlocking(String prompt, String negPrompt, int width, int height, Duration timeout) {
+        return generateImageBlocking(null, prompt, negPrompt, width, height, timeout);
+    }
+
+    /**
+     * Nicht-blockierend: der Pfad kommt, sobald ComfyUI den Job fertig gemeldet hat; bis dahin belegt das Bild
+     * keinen Thread. Abbrechen des Monos nimmt den Job aus der Warteschlange bzw. bricht ihn in ComfyUI ab.
+     * {@code admission} läuft erst, wenn der {@link ImageJobScheduler} den Job dispatcht (z.B. Platz im Bild-Limit).
+     */
+    public Mono<String> generateImage(String workflow, String prompt, String negPrompt, int width, int height,
+                                      UnaryOperator<Mono<String>> admission) {
+        // der Scheduler gruppiert die Jobs nach Checkpoint
+        return imageJobScheduler.submit(workflow, checkpoint(workflow, modelName), prompt, negPrompt, width, height, false, admission)
+                .switchIfEmpty(Mono.error(() -> new RuntimeException("ComfyUI returned null path")));
+    }
+
+    /**
+     * Finales Bild nach einer Vorschau: wie {@link #generateImage(String, String, String, int, int, UnaryOperator)},
+     * aber im Scheduler strikt nachrangig (läuft nur, wenn kein anderer Bildjob wartet).
+     */
+    public Mono<String> generateUpgradeImage(String workflow, String prompt, String negPrompt, int width, int height,
+                                             UnaryOperator<Mono<String>> admission) {
+        return imageJobScheduler.submit(workflow, checkpoint(workflow, modelName), prompt, negPrompt, width, height, true, admission)
+                .switchIfEmpty(Mono.error(() -> new RuntimeException("ComfyUI returned null path")));
+    }
+
+    /**
+     * Schnelle Vorschau (kleine Auflösung, optional Turbo-/LCM-Checkpoint bzw. Workflow mit wenigen Steps),
+     * nicht-blockierend wie {@link #generateImage(String, String, String, int, int, UnaryOperator)}.
+     */
+    public Mono<String> generatePreviewImage(String workflow, String prompt, String negPrompt, UnaryOperator<Mono<String>> admission) {
+        String previewFlow = previewWorkflow == null || previewWorkflow.isBlank() ? workflow : previewWorkflow;
+        String checkpoint = previewCheckpoint == null || previewCheckpoint.isBlank() ? modelName : previewCheckpoint;
+        return imageJobScheduler.submit(previewFlow, checkpoint(previewFlow, checkpoint), prompt, negPrompt, previewSize, previewSize, false, admission)
+                .switchIfEmpty(Mono.error(() -> new RuntimeException("ComfyUI returned null path")));
+    }
+
+    /**
+     * Der explizit konfigurierte Checkpoint, sonst der aus dem Workflow. Scheduler, Backend-Auswahl und Seed sehen so
+     * immer den Checkpoint, der tatsächlich geladen wird.
+     */
+    private String checkpoint(String workflow, String configured) {
+        return configured == null || configured.isBlank() ? workflowRegistry.get(workflow).checkpoint() : configured;
+    }
+
+    /**
+     * Blocking wrapper mit benanntem Workflow (null = Default-Workflow).
+     */
+    public String generateImageBlocking(String workflow, String prompt, String negPrompt, int width, int height, Duration timeout) {
         // block(timeout) wirft ein Exception bei Timeout
-        String path = stableDiffusionService.generateImageWithComfyUI(modelName, prompt, negPrompt, width, height)
-                .block(timeout);
-        if (path == null) {
-            throw new RuntimeException("ComfyUI returned null path");
-        }
-        return path;
+        return generateImage(workflow, prompt, negPrompt, width, height, UnaryOperator.identity()).block(timeout);
     }
-}
\ No newline at end of file
+}
@@ -45,7 +45,10 @@ class StoryServiceIntegrationTest {
                 """
                         mystic, grim
                         """,
-                model
+                model,
+                null,
+                null,
+                null
         );
 
         // StoryService liefert jetzt Mono<StoryResult>
@@ -0,0 +1,72 @@
+package de.cteichert.AIStoryWriter.controller;
+
+import de.cteichert.AIStoryWriter.service.ImageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+class ImageControllerTest {
+    @TempDir
+    Path dir;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path image = Files.writeString(dir.resolve("scene_00001_.png"), "0123456789", StandardCharsets.UTF_8);
+        ImageStore store = mock(ImageStore.class);
+        when(store.resolve("0.abc")).thenReturn(Optional.of(image));
+        when(store.resolve("missing")).thenReturn(Optional.empty());
+        mvc = MockMvcBuilders.standaloneSetup(new ImageController(store)).build();
+    }
+
+    @Test
+    void servesTheWholeImageWithETag() throws Exception {
+        MvcResult result = mvc.perform(get("/api/images/0.abc")).andReturn();
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentType()).isEqualTo("image/png");
+        assertThat(result.getResponse().getContentAsString()).isEqualTo("0123456789");
+        assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).isNotBlank();
+        assertThat(mvc.perform(get("/api/images/missing")).andReturn().getResponse().getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void answersIfNoneMatchWithNotModified() throws Exception {
+        String etag = mvc.perform(get("/api/images/0.abc")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        MvcResult result = mvc.perform(get("/api/images/0.abc").header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn();
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(304);
+        assertThat(result.getResponse().getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void servesByteRanges() throws Exception {
+        MvcResult partial = mvc.perform(get("/api/images/0.abc").header(HttpHeaders.RANGE, "bytes=2-4")).andReturn();
+        assertThat(partial.getResponse().getStatus()).isEqualTo(206);
+        assertThat(partial.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-4/10");
+        assertThat(partial.getResponse().getContentAsString()).isEqualTo("234");
+
+        MvcResult suffix = mvc.perform(get("/api/images/0.abc").header(HttpHeaders.RANGE, "bytes=-3")).andReturn();
+        assertThat(suffix.getResponse().getContentAsString()).isEqualTo("789");
+
+        MvcResult unsatisfiable = mvc.perform(get("/api/images/0.abc").header(HttpHeaders.RANGE, "bytes=20-")).andReturn();
+        assertThat(unsatisfiable.getResponse().getStatus()).isEqualTo(416);
+        assertThat(unsatisfiable.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+    }
+}
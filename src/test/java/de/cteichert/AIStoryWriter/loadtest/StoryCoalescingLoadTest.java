@@ -0,0 +1,78 @@
+package de.cteichert.AIStoryWriter.loadtest;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * N identische, gleichzeitige Anfragen an {@code /api/story/generate}: der StoryService fasst sie zu einem Lauf
+ * zusammen, LLM und ComfyUI sehen die Story nur einmal, alle Aufrufer bekommen dasselbe Ergebnis.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class StoryCoalescingLoadTest {
+    private static final Path OUTPUT_DIR = createOutputDir();
+    // langsam genug, dass alle Duplikate eintreffen, solange die erste Story noch läuft
+    private static final StubLlmServer LLM = new StubLlmServer()
+            .latency(Duration.ofMillis(300))
+            .start();
+    private static final StubComfyUiServer COMFY_UI = new StubComfyUiServer(OUTPUT_DIR)
+            .renderLatency(Duration.ofMillis(80))
+            .start();
+
+    @LocalServerPort
+    int port;
+
+    @DynamicPropertySource
+    static void backends(DynamicPropertyRegistry registry) {
+        registry.add("app.llm.base-url", LLM::baseUrl);
+        registry.add("app.comfyui.base-url", COMFY_UI::baseUrl);
+        registry.add("app.comfyui.output-dir", OUTPUT_DIR::toString);
+        registry.add("app.story.jobs.dir", () -> OUTPUT_DIR.resolve("jobs").toString());
+        registry.add("app.story.mode", () -> "PIPELINE");
+    }
+
+    @AfterAll
+    static void stopBackends() {
+        LLM.close();
+        COMFY_UI.close();
+    }
+
+    @Test
+    void identicalConcurrentRequestsShareOneRun() {
+        int requests = 8;
+        int scenes = 3;
+        StoryRequest request = new StoryRequest("Coalescing Test", "fantasy", "", "cinematic, ", scenes, "grim", "stub-model", null, null, null);
+
+        StoryLoadDriver.Report report = new StoryLoadDriver("http://localhost:" + port)
+                .runIdentical(requests, request, Duration.ofMinutes(2));
+        System.out.println("[load/coalescing] " + report);
+
+        assertThat(report.failures()).isZero();
+        assertThat(report.results()).hasSize(requests);
+        assertThat(report.results()).allSatisfy(result -> assertThat(result).isEqualTo(report.results().getFirst()));
+        assertThat(report.results().getFirst().scenes()).hasSize(scenes);
+        // ein Lauf: eine Story mit ihren Zusammenfassungen, ein Bild pro Szene
+        assertThat(LLM.requestCount()).isBetween(scenes, 2 * scenes - 1);
+        assertThat(COMFY_UI.submittedCount()).isEqualTo(scenes);
+    }
+
+    private static Path createOutputDir() {
+        try {
+            return Files.createTempDirectory("comfyui-stub-output-coalescing");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package de.cteichert.AIStoryWriter.loadtest;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import de.cteichert.AIStoryWriter.model.StoryResult;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Feuert N parallele {@link StoryRequest}s gegen {@code /api/story/generate} und misst Latenzen,
+ * Durchsatz sowie Thread-Anzahl und Heap-Nutzung der JVM während des Laufs.
+ * <p>
+ * {@link #run} hängt den Index an den Titel, damit jede Anfrage eine eigene Story ist (identische laufende Anfragen
+ * fasst der StoryService zusammen); {@link #runIdentical} schickt N-mal genau dieselbe Anfrage.
+ */
+public class StoryLoadDriver {
+    private final WebClient webClient;
+
+    public StoryLoadDriver(String baseUrl) {
+        this.webClient = WebClient.builder()
+                .baseUrl(baseUrl)
+                .codecs(c -> c.defaultCodecs().maxInMemorySize(100 * 1024 * 1024))
+                .build();
+    }
+
+    public record Report(int stories, int failures, int scenesWithoutImage,
+                         long p50Millis, long p99Millis, long maxMillis,
+                         double storiesPerSecond, int peakThreads, long peakHeapMb,
+                         List<StoryResult> results) {
+
+        @Override
+        public String toString() {
+            return "stories=%d failures=%d scenesWithoutImage=%d p50=%dms p99=%dms max=%dms throughput=%.2f stories/s peakThreads=%d peakHeap=%dMB"
+                    .formatted(stories, failures, scenesWithoutImage, p50Millis, p99Millis, maxMillis,
+                            storiesPerSecond, peakThreads, peakHeapMb);
+        }
+    }
+
+    public Report run(int concurrentStories, StoryRequest request, Duration timeout) {
+        return run(concurrentStories, i -> withTitle(request, request.title() + " #" + i), timeout);
+    }
+
+    public Report runIdentical(int concurrentStories, StoryRequest request, Duration timeout) {
+        return run(concurrentStories, i -> request, timeout);
+    }
+
+    private Report run(int concurrentStories, IntFunction<StoryRequest> requests, Duration timeout) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicInteger peakThreads = new AtomicInteger(threads.getThreadCount());
+        AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+
+        Disposable sampler = Flux.interval(Duration.ofMillis(50))
+                .subscribe(tick -> {
+                    peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+                    peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                });
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        List<StoryResult> results = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try {
+            Flux.range(0, concurrentStories)
+                    .flatMap(i -> timed(requests.apply(i), latencies)
+                            .doOnNext(results::add)
+                            .onErrorResume(e -> {
+                                failures.incrementAndGet();
+                                return Mono.empty();
+                            }), concurrentStories)
+                    .then()
+                    .block(timeout);
+        } finally {
+            sampler.dispose();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        int withoutImage = (int) results.stream()
+                .flatMap(r -> r.scenes().stream())
+                // ohne Bild-Id kann ein Client das Bild nicht laden
+                .filter(s -> s.imageUrl() == null)
+                .count();
+
+        return new Report(concurrentStories, failures.get(), withoutImage,
+                percentile(sorted, 0.50), percentile(sorted, 0.99),
+                sorted.isEmpty() ? 0 : sorted.getLast(),
+                results.size() / seconds, peakThreads.get(), peakHeap.get() / (1024 * 1024),
+                List.copyOf(results));
+    }
+
+    private Mono<StoryResult> timed(StoryRequest request, List<Long> latencies) {
+        return Mono.defer(() -> {
+            long t0 = System.nanoTime();
+            return webClient.post()
+                    .uri("/api/story/generate")
+                    .bodyValue(request)
+                    .retrieve()
+                    .bodyToMono(StoryResult.class)
+                    .doOnNext(r -> latencies.add((System.nanoTime() - t0) / 1_000_000));
+        });
+    }
+
+    private static StoryRequest withTitle(StoryRequest request, String title) {
+        return new StoryRequest(title, request.genre(), request.additonalTextPrompt(), request.additonalImagePrompt(),
+                request.scenes(), request.tone(), request.model(), request.workflow(), request.tenant(),
+                request.priority());
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(idx, sorted.size() - 1)));
+    }
+}
@@ -0,0 +1,91 @@
+package de.cteichert.AIStoryWriter.loadtest;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-End-Lasttest gegen die Stub-Backends: läuft ohne GPU/LM Studio im normalen Testlauf
+ * und macht Regressionen in StoryService/StableDiffusionService an Latenz, Threads und Heap sichtbar.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class StoryLoadTest {
+    private static final Path OUTPUT_DIR = createOutputDir();
+    private static final StubLlmServer LLM = new StubLlmServer()
+            .latency(Duration.ofMillis(30))
+            .start();
+    // zwei "GPU-Boxen" mit gemeinsamem Output-Verzeichnis, die Jobs verteilt der ComfyUiBackendPool
+    private static final StubComfyUiServer COMFY_UI = new StubComfyUiServer(OUTPUT_DIR)
+            .renderLatency(Duration.ofMillis(80))
+            .start();
+    private static final StubComfyUiServer COMFY_UI_2 = new StubComfyUiServer(OUTPUT_DIR)
+            .renderLatency(Duration.ofMillis(80))
+            .start();
+
+    @LocalServerPort
+    int port;
+
+    @DynamicPropertySource
+    static void backends(DynamicPropertyRegistry registry) {
+        registry.add("app.llm.base-url", LLM::baseUrl);
+        registry.add("app.comfyui.backends", () -> COMFY_UI.baseUrl() + "," + COMFY_UI_2.baseUrl());
+        registry.add("app.comfyui.output-dir", OUTPUT_DIR::toString);
+        registry.add("app.story.jobs.dir", () -> OUTPUT_DIR.resolve("jobs").toString());
+        registry.add("app.story.mode", () -> "PIPELINE");
+        registry.add("app.story.pipeline.text-concurrency", () -> "4");
+        registry.add("app.story.pipeline.image-concurrency", () -> "4");
+        // AIMD darf regeln, aber nicht unter 2, sonst bekäme nur ein Stub-Backend Jobs
+        registry.add("app.story.limit.min", () -> "2");
+    }
+
+    @AfterAll
+    static void stopBackends() {
+        LLM.close();
+        COMFY_UI.close();
+        COMFY_UI_2.close();
+    }
+
+    @Test
+    void concurrentStoriesCompleteWithTextAndImages() {
+        int stories = 8;
+        int scenes = 3;
+        StoryRequest request = new StoryRequest("Load Test", "fantasy", "", "cinematic, ", scenes, "grim", "stub-model", null, null, null);
+
+        StoryLoadDriver.Report report = new StoryLoadDriver("http://localhost:" + port)
+                .run(stories, request, Duration.ofMinutes(2));
+        System.out.println("[load] " + report);
+
+        assertThat(report.failures()).isZero();
+        assertThat(report.results()).hasSize(stories);
+        assertThat(report.scenesWithoutImage()).isZero();
+        report.results().forEach(result -> {
+            assertThat(result.scenes()).hasSize(scenes);
+            assertThat(result.scenes()).allSatisfy(scene -> assertThat(scene.text()).isNotBlank());
+        });
+        // plus asynchrone Zusammenfassungen fürs Story-Gedächtnis (alle Szenen außer der letzten)
+        assertThat(LLM.requestCount()).isBetween(stories * scenes, stories * (2 * scenes - 1));
+        assertThat(COMFY_UI.submittedCount() + COMFY_UI_2.submittedCount()).isEqualTo(stories * scenes);
+        assertThat(COMFY_UI.submittedCount()).isPositive();
+        assertThat(COMFY_UI_2.submittedCount()).isPositive();
+    }
+
+    private static Path createOutputDir() {
+        try {
+            return Files.createTempDirectory("comfyui-stub-output");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package de.cteichert.AIStoryWriter.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-Process-Ersatz für ComfyUI mit {@code POST /prompt}, {@code GET /history/{id}}, {@code /queue},
+ * {@code /system_stats} und {@code /ws}.
+ * <p>
+ * Ein Job "rendert" für die eingestellte Latenz, schreibt dann ein PNG mit dem filename_prefix des
+ * SaveImage-Nodes ins Output-Verzeichnis und schickt executing/executed-Events an die client_id.
+ * Render-Latenz, parallele "GPU"-Slots, Bildgröße und Fehlerrate sind einstellbar.
+ */
+public class StubComfyUiServer implements AutoCloseable {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path outputDir;
+    private final Map<String, Sinks.Many<String>> sockets = new ConcurrentHashMap<>();
+    private final Map<String, ObjectNode> history = new ConcurrentHashMap<>();
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger queueNumber = new AtomicInteger();
+
+    private volatile Duration renderLatency = Duration.ofMillis(100);
+    private volatile int imageSize = 64;
+    private volatile double failureRate = 0.0;
+    private volatile boolean sendWebsocketEvents = true;
+
+    private DisposableServer server;
+
+    public StubComfyUiServer(Path outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    public StubComfyUiServer start() {
+        server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle(this::handle)
+                .bindNow();
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.port();
+    }
+
+    public int submittedCount() {
+        return submitted.get();
+    }
+
+    public StubComfyUiServer renderLatency(Duration renderLatency) {
+        this.renderLatency = renderLatency;
+        return this;
+    }
+
+    public StubComfyUiServer imageSize(int imageSize) {
+        this.imageSize = imageSize;
+        return this;
+    }
+
+    /**
+     * Anteil der Jobs (0..1), die mit execution_error enden.
+     */
+    public StubComfyUiServer failureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Ohne Websocket-Events muss der Client über Dateisystem oder /history fertig werden.
+     */
+    public StubComfyUiServer sendWebsocketEvents(boolean sendWebsocketEvents) {
+        this.sendWebsocketEvents = sendWebsocketEvents;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.disposeNow();
+        }
+        sockets.values().forEach(Sinks.Many::tryEmitComplete);
+    }
+
+    private Mono<Void> handle(HttpServerRequest req, HttpServerResponse res) {
+        String path = req.fullPath();
+        if (path.equals("/ws")) {
+            String clientId = param(req.uri(), "clientId");
+            return res.sendWebsocket((in, out) -> {
+                Sinks.Many<String> sink = Sinks.many().multicast().onBackpressureBuffer();
+                sockets.put(clientId, sink);
+                return out.sendString(sink.asFlux())
+                        .then()
+                        .doFinally(signal -> sockets.remove(clientId, sink));
+            });
+        }
+        if (path.equals("/prompt")) {
+            return req.receive().aggregate().asString().flatMap(body -> submit(body, res));
+        }
+        if (path.equals("/queue")) {
+            ObjectNode body = objectMapper.createObjectNode();
+            ArrayNode queueRunning = body.putArray("queue_running");
+            for (int i = 0; i < running.get(); i++) {
+                queueRunning.addArray();
+            }
+            body.putArray("queue_pending");
+            return json(res, body);
+        }
+        if (path.equals("/system_stats")) {
+            ObjectNode body = objectMapper.createObjectNode();
+            body.putObject("system").put("os", "stub");
+            body.putArray("devices").addObject()
+                    .put("name", "stub-gpu")
+                    .put("vram_total", 24L << 30)
+                    .put("vram_free", 20L << 30);
+            return json(res, body);
+        }
+        if (path.startsWith("/history/")) {
+            String promptId = path.substring("/history/".length());
+            ObjectNode entry = history.get(promptId);
+            ObjectNode body = objectMapper.createObjectNode();
+            if (entry != null) {
+                body.set(promptId, entry);
+            }
+            return json(res, body);
+        }
+        return res.status(404).send();
+    }
+
+    private Mono<Void> submit(String body, HttpServerResponse res) {
+        JsonNode request;
+        try {
+            request = objectMapper.readTree(body);
+        } catch (IOException e) {
+            return res.status(400).send();
+        }
+        String clientId = request.path("client_id").asText(null);
+        String prefix = saveImagePrefix(request.path("prompt"));
+        String promptId = UUID.randomUUID().toString();
+        submitted.incrementAndGet();
+
+        Mono.delay(renderLatency)
+                .doOnSubscribe(s -> running.incrementAndGet())
+                .doFinally(s -> running.decrementAndGet())
+                .subscribe(tick -> complete(clientId, promptId, prefix));
+
+        ObjectNode resp = objectMapper.createObjectNode();
+        resp.put("prompt_id", promptId);
+        resp.put("number", queueNumber.incrementAndGet());
+        resp.putObject("node_errors");
+        return json(res, resp);
+    }
+
+    private void complete(String clientId, String promptId, String prefix) {
+        send(clientId, "executing", data(promptId).put("node", "3"));
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            send(clientId, "execution_error", data(promptId).put("exception_message", "stub failure"));
+            return;
+        }
+
+        String filename = prefix + "_00001_.png";
+        try {
+            BufferedImage image = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_RGB);
+            ImageIO.write(image, "png", outputDir.resolve(filename).toFile());
+        } catch (IOException e) {
+            send(clientId, "execution_error", data(promptId).put("exception_message", e.toString()));
+            return;
+        }
+
+        ObjectNode images = objectMapper.createObjectNode();
+        images.putArray("images").addObject()
+                .put("filename", filename)
+                .put("subfolder", "")
+                .put("type", "output");
+        ObjectNode entry = objectMapper.createObjectNode();
+        entry.putObject("outputs").set("9", images);
+        entry.putObject("status").put("status_str", "success").put("completed", true);
+        history.put(promptId, entry);
+
+        ObjectNode executed = data(promptId).put("node", "9");
+        executed.set("output", images);
+        send(clientId, "executed", executed);
+        send(clientId, "executing", data(promptId).putNull("node"));
+    }
+
+    private ObjectNode data(String promptId) {
+        return objectMapper.createObjectNode().put("prompt_id", promptId);
+    }
+
+    private void send(String clientId, String type, ObjectNode data) {
+        if (!sendWebsocketEvents || clientId == null) {
+            return;
+        }
+        Sinks.Many<String> sink = sockets.get(clientId);
+        if (sink != null) {
+            ObjectNode msg = objectMapper.createObjectNode();
+            msg.put("type", type);
+            msg.set("data", data);
+            sink.emitNext(msg.toString(), Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+        }
+    }
+
+    private String saveImagePrefix(JsonNode workflow) {
+        Iterator<Map.Entry<String, JsonNode>> it = workflow.fields();
+        while (it.hasNext()) {
+            JsonNode node = it.next().getValue();
+            if ("SaveImage".equals(node.path("class_type").asText())) {
+                return node.path("inputs").path("filename_prefix").asText("image");
+            }
+        }
+        return "image";
+    }
+
+    private Mono<Void> json(HttpServerResponse res, JsonNode body) {
+        return res.header("Content-Type", "application/json")
+                .sendString(Mono.just(body.toString()))
+                .then();
+    }
+
+    private static String param(String uri, String name) {
+        List<String> values = new QueryStringDecoder(uri).parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.getFirst();
+    }
+}
@@ -0,0 +1,224 @@
+package de.cteichert.AIStoryWriter.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-Process-Ersatz für einen OpenAI-kompatiblen Server (LM Studio) mit {@code POST /v1/chat/completions}.
+ * <p>
+ * Antwortet mit einem generierten Szenentext samt IMAGE_PROMPT-Zeile, normal oder als SSE-Stream
+ * ({@code "stream": true}). Latenz, Streaming-Geschwindigkeit, Textlänge und Fehlerrate sind einstellbar.
+ */
+public class StubLlmServer implements AutoCloseable {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong ids = new AtomicLong();
+
+    private volatile Duration latency = Duration.ofMillis(50);
+    private volatile Duration chunkDelay = Duration.ofMillis(1);
+    private volatile int words = 200;
+    private volatile int wordsPerChunk = 4;
+    private volatile double failureRate = 0.0;
+    private volatile String lastMessages;
+
+    private DisposableServer server;
+
+    public StubLlmServer start() {
+        server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle(this::handle)
+                .bindNow();
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.port();
+    }
+
+    public int requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Zeit bis zur Antwort bzw. zum ersten Chunk.
+     */
+    public StubLlmServer latency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Pause zwischen zwei Stream-Chunks.
+     */
+    public StubLlmServer chunkDelay(Duration chunkDelay) {
+        this.chunkDelay = chunkDelay;
+        return this;
+    }
+
+    public StubLlmServer words(int words) {
+        this.words = words;
+        return this;
+    }
+
+    public StubLlmServer wordsPerChunk(int wordsPerChunk) {
+        this.wordsPerChunk = Math.max(1, wordsPerChunk);
+        return this;
+    }
+
+    /**
+     * Anteil der Requests (0..1), die mit HTTP 500 beantwortet werden.
+     */
+    public StubLlmServer failureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.disposeNow();
+        }
+    }
+
+    private Mono<Void> handle(HttpServerRequest req, HttpServerResponse res) {
+        if (!req.fullPath().endsWith("/chat/completions")) {
+            return res.status(404).send();
+        }
+        requests.incrementAndGet();
+        return req.receive().aggregate().asString()
+                .flatMap(body -> {
+                    JsonNode request = readTree(body);
+                    if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                        return Mono.delay(latency).then(res.status(500)
+                                .header("Content-Type", "application/json")
+                                .sendString(Mono.just("{\"error\":{\"message\":\"stub failure\"}}"))
+                                .then());
+                    }
+                    String model = request.path("model").asText("stub-model");
+                    String text = sceneText();
+                    if (request.path("stream").asBoolean(false)) {
+                        return stream(res, model, text);
+                    }
+                    return Mono.delay(latency).then(res
+                            .header("Content-Type", "application/json")
+                            .sendString(Mono.just(completion(model, text, request)))
+                            .then());
+                });
+    }
+
+    private Mono<Void> stream(HttpServerResponse res, String model, String text) {
+        String id = "chatcmpl-" + ids.incrementAndGet();
+        List<String> chunks = chunk(text);
+        Flux<String> events = Flux.fromIterable(chunks)
+                .delayElements(chunkDelay)
+                .map(chunk -> "data: " + chunkJson(id, model, chunk, null) + "\n\n")
+                .concatWith(Mono.fromSupplier(() -> "data: " + chunkJson(id, model, "", "stop") + "\n\n"))
+                .concatWith(Mono.just("data: [DONE]\n\n"))
+                .delaySubscription(latency);
+        return res.header("Content-Type", "text/event-stream")
+                .sendString(events)
+                .then();
+    }
+
+    private String completion(String model, String text, JsonNode request) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("id", "chatcmpl-" + ids.incrementAndGet());
+        root.put("object", "chat.completion");
+        root.put("created", System.currentTimeMillis() / 1000);
+        root.put("model", model);
+        ObjectNode choice = root.putArray("choices").addObject();
+        choice.put("index", 0);
+        choice.putObject("message").put("role", "assistant").put("content", text);
+        choice.put("finish_reason", "stop");
+        String messages = request.path("messages").toString();
+        int promptTokens = messages.length() / 4;
+        int completionTokens = text.length() / 4;
+        // Prefix-Cache wie bei llama.cpp/vLLM: gemeinsamer Anfang mit dem vorigen Prompt gilt als gecacht
+        String previous = lastMessages;
+        lastMessages = messages;
+        int cachedTokens = previous == null ? 0 : commonPrefixLength(previous, messages) / 4;
+        ObjectNode usage = root.putObject("usage")
+                .put("prompt_tokens", promptTokens)
+                .put("completion_tokens", completionTokens)
+                .put("total_tokens", promptTokens + completionTokens);
+        usage.putObject("prompt_tokens_details").put("cached_tokens", cachedTokens);
+        return root.toString();
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private String chunkJson(String id, String model, String content, String finishReason) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("id", id);
+        root.put("object", "chat.completion.chunk");
+        root.put("created", System.currentTimeMillis() / 1000);
+        root.put("model", model);
+        ObjectNode choice = root.putArray("choices").addObject();
+        choice.put("index", 0);
+        choice.putObject("delta").put("content", content);
+        if (finishReason == null) {
+            choice.putNull("finish_reason");
+        } else {
+            choice.put("finish_reason", finishReason);
+        }
+        return root.toString();
+    }
+
+    private String sceneText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append("Wort").append(i).append(i % 20 == 19 ? '\n' : ' ');
+        }
+        sb.append("\nIMAGE_PROMPT: stub scene ").append(requests.get()).append(", cinematic\n");
+        return sb.toString();
+    }
+
+    private List<String> chunk(String text) {
+        List<String> chunks = new ArrayList<>();
+        String[] tokens = text.split("(?<= )|(?<=\n)");
+        StringBuilder current = new StringBuilder();
+        int count = 0;
+        for (String token : tokens) {
+            current.append(token);
+            if (++count == wordsPerChunk) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                count = 0;
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    private JsonNode readTree(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (Exception e) {
+            return objectMapper.createObjectNode();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.cteichert.AIStoryWriter.loadtest;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lasttest mit {@code app.story.virtual-threads=true}: wartende und laufende Szenen parken auf Virtual Threads,
+ * die Zahl der Plattform-Threads darf mit der Zahl paralleler Stories nicht mitwachsen.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class VirtualThreadStoryLoadTest {
+    private static final Path OUTPUT_DIR = createOutputDir();
+    private static final StubLlmServer LLM = new StubLlmServer()
+            .latency(Duration.ofMillis(30))
+            .start();
+    private static final StubComfyUiServer COMFY_UI = new StubComfyUiServer(OUTPUT_DIR)
+            .renderLatency(Duration.ofMillis(80))
+            .start();
+
+    @LocalServerPort
+    int port;
+
+    @DynamicPropertySource
+    static void backends(DynamicPropertyRegistry registry) {
+        registry.add("app.llm.base-url", LLM::baseUrl);
+        registry.add("app.comfyui.base-url", COMFY_UI::baseUrl);
+        registry.add("app.comfyui.output-dir", OUTPUT_DIR::toString);
+        registry.add("app.story.jobs.dir", () -> OUTPUT_DIR.resolve("jobs").toString());
+        registry.add("app.story.virtual-threads", () -> "true");
+        registry.add("app.story.mode", () -> "PIPELINE");
+        registry.add("app.story.pipeline.text-concurrency", () -> "2");
+        registry.add("app.story.pipeline.image-concurrency", () -> "2");
+        // hier soll alles warten, nicht abgewiesen werden
+        registry.add("app.story.limit.max-queue", () -> "0");
+    }
+
+    @AfterAll
+    static void stopBackends() {
+        LLM.close();
+        COMFY_UI.close();
+    }
+
+    @Test
+    void platformThreadsStayFlatAsConcurrentStoriesGrow() {
+        StoryRequest request = new StoryRequest("VT Load Test", "fantasy", "", "cinematic, ", 2, "grim", "stub-model", null, null, null);
+        StoryLoadDriver driver = new StoryLoadDriver("http://localhost:" + port);
+
+        // Aufwärmen, damit Netty/Tomcat/Reactor ihre festen Pools schon angelegt haben
+        driver.run(2, request, Duration.ofMinutes(2));
+        StoryLoadDriver.Report small = driver.run(4, request, Duration.ofMinutes(2));
+        StoryLoadDriver.Report large = driver.run(32, request, Duration.ofMinutes(2));
+        System.out.println("[load/virtual-threads] 4 stories:  " + small);
+        System.out.println("[load/virtual-threads] 32 stories: " + large);
+
+        assertThat(small.failures()).isZero();
+        assertThat(large.failures()).isZero();
+        assertThat(large.scenesWithoutImage()).isZero();
+        // mit dem Cached Thread Pool parkt jede wartende Szene einen eigenen Plattform-Thread (32 Stories -> 32+)
+        assertThat(large.peakThreads() - small.peakThreads()).isLessThan(16);
+    }
+
+    private static Path createOutputDir() {
+        try {
+            return Files.createTempDirectory("comfyui-stub-output-vt");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveLimitTest {
+    private static final Map<StoryPriority, Integer> WEIGHTS = Map.of(StoryPriority.INTERACTIVE, 4, StoryPriority.BATCH, 1);
+    private static final WorkOwner OWNER = new WorkOwner("story-1", "default", StoryPriority.INTERACTIVE);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AdaptiveLimit limit(int initial) {
+        return new AdaptiveLimit("test", true, initial, 1, 4, 0.5, 2.0, WEIGHTS, clock::get);
+    }
+
+    @Test
+    void growsWhileSaturated() throws Exception {
+        AdaptiveLimit limit = limit(1);
+
+        limit.acquire("text", OWNER).release(true);
+
+        assertThat(limit.currentLimit()).isEqualTo(2);
+        assertThat(limit.inFlight()).isZero();
+    }
+
+    @Test
+    void backsOffOnErrors() throws Exception {
+        AdaptiveLimit limit = limit(4);
+
+        limit.acquire("text", OWNER).release(false);
+
+        assertThat(limit.currentLimit()).isEqualTo(2);
+        limit.acquire("text", OWNER).release(false);
+        limit.acquire("text", OWNER).release(false);
+        assertThat(limit.currentLimit()).isEqualTo(1);
+    }
+
+    @Test
+    void backsOffWhenLatencyRises() throws Exception {
+        AdaptiveLimit limit = limit(4);
+        AdaptiveLimit.Permit fast = limit.acquire("image", OWNER);
+        clock.addAndGet(1_000_000);
+        fast.release(true);
+
+        AdaptiveLimit.Permit slow = limit.acquire("image", OWNER);
+        clock.addAndGet(50_000_000);
+        slow.release(true);
+
+        assertThat(limit.currentLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void ignoredSamplesDoNotChangeTheLimit() throws Exception {
+        AdaptiveLimit limit = limit(2);
+
+        AdaptiveLimit.Permit cached = limit.acquire("text", OWNER);
+        cached.ignoreLatency();
+        cached.release(false);
+
+        assertThat(limit.currentLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void queuesBeyondTheLimitInArrivalOrder() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit("test", false, 1, 1, 1, 0.5, 2.0, WEIGHTS);
+        AdaptiveLimit.Permit first = limit.acquire("text", OWNER);
+
+        CompletableFuture<AdaptiveLimit.Permit> second = CompletableFuture.supplyAsync(() -> acquire(limit));
+        while (limit.queued() == 0) {
+            Thread.onSpinWait();
+        }
+        assertThat(second).isNotDone();
+
+        first.release(true);
+        second.get(5, TimeUnit.SECONDS).release(true);
+        // doppeltes release zählt nicht
+        first.release(true);
+
+        assertThat(limit.inFlight()).isZero();
+        assertThat(limit.queued()).isZero();
+    }
+
+    @Test
+    void asyncWaitersGetPermitsWithoutAThreadAndCanCancel() {
+        AdaptiveLimit limit = new AdaptiveLimit("test", false, 1, 1, 1, 0.5, 2.0, WEIGHTS);
+        AdaptiveLimit.Permit first = limit.acquireAsync("image", OWNER).block();
+
+        CompletableFuture<AdaptiveLimit.Permit> cancelled = limit.acquireAsync("image", OWNER).toFuture();
+        CompletableFuture<AdaptiveLimit.Permit> second = limit.acquireAsync("image", OWNER).toFuture();
+        assertThat(limit.queued()).isEqualTo(2);
+        cancelled.cancel(true);
+        assertThat(limit.queued()).isEqualTo(1);
+        assertThat(second).isNotDone();
+
+        first.release(true);
+        assertThat(second).isCompleted();
+        second.join().release(true);
+
+        assertThat(limit.inFlight()).isZero();
+        assertThat(limit.queued()).isZero();
+    }
+
+    private static AdaptiveLimit.Permit acquire(AdaptiveLimit limit) {
+        try {
+            return limit.acquire("text", OWNER);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ComfyUiBackendPoolTest {
+
+    static ResiliencePolicies policies() {
+        return new ResiliencePolicies(new SimpleMeterRegistry(),
+                Duration.ofSeconds(30), Duration.ofMinutes(15), false, Duration.ofSeconds(30), Duration.ofMinutes(10), true,
+                3.0, 20, 5, Duration.ofSeconds(30));
+    }
+
+    private static ComfyUiBackendPool pool(String... urls) {
+        // ohne start(): keine Websockets, Watcher oder Health-Checks
+        return new ComfyUiBackendPool(List.of(urls), List.of(), "target/test-output", false, false,
+                Duration.ZERO, 2, 2, WebClient.builder(), policies(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void picksLeastLoadedBackend() {
+        ComfyUiBackendPool pool = pool("http://a:8188", "http://b:8188");
+        ComfyUiBackend a = pool.backends().get(0);
+        ComfyUiBackend b = pool.backends().get(1);
+        a.healthCheckSucceeded(3);
+        b.healthCheckSucceeded(1);
+
+        assertThat(pool.select("sdxl.safetensors")).isSameAs(b);
+    }
+
+    @Test
+    void prefersBackendWithLoadedCheckpointWithinAffinity() {
+        ComfyUiBackendPool pool = pool("http://a:8188", "http://b:8188");
+        ComfyUiBackend a = pool.backends().get(0);
+        ComfyUiBackend b = pool.backends().get(1);
+        a.dispatched("flux.safetensors");
+        a.finished();
+        a.healthCheckSucceeded(2);
+        b.healthCheckSucceeded(1);
+
+        assertThat(pool.select("flux.safetensors")).isSameAs(a);
+        assertThat(pool.select("sdxl.safetensors")).isSameAs(b);
+    }
+
+    @Test
+    void ejectsBackendAfterRepeatedFailuresAndReadmitsOnSuccess() {
+        ComfyUiBackendPool pool = pool("http://a:8188", "http://b:8188");
+        ComfyUiBackend a = pool.backends().get(0);
+        ComfyUiBackend b = pool.backends().get(1);
+        b.healthCheckSucceeded(5);
+
+        pool.reportFailure(a, new IllegalStateException("connection refused"));
+        assertThat(a.isHealthy()).isTrue();
+        pool.reportFailure(a, new IllegalStateException("connection refused"));
+        assertThat(a.isHealthy()).isFalse();
+        assertThat(pool.select(null)).isSameAs(b);
+
+        a.healthCheckSucceeded(0);
+        assertThat(pool.select(null)).isSameAs(a);
+    }
+
+    @Test
+    void skipsBackendWithOpenCircuitAndHedgesOnlyToALessLoadedOne() {
+        ComfyUiBackendPool pool = pool("http://a:8188", "http://b:8188");
+        ComfyUiBackend a = pool.backends().get(0);
+        ComfyUiBackend b = pool.backends().get(1);
+        a.healthCheckSucceeded(0);
+        b.healthCheckSucceeded(2);
+        for (int i = 0; i < 5; i++) {
+            a.policy().recordFailure(new IllegalStateException("render failed"));
+        }
+
+        assertThat(pool.select(null)).isSameAs(b);
+        assertThat(pool.selectHedge(null, b)).isEmpty();
+
+        ComfyUiBackendPool healthy = pool("http://a:8188", "http://b:8188");
+        ComfyUiBackend primary = healthy.backends().get(0);
+        primary.dispatched(null);
+        assertThat(healthy.selectHedge(null, primary)).contains(healthy.backends().get(1));
+    }
+}
@@ -0,0 +1,46 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+class ComfyUiCompletionTrackerTest {
+    private final ComfyUiCompletionTracker tracker = new ComfyUiCompletionTracker("http://a:8188", "target/test-output",
+            false, false, new SimpleMeterRegistry());
+
+    @Test
+    void completionBeforeRegistrationIsDelivered() {
+        tracker.onMessage("""
+                {"type": "execution_success", "data": {"prompt_id": "p1"}}""");
+
+        StepVerifier.create(tracker.awaitCompletion("img1", "p1"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void errorBeforeRegistrationFailsTheWaiterImmediately() {
+        tracker.onMessage("""
+                {"type": "execution_error", "data": {"prompt_id": "p1", "exception_message": "out of memory"}}""");
+
+        StepVerifier.create(tracker.awaitCompletion("img1", "p1"))
+                .expectErrorMatches(e -> e instanceof IllegalStateException && e.getMessage().contains("out of memory"))
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void manyEarlyCompletionsDoNotDropTheNewest() {
+        for (int i = 0; i < 2000; i++) {
+            tracker.onMessage("""
+                    {"type": "execution_success", "data": {"prompt_id": "old-%d"}}""".formatted(i));
+        }
+        tracker.onMessage("""
+                {"type": "execution_success", "data": {"prompt_id": "p1"}}""");
+
+        StepVerifier.create(tracker.awaitCompletion("img1", "p1"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,81 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairQueueTest {
+    private static final WorkOwner LONG_STORY = new WorkOwner("long", "alice", StoryPriority.INTERACTIVE);
+    private static final WorkOwner PREVIEW = new WorkOwner("preview", "bob", StoryPriority.INTERACTIVE);
+    private static final WorkOwner BATCH = new WorkOwner("batch", "carol", StoryPriority.BATCH);
+
+    @Test
+    void shortStoryOfAnotherTenantDoesNotWaitForTheLongOne() {
+        FairQueue queue = new FairQueue(Map.of(StoryPriority.INTERACTIVE, 2, StoryPriority.BATCH, 1));
+        for (int i = 0; i < 30; i++) {
+            queue.add(LONG_STORY);
+        }
+        queue.add(PREVIEW);
+        queue.add(PREVIEW);
+
+        assertThat(queue.position("preview")).isEqualTo(2);
+        assertThat(drain(queue).subList(0, 6)).containsExactly("long", "long", "preview", "preview", "long", "long");
+    }
+
+    @Test
+    void interactiveGetsMoreTurnsThanBatchWithoutStarvingIt() {
+        FairQueue queue = new FairQueue(Map.of(StoryPriority.INTERACTIVE, 3, StoryPriority.BATCH, 1));
+        for (int i = 0; i < 4; i++) {
+            queue.add(BATCH);
+        }
+        for (int i = 0; i < 6; i++) {
+            queue.add(LONG_STORY);
+        }
+
+        assertThat(drain(queue)).containsExactly(
+                "batch", "long", "long", "long", "batch", "long", "long", "long", "batch", "batch");
+    }
+
+    @Test
+    void removedTicketsLeaveTheRotation() {
+        FairQueue queue = new FairQueue(Map.of(StoryPriority.INTERACTIVE, 1, StoryPriority.BATCH, 1));
+        FairQueue.Ticket cancelled = queue.add(PREVIEW);
+        queue.add(LONG_STORY);
+
+        assertThat(queue.remove(cancelled)).isTrue();
+        assertThat(queue.remove(cancelled)).isFalse();
+        assertThat(queue.position("preview")).isEqualTo(-1);
+        assertThat(queue.peek().owner()).isEqualTo(LONG_STORY);
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    void backgroundStepsOnlyStartWhenNothingElseWaits() {
+        WorkOwner upgrade = LONG_STORY.inBackground();
+        FairQueue queue = new FairQueue(Map.of(StoryPriority.INTERACTIVE, 1, StoryPriority.BATCH, 1));
+        queue.add(upgrade);
+        queue.add(upgrade);
+        queue.add(BATCH);
+        queue.add(PREVIEW);
+
+        assertThat(queue.size()).isEqualTo(4);
+        assertThat(queue.position("long")).isEqualTo(2);
+        assertThat(queue.poll().owner()).isEqualTo(BATCH);
+        // ein neuer Vordergrund-Schritt überholt die wartenden Upgrades
+        queue.add(PREVIEW);
+        assertThat(drain(queue)).containsExactly("preview", "preview", "long", "long");
+    }
+
+    private static List<String> drain(FairQueue queue) {
+        List<String> order = new ArrayList<>();
+        while (queue.size() > 0) {
+            order.add(queue.poll().owner().storyId());
+        }
+        return order;
+    }
+}
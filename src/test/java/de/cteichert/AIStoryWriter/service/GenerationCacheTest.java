@@ -0,0 +1,72 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GenerationCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private GenerationCache cache(boolean enabled, long maxBytes) {
+        GenerationCache cache = new GenerationCache(enabled, dir.resolve("cache").toString(),
+                DataSize.ofBytes(maxBytes), new SimpleMeterRegistry());
+        cache.load();
+        return cache;
+    }
+
+    @Test
+    void keysAndSeedsAreDeterministic() {
+        assertThat(GenerationCache.key("text", "model", "prompt")).isEqualTo(GenerationCache.key("text", "model", "prompt"));
+        assertThat(GenerationCache.key("ab", "c")).isNotEqualTo(GenerationCache.key("a", "bc"));
+        assertThat(GenerationCache.seed("default", "ckpt", "a castle", 1024, 1024))
+                .isEqualTo(GenerationCache.seed("default", "ckpt", "a castle", 1024, 1024))
+                .isNotNegative();
+    }
+
+    @Test
+    void storesTextAndImagesAndSurvivesRestart() throws Exception {
+        GenerationCache cache = cache(true, 1_000_000);
+        Path image = Files.write(dir.resolve("scene.png"), new byte[]{1, 2, 3});
+        cache.putText("t1", "Es war einmal");
+        cache.putImage("i1", image.toString());
+
+        GenerationCache restarted = cache(true, 1_000_000);
+
+        assertThat(restarted.getText("t1")).contains("Es war einmal");
+        assertThat(restarted.getImage("i1")).hasValueSatisfying(path ->
+                assertThat(path).hasBinaryContent(new byte[]{1, 2, 3}));
+        assertThat(restarted.getText("missing")).isEmpty();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesBySize() {
+        GenerationCache cache = cache(true, 25);
+        cache.putText("a", "0123456789");
+        cache.putText("b", "0123456789");
+        // Zugriff macht "a" zum zuletzt genutzten Eintrag
+        assertThat(cache.getText("a")).isPresent();
+        cache.putText("c", "0123456789");
+
+        assertThat(cache.getText("a")).isPresent();
+        assertThat(cache.getText("b")).isEmpty();
+        assertThat(cache.getText("c")).isPresent();
+        assertThat(cache.sizeInBytes()).isLessThanOrEqualTo(25);
+    }
+
+    @Test
+    void disabledCacheNeverStores() {
+        GenerationCache cache = cache(false, 1_000_000);
+        cache.putText("t1", "Es war einmal");
+
+        assertThat(cache.getText("t1")).isEmpty();
+        assertThat(dir.resolve("cache")).doesNotExist();
+    }
+}
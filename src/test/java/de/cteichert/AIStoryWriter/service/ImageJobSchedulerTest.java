@@ -0,0 +1,178 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ImageJobSchedulerTest {
+    private final List<String> submitted = new CopyOnWriteArrayList<>();
+    private final Map<String, Sinks.One<String>> running = new ConcurrentHashMap<>();
+
+    private ImageJobScheduler scheduler(Duration batchWindow, Duration maxWait) {
+        return scheduler(batchWindow, maxWait, 1);
+    }
+
+    private ImageJobScheduler scheduler(Duration batchWindow, Duration maxWait, int maxInFlight) {
+        return scheduler(batchWindow, maxWait, maxInFlight, 0);
+    }
+
+    private ImageJobScheduler scheduler(Duration batchWindow, Duration maxWait, int maxInFlight, int maxBackgroundInFlight) {
+        StableDiffusionService service = mock(StableDiffusionService.class);
+        when(service.generateImageWithComfyUI(isNull(), anyString(), anyString(), anyString(), anyInt(), anyInt()))
+                .thenAnswer(invocation -> Mono.defer(() -> {
+                    String prompt = invocation.getArgument(2);
+                    submitted.add(prompt);
+                    Sinks.One<String> sink = Sinks.one();
+                    running.put(prompt, sink);
+                    return sink.asMono();
+                }));
+        ComfyUiBackendPool pool = new ComfyUiBackendPool(List.of("http://a:8188"), List.of(), "target/test-output",
+                false, false, Duration.ZERO, 3, 2, WebClient.builder(), ComfyUiBackendPoolTest.policies(), new SimpleMeterRegistry());
+        return new ImageJobScheduler(service, pool, new SimpleMeterRegistry(), true, maxInFlight, maxBackgroundInFlight,
+                batchWindow, maxWait);
+    }
+
+    private void finish(String prompt) {
+        running.remove(prompt).tryEmitValue("/out/" + prompt + ".png");
+    }
+
+    @Test
+    void drainsCurrentCheckpointBeforeSwitching() {
+        ImageJobScheduler scheduler = scheduler(Duration.ZERO, Duration.ofMinutes(1));
+
+        Mono<String> a1 = scheduler.submit(null, "a.safetensors", "a1", "neg", 1024, 1024).cache();
+        a1.subscribe();
+        scheduler.submit(null, "b.safetensors", "b1", "neg", 1024, 1024).subscribe();
+        scheduler.submit(null, "a.safetensors", "a2", "neg", 1024, 1024).subscribe();
+        scheduler.submit(null, "a.safetensors", "a3", "neg", 1024, 1024).subscribe();
+        assertThat(submitted).containsExactly("a1");
+
+        finish("a1");
+        finish("a2");
+        finish("a3");
+
+        assertThat(submitted).containsExactly("a1", "a2", "a3", "b1");
+        assertThat(a1.block(Duration.ofSeconds(1))).isEqualTo("/out/a1.png");
+        assertThat(scheduler.queuedJobs()).isZero();
+    }
+
+    @Test
+    void maxWaitBoundsLatencyOfOtherCheckpoints() {
+        // max-wait 0: jeder wartende Job hat max-wait schon erreicht, ohne dass der Test schlafen muss
+        ImageJobScheduler scheduler = scheduler(Duration.ZERO, Duration.ZERO);
+
+        scheduler.submit(null, "a.safetensors", "a1", "neg", 1024, 1024).subscribe();
+        scheduler.submit(null, "b.safetensors", "b1", "neg", 1024, 1024).subscribe();
+        scheduler.submit(null, "a.safetensors", "a2", "neg", 1024, 1024).subscribe();
+
+        finish("a1");
+
+        // b1 wartet länger als max-wait und überholt a2 trotz gleichem Checkpoint wie a1
+        assertThat(submitted).containsExactly("a1", "b1");
+    }
+
+    @Test
+    void cancelledJobsLeaveTheQueue() {
+        ImageJobScheduler scheduler = scheduler(Duration.ZERO, Duration.ofMinutes(1));
+
+        scheduler.submit(null, "a.safetensors", "a1", "neg", 1024, 1024).subscribe();
+        scheduler.submit(null, "a.safetensors", "a2", "neg", 1024, 1024).subscribe().dispose();
+        assertThat(scheduler.queuedJobs()).isZero();
+
+        finish("a1");
+        assertThat(submitted).containsExactly("a1");
+    }
+
+    @Test
+    void identicalJobsRunOnceAndStayUntilTheLastCallerCancels() {
+        ImageJobScheduler scheduler = scheduler(Duration.ZERO, Duration.ofMinutes(1));
+
+        Disposable first = scheduler.submit(null, "a.safetensors", "b1", "neg", 1024, 1024).subscribe();
+        Mono<String> retry = scheduler.submit(null, "a.safetensors", "b1", "neg", 1024, 1024).cache();
+        retry.subscribe();
+        first.dispose();
+
+        finish("b1");
+
+        assertThat(submitted).containsExactly("b1");
+        assertThat(retry.block(Duration.ofSeconds(1))).isEqualTo("/out/b1.png");
+    }
+
+    @Test
+    void jobsWaitForTheImageLimitInTheSchedulerAndComeOutGrouped() {
+        // Bild-Limit 1, zwei Jobs dürfen dispatcht sein: alle anderen warten im Scheduler und werden dort gruppiert
+        ImageJobScheduler scheduler = scheduler(Duration.ofMinutes(1), Duration.ofMinutes(10), 2);
+        AdaptiveLimit limit = new AdaptiveLimit("image", false, 1, 1, 1, 0.5, 2.0,
+                Map.of(StoryPriority.INTERACTIVE, 1, StoryPriority.BATCH, 1));
+        WorkOwner owner = new WorkOwner("story-1", "default", StoryPriority.INTERACTIVE);
+        UnaryOperator<Mono<String>> admission = render -> limit.acquireAsync("image", owner)
+                .flatMap(permit -> render.doFinally(signal -> permit.release(true)));
+
+        for (String prompt : List.of("a1", "b1", "a2", "b2", "a3")) {
+            String checkpoint = prompt.charAt(0) + ".safetensors";
+            scheduler.submit(null, checkpoint, prompt, "neg", 1024, 1024, admission).subscribe();
+        }
+        assertThat(scheduler.queuedJobs()).isEqualTo(3);
+
+        for (String prompt : List.of("a1", "a2", "a3", "b1", "b2")) {
+            finish(prompt);
+        }
+
+        assertThat(submitted).containsExactly("a1", "a2", "a3", "b1", "b2");
+        assertThat(limit.inFlight()).isZero();
+    }
+
+    @Test
+    void backgroundJobsOnlyRunWhenNoOtherJobWaits() {
+        // max-wait 0 würde jeden wartenden Vordergrund-Job sofort vorziehen, Hintergrund-Jobs nie
+        ImageJobScheduler scheduler = scheduler(Duration.ZERO, Duration.ZERO);
+
+        scheduler.submit(null, "a.safetensors", "p1", "neg", 512, 512).subscribe();
+        scheduler.submit(null, "a.safetensors", "u1", "neg", 1024, 1024, true, UnaryOperator.identity()).subscribe();
+        scheduler.submit(null, "b.safetensors", "p2", "neg", 512, 512).subscribe();
+
+        finish("p1");
+        assertThat(submitted).containsExactly("p1", "p2");
+        scheduler.submit(null, "a.safetensors", "p3", "neg", 512, 512).subscribe();
+
+        finish("p2");
+        finish("p3");
+
+        assertThat(submitted).containsExactly("p1", "p2", "p3", "u1");
+    }
+
+    @Test
+    void backgroundJobsLeaveSlotsForJobsThatComeLater() {
+        ImageJobScheduler scheduler = scheduler(Duration.ZERO, Duration.ofMinutes(1), 2, 1);
+
+        scheduler.submit(null, "a.safetensors", "u1", "neg", 1024, 1024, true, UnaryOperator.identity()).subscribe();
+        scheduler.submit(null, "a.safetensors", "u2", "neg", 1024, 1024, true, UnaryOperator.identity()).subscribe();
+        // der zweite Platz bleibt frei, obwohl sonst nichts wartet
+        assertThat(submitted).containsExactly("u1");
+
+        scheduler.submit(null, "a.safetensors", "p1", "neg", 512, 512).subscribe();
+        assertThat(submitted).containsExactly("u1", "p1");
+
+        finish("u1");
+        assertThat(submitted).containsExactly("u1", "p1", "u2");
+        assertThat(scheduler.queuedJobs()).isZero();
+    }
+}
@@ -0,0 +1,37 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImagePromptScannerTest {
+
+    @Test
+    void detectsPromptOnlyOnceItsLineIsComplete() {
+        ImagePromptScanner scanner = new ImagePromptScanner();
+
+        assertThat(scanner.append("Der Held betritt die Halle.\nIMAGE_PR")).isEmpty();
+        assertThat(scanner.append("OMPT: a hero in a dark hall")).isEmpty();
+        assertThat(scanner.append(", cinematic\nWeiterer Text")).contains("a hero in a dark hall, cinematic");
+        assertThat(scanner.text()).endsWith("Weiterer Text");
+    }
+
+    @Test
+    void finishChecksTrailingLineWithoutNewline() {
+        ImagePromptScanner scanner = new ImagePromptScanner();
+
+        scanner.append("Szene...\nimage_prompt:   misty forest  ");
+
+        assertThat(scanner.imagePrompt()).isEmpty();
+        assertThat(scanner.finish()).contains("misty forest");
+    }
+
+    @Test
+    void noPromptInText() {
+        ImagePromptScanner scanner = new ImagePromptScanner();
+
+        scanner.append("Nur Text\nohne Bild\n");
+
+        assertThat(scanner.finish()).isEmpty();
+    }
+}
@@ -0,0 +1,58 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.SceneDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void idsDoNotDependOnTheOrderOfTheRoots() throws Exception {
+        Path a = Files.createDirectories(dir.resolve("a"));
+        Path b = Files.createDirectories(dir.resolve("b"));
+        Path image = Files.writeString(b.resolve("scene_00001_.png"), "png");
+
+        String id = new ImageStore(List.of(a, b)).idFor(image.toString());
+        ImageStore reordered = new ImageStore(List.of(b, a, dir.resolve("c")));
+
+        assertThat(id).isNotNull();
+        assertThat(reordered.idFor(image.toString())).isEqualTo(id);
+        assertThat(reordered.resolve(id)).contains(image.toAbsolutePath().normalize());
+    }
+
+    @Test
+    void staysInsideTheRoots() throws Exception {
+        Path root = Files.createDirectories(dir.resolve("out"));
+        Files.writeString(dir.resolve("secret.png"), "png");
+        ImageStore store = new ImageStore(List.of(root));
+
+        assertThat(store.idFor(dir.resolve("secret.png").toString())).isNull();
+        String rootId = store.idFor(root.resolve("x.png").toString()).split("\\.")[0];
+        String escaping = rootId + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("../secret.png".getBytes(StandardCharsets.UTF_8));
+        assertThat(store.resolve(escaping)).isEmpty();
+        assertThat(store.resolve("0.abc")).isEmpty();
+    }
+
+    @Test
+    void journaledScenesGetTheCurrentId() throws Exception {
+        Path root = Files.createDirectories(dir.resolve("out"));
+        Path image = Files.writeString(root.resolve("scene_00001_.png"), "png");
+        ImageStore store = new ImageStore(List.of(root));
+
+        SceneDto scene = store.withImageId(new SceneDto(1, "text", image.toString(), "0.c2NlbmVfMDAwMDFfLnBuZw"));
+
+        assertThat(scene.imageId()).isEqualTo(store.idFor(image.toString()));
+        assertThat(store.resolve(scene.imageId())).isPresent();
+    }
+}
@@ -0,0 +1,37 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptAssemblerTest {
+    private final PromptAssembler assembler = new PromptAssembler();
+    private final StoryRequest request = new StoryRequest("Titel", "fantasy", "Nur auf Deutsch", "cinematic, ", 30, "grim", "model", null, null, null);
+
+    @Test
+    void systemMessageIsIdenticalForAllScenesOfAStory() {
+        PromptAssembler.ScenePrompt first = assembler.scene(request, 1, null, "");
+        PromptAssembler.ScenePrompt later = assembler.scene(request, 17, null, "Bisherige Handlung (Zusammenfassung): ...");
+
+        assertThat(later.system()).isEqualTo(first.system());
+        assertThat(first.system()).startsWith(PromptAssembler.INSTRUCTIONS).contains("fantasy", "grim", "Nur auf Deutsch");
+        assertThat(first.user()).contains("Szene 1 von 30", "Dies ist der Anfang der Geschichte.");
+        assertThat(later.user()).contains("Szene 17 von 30", "Zusammenfassung");
+        assertThat(first.system()).doesNotContain("Szene 1 von");
+    }
+
+    @Test
+    void outlineGoesIntoTheSharedPrefix() {
+        StoryOutline outline = StoryOutline.parse("""
+                {"scenes":[{"index":1,"beats":"Aufbruch"},{"index":2,"beats":"Kampf"}]}
+                """, 2).orElseThrow();
+        StoryRequest twoScenes = new StoryRequest("Titel", "fantasy", "", "", 2, "grim", "model", null, null, null);
+
+        PromptAssembler.ScenePrompt first = assembler.scene(twoScenes, 1, outline, "");
+        PromptAssembler.ScenePrompt second = assembler.scene(twoScenes, 2, outline, "");
+
+        assertThat(second.system()).isEqualTo(first.system()).contains("Szene 2: Kampf");
+        assertThat(second.user()).contains("Schreibe jetzt NUR Szene 2: Kampf");
+    }
+}
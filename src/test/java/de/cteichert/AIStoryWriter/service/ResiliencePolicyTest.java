@@ -0,0 +1,147 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResiliencePolicyTest {
+
+    private final AtomicLong clock = new AtomicLong(1);
+
+    private ResiliencePolicy policy(boolean hedge, Duration openDuration) {
+        return new ResiliencePolicy("test", new ResiliencePolicy.Settings(Duration.ofMillis(100), Duration.ofSeconds(10),
+                3.0, hedge, 10, 2, openDuration), new SimpleMeterRegistry());
+    }
+
+    private ResiliencePolicy policyWithClock(Duration openDuration) {
+        return new ResiliencePolicy("test", new ResiliencePolicy.Settings(Duration.ofMillis(100), Duration.ofSeconds(10),
+                3.0, false, 10, 2, openDuration), new SimpleMeterRegistry(), clock::get);
+    }
+
+    private void open(ResiliencePolicy policy) {
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> policy.call(() -> Mono.error(new IllegalStateException("down"))).block())
+                    .isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(policy.state()).isEqualTo(ResiliencePolicy.State.OPEN);
+    }
+
+    @Test
+    void timeoutFollowsP99OfRecentCalls() {
+        ResiliencePolicy policy = policy(false, Duration.ofSeconds(30));
+        // zu wenig Messungen -> max-timeout
+        assertThat(policy.timeout()).isEqualTo(Duration.ofSeconds(10));
+
+        for (int i = 1; i <= 100; i++) {
+            policy.recordSuccess(Duration.ofMillis(i * 10L).toNanos());
+        }
+
+        assertThat(policy.timeout()).isEqualTo(Duration.ofMillis(990 * 3));
+        assertThat(policy.percentile(0.95)).isEqualTo(Duration.ofMillis(950).toNanos());
+        assertThat(policy.hedgeDelay()).isEmpty();
+    }
+
+    @Test
+    void opensAfterRepeatedFailuresAndClosesOnSuccess() {
+        ResiliencePolicy policy = policyWithClock(Duration.ofSeconds(30));
+        AtomicInteger calls = new AtomicInteger();
+
+        open(policy);
+        assertThatThrownBy(() -> policy.call(() -> Mono.fromCallable(calls::incrementAndGet)).block())
+                .isInstanceOf(CircuitOpenException.class);
+        assertThat(calls).hasValue(0);
+
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+        assertThat(policy.state()).isEqualTo(ResiliencePolicy.State.HALF_OPEN);
+        assertThat(policy.call(() -> Mono.just("ok")).block()).isEqualTo("ok");
+        assertThat(policy.state()).isEqualTo(ResiliencePolicy.State.CLOSED);
+    }
+
+    @Test
+    void halfOpenLetsOnlyOneProbeThrough() {
+        ResiliencePolicy policy = policyWithClock(Duration.ofSeconds(30));
+        open(policy);
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+        Sinks.One<String> probeResult = Sinks.one();
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.create(policy.call(() -> {
+                    calls.incrementAndGet();
+                    return probeResult.asMono();
+                }))
+                .then(() -> {
+                    // zweiter Aufruf, während die Probe läuft
+                    assertThat(policy.allowsRequests()).isFalse();
+                    assertThatThrownBy(() -> policy.call(() -> Mono.fromCallable(calls::incrementAndGet)).block())
+                            .isInstanceOf(CircuitOpenException.class);
+                    probeResult.tryEmitError(new IllegalStateException("still down"));
+                })
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(1));
+
+        assertThat(calls).hasValue(1);
+        // Probe gescheitert -> wieder offen, nach open-duration bekommt der nächste Aufruf die Probe
+        assertThat(policy.state()).isEqualTo(ResiliencePolicy.State.OPEN);
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+        assertThat(policy.call(() -> Mono.just("ok")).block()).isEqualTo("ok");
+        assertThat(policy.state()).isEqualTo(ResiliencePolicy.State.CLOSED);
+    }
+
+    @Test
+    void slowCallIsHedgedAndTimesOutByPolicy() {
+        ResiliencePolicy policy = policy(true, Duration.ofSeconds(30));
+        for (int i = 0; i < 10; i++) {
+            policy.recordSuccess(Duration.ofMillis(20).toNanos());
+        }
+        AtomicInteger attempts = new AtomicInteger();
+
+        // erster Versuch hängt, der Hedge nach p95 (20ms) antwortet sofort
+        String result = policy.hedged(() -> attempts.incrementAndGet() == 1 ? Mono.never() : Mono.just("hedge"))
+                .block(Duration.ofSeconds(1));
+
+        assertThat(result).isEqualTo("hedge");
+        assertThat(attempts).hasValue(2);
+        // ohne Hedge greift der Timeout (p99 x 3, mindestens min-timeout)
+        assertThatThrownBy(() -> policy.call(Mono::never).block(Duration.ofSeconds(1)))
+                .hasCauseInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    void primaryErrorIsPropagatedWithoutWaitingForTheHedge() {
+        AtomicInteger backups = new AtomicInteger();
+        Mono<String> backup = Mono.fromCallable(() -> "backup" + backups.incrementAndGet());
+
+        StepVerifier.withVirtualTime(() -> ResiliencePolicy.hedge(
+                        Mono.<String>error(new IllegalStateException("primary down")), Duration.ofMinutes(1), backup))
+                .expectErrorMessage("primary down")
+                .verify(Duration.ofSeconds(1));
+        assertThat(backups).hasValue(0);
+    }
+
+    @Test
+    void failedOrMissingHedgeLeavesThePrimaryAlone() {
+        StepVerifier.withVirtualTime(() -> ResiliencePolicy.hedge(
+                        Mono.delay(Duration.ofMinutes(2)).thenReturn("primary"), Duration.ofMinutes(1),
+                        Mono.<String>error(new CircuitOpenException("open"))))
+                .thenAwait(Duration.ofMinutes(2))
+                .expectNext("primary")
+                .verifyComplete();
+
+        StepVerifier.withVirtualTime(() -> ResiliencePolicy.hedge(
+                        Mono.delay(Duration.ofMinutes(2)).then(Mono.<String>error(new IllegalStateException("late"))),
+                        Duration.ofMinutes(1), Mono.<String>empty()))
+                .thenAwait(Duration.ofMinutes(2))
+                .expectErrorMessage("late")
+                .verify(Duration.ofSeconds(1));
+    }
+}
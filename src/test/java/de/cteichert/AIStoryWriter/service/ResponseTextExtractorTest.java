@@ -0,0 +1,58 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseTextExtractorTest {
+    private final ResponseTextExtractor extractor = new ResponseTextExtractor();
+
+    record Choice(String text) {
+    }
+
+    record Completion(List<Choice> choices) {
+        public List<Choice> getChoices() {
+            return choices;
+        }
+    }
+
+    static class Node {
+        Node next;
+        String label;
+    }
+
+    @Test
+    void readsChatResponseDirectly() {
+        ChatResponse response = new ChatResponse(List.of(new Generation(new AssistantMessage("Es war einmal..."))));
+
+        assertThat(extractor.extract(response)).isEqualTo("Es war einmal...");
+    }
+
+    @Test
+    void readsMapsAndGetters() {
+        assertThat(extractor.extract(Map.of("choices", List.of(Map.of("text", "aus der Map"))))).isEqualTo("aus der Map");
+        assertThat(extractor.extract(new Completion(List.of(new Choice("aus dem Record"))))).isEqualTo("aus dem Record");
+    }
+
+    @Test
+    void survivesCyclicObjectGraphs() {
+        Node a = new Node();
+        Node b = new Node();
+        a.next = b;
+        b.next = a;
+        b.label = "gefunden";
+
+        assertThat(extractor.extract(a)).isEqualTo("gefunden");
+    }
+
+    @Test
+    void nullYieldsEmptyText() {
+        assertThat(extractor.extract(null)).isEmpty();
+    }
+}
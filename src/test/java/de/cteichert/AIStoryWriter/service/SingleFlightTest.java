@@ -0,0 +1,83 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> flights = new SingleFlight<>("test", registry);
+
+    @Test
+    void duplicatesShareOneExecution() {
+        AtomicInteger executions = new AtomicInteger();
+        Sinks.One<String> result = Sinks.one();
+
+        Mono<String> first = flights.execute("key", () -> {
+            executions.incrementAndGet();
+            return result.asMono();
+        }).cache();
+        first.subscribe();
+        Mono<String> retry = flights.execute("key", () -> Mono.error(new IllegalStateException("second run"))).cache();
+        retry.subscribe();
+        result.tryEmitValue("story");
+
+        assertThat(first.block(Duration.ofSeconds(1))).isEqualTo("story");
+        assertThat(retry.block(Duration.ofSeconds(1))).isEqualTo("story");
+        assertThat(executions).hasValue(1);
+        assertThat(registry.get("story.coalesced").tag("type", "test").counter().count()).isEqualTo(1.0);
+        // nach dem Ende startet der nächste Aufruf neu
+        assertThat(flights.isInFlight("key")).isFalse();
+        assertThat(flights.execute("key", () -> Mono.just("again")).block(Duration.ofSeconds(1))).isEqualTo("again");
+    }
+
+    @Test
+    void cancelsOnlyWhenTheLastCallerLeaves() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Mono<String> never = Mono.<String>never().doOnCancel(() -> cancelled.set(true));
+
+        Disposable first = flights.execute("key", () -> never).subscribe();
+        Disposable retry = flights.execute("key", () -> never).subscribe();
+        first.dispose();
+        assertThat(cancelled).isFalse();
+        assertThat(flights.isInFlight("key")).isTrue();
+
+        retry.dispose();
+        assertThat(cancelled).isTrue();
+        assertThat(flights.size()).isZero();
+    }
+
+    @Test
+    void callerArrivingWhileTheLastOneCancelsStartsAFreshRun() {
+        AtomicInteger executions = new AtomicInteger();
+        AtomicReference<String> fresh = new AtomicReference<>();
+        // kommt genau in dem Moment, in dem die alte Ausführung abgebrochen wird
+        Mono<String> old = Mono.<String>never().doOnCancel(() -> flights.execute("key", () -> {
+            executions.incrementAndGet();
+            return Mono.just("fresh");
+        }).subscribe(fresh::set));
+
+        Disposable first = flights.execute("key", () -> {
+            executions.incrementAndGet();
+            return old;
+        }).subscribe();
+        first.dispose();
+
+        assertThat(fresh).hasValue("fresh");
+        assertThat(executions).hasValue(2);
+        assertThat(registry.get("story.coalesced").tag("type", "test").counter().count()).isZero();
+        assertThat(flights.size()).isZero();
+
+        // und danach wieder ganz normal
+        assertThat(flights.execute("key", () -> Mono.just("again")).block(Duration.ofSeconds(1))).isEqualTo("again");
+    }
+}
@@ -0,0 +1,34 @@
+package de.cteichert.AIStoryWriter.service;
+
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StableDiffusionServiceTest {
+
+    private static WebClientRequestException requestFailure(Throwable cause) {
+        return new WebClientRequestException(cause, HttpMethod.POST, URI.create("http://comfyui/prompt"), HttpHeaders.EMPTY);
+    }
+
+    @Test
+    void rejectedOrUnsentPromptFailsTheAttempt() {
+        assertThat(StableDiffusionService.maybeSubmitted(
+                WebClientResponseException.create(400, "Bad Request", HttpHeaders.EMPTY, new byte[0], null))).isFalse();
+        assertThat(StableDiffusionService.maybeSubmitted(requestFailure(new ConnectException("Connection refused")))).isFalse();
+    }
+
+    @Test
+    void unansweredPromptMayStillBeQueued() {
+        assertThat(StableDiffusionService.maybeSubmitted(new TimeoutException("no answer"))).isTrue();
+        assertThat(StableDiffusionService.maybeSubmitted(requestFailure(ReadTimeoutException.INSTANCE))).isTrue();
+    }
+}
@@ -0,0 +1,87 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StoryContextTest {
+
+    @Test
+    void firstSceneHasNoContext() {
+        StoryContext context = new StoryContext(100, 200, 50, 100, (summary, text) -> Mono.just(summary + text));
+
+        assertThat(context.promptContext(1)).isEmpty();
+    }
+
+    @Test
+    void promptStaysWithinBudgetForLongStories() {
+        // Zusammenfassung wächst absichtlich mit, der Kontext muss trotzdem beschränkt bleiben
+        StoryContext context = new StoryContext(100, 200, 50, 100, (summary, text) -> Mono.just(summary + " " + text));
+        String scene = "Der Held wandert weiter durch den dunklen Wald und trifft neue Gefährten. ".repeat(20);
+
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            context.sceneFinished(i, scene + " Szene " + i);
+            sizes.add(StoryContext.estimateTokens(context.promptContext(i + 1)));
+        }
+
+        assertThat(context.summarizedUpTo()).isEqualTo(40);
+        assertThat(sizes).allSatisfy(tokens -> assertThat(tokens).isLessThanOrEqualTo(200 + 30));
+        assertThat(context.promptContext(41)).contains("Ende von Szene 40").contains("Szene 40");
+    }
+
+    @Test
+    void unsummarizedScenesAreIncludedByTailUntilSummaryArrives() {
+        Sinks.One<String> pending = Sinks.one();
+        StoryContext context = new StoryContext(100, 300, 50, 100, (summary, text) -> pending.asMono());
+
+        context.sceneFinished(1, "Anna findet den Schlüssel.");
+        context.sceneFinished(2, "Anna öffnet das Tor.");
+
+        assertThat(context.promptContext(3))
+                .contains("Ende von Szene 1: Anna findet den Schlüssel.")
+                .contains("Ende von Szene 2 (direkt daran anschließen): Anna öffnet das Tor.")
+                .doesNotContain("Zusammenfassung");
+
+        pending.tryEmitValue("Anna hat einen Schlüssel.");
+
+        assertThat(context.summary()).isEqualTo("Anna hat einen Schlüssel.");
+        assertThat(context.promptContext(3))
+                .startsWith("Bisherige Handlung (Zusammenfassung): Anna hat einen Schlüssel.")
+                .doesNotContain("Ende von Szene 1");
+    }
+
+    @Test
+    void failedSummaryKeepsSceneTail() {
+        StoryContext context = new StoryContext(100, 300, 50, 100,
+                (summary, text) -> Mono.error(new IllegalStateException("LLM down")));
+
+        context.sceneFinished(1, "Der Drache schläft.");
+
+        assertThat(context.summarizedUpTo()).isZero();
+        assertThat(context.promptContext(2)).contains("Der Drache schläft.");
+    }
+
+    @Test
+    void closeCancelsRunningSummaryAndStartsNoMore() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<String> summarized = new ArrayList<>();
+        StoryContext context = new StoryContext(100, 300, 50, 100, (summary, text) -> {
+            summarized.add(text);
+            return Mono.<String>never().doOnCancel(() -> cancelled.set(true));
+        });
+
+        context.sceneFinished(1, "Der Drache schläft.");
+        context.close();
+        context.sceneFinished(2, "Der Drache erwacht.");
+
+        assertThat(cancelled).isTrue();
+        assertThat(summarized).containsExactly("Der Drache schläft.");
+    }
+}
@@ -0,0 +1,46 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.SceneDto;
+import de.cteichert.AIStoryWriter.model.StoryEvent;
+import de.cteichert.AIStoryWriter.model.StoryJob;
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StoryJobServiceTest {
+    private static final StoryRequest REQUEST =
+            new StoryRequest("Titel", "fantasy", "", "", 3, "grim", null, null, "tenant-a", StoryPriority.BATCH);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fallbackScenesAreNotJournaledAndGetRegeneratedOnResume() {
+        StoryJobStore store = new StoryJobStore(dir.toString());
+        store.load();
+        StoryService storyService = mock(StoryService.class);
+        when(storyService.streamStory(any(), anyString(), any())).thenAnswer(invocation -> {
+            String jobId = invocation.getArgument(1);
+            return Flux.just(
+                    StoryEvent.started(jobId, "Titel", 3),
+                    StoryEvent.sceneImage(jobId, new SceneDto(1, "eins", "/out/1.png"), 1, 3),
+                    StoryEvent.sceneImage(jobId, new SceneDto(2, StoryService.FALLBACK_TEXT + "timeout", ""), 2, 3),
+                    StoryEvent.sceneImage(jobId, new SceneDto(3, "drei", ""), 3, 3));
+        });
+
+        StoryJob job = new StoryJobService(storyService, store, false).submit(REQUEST);
+
+        // nur Szene 1 ist fertig, 2 (Text) und 3 (Bild) laufen beim Fortsetzen erneut
+        assertThat(store.find(job.jobId()).orElseThrow().scenes()).extracting(SceneDto::index).containsExactly(1);
+    }
+}
@@ -0,0 +1,78 @@
+package de.cteichert.AIStoryWriter.service;
+
+import de.cteichert.AIStoryWriter.model.SceneDto;
+import de.cteichert.AIStoryWriter.model.StoryJob;
+import de.cteichert.AIStoryWriter.model.StoryPriority;
+import de.cteichert.AIStoryWriter.model.StoryRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StoryJobStoreTest {
+    private static final StoryRequest REQUEST =
+            new StoryRequest("Titel", "fantasy", "", "", 3, "grim", null, null, "tenant-a", StoryPriority.BATCH);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysFinishedScenesAfterRestart() throws Exception {
+        StoryJobStore store = new StoryJobStore(dir.toString());
+        store.load();
+        store.create("job-1", REQUEST);
+        store.markRunning("job-1");
+        store.saveScene("job-1", new SceneDto(2, "zwei", "/out/2.png"));
+        store.saveScene("job-1", new SceneDto(1, "eins", "/out/1.png"));
+        store.saveScene("job-1", new SceneDto(1, "doppelt", "/out/x.png"));
+        // Absturz mitten im Schreiben der nächsten Zeile
+        Files.writeString(dir.resolve("job-1.jsonl"), "{\"type\":\"sce", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        StoryJobStore restarted = new StoryJobStore(dir.toString());
+        restarted.load();
+
+        StoryJob job = restarted.find("job-1").orElseThrow();
+        assertThat(job.status()).isEqualTo(StoryJob.Status.QUEUED);
+        assertThat(job.request()).isEqualTo(REQUEST);
+        assertThat(job.scenes()).extracting(SceneDto::index).containsExactly(1, 2);
+        assertThat(job.scenes().get(0).text()).isEqualTo("eins");
+        assertThat(restarted.findUnfinished()).extracting(StoryJob::jobId).containsExactly("job-1");
+    }
+
+    @Test
+    void completedJobsAreNotResumed() {
+        StoryJobStore store = new StoryJobStore(dir.toString());
+        store.load();
+        store.create("job-2", REQUEST);
+        store.complete("job-2");
+
+        StoryJobStore restarted = new StoryJobStore(dir.toString());
+        restarted.load();
+
+        assertThat(restarted.find("job-2")).get().extracting(StoryJob::status).isEqualTo(StoryJob.Status.COMPLETED);
+        assertThat(restarted.findUnfinished()).isEmpty();
+    }
+
+    @Test
+    void upgradedImagesReplaceThePreview() {
+        StoryJobStore store = new StoryJobStore(dir.toString());
+        store.load();
+        store.create("job-3", REQUEST);
+        store.saveScene("job-3", new SceneDto(1, "eins", "/out/preview.png"));
+        store.updateSceneImage("job-3", new SceneDto(1, "eins", "/out/final.png"));
+        // Upgrade ohne gesicherte Szene wird ignoriert
+        store.updateSceneImage("job-3", new SceneDto(2, "zwei", "/out/2.png"));
+
+        StoryJobStore restarted = new StoryJobStore(dir.toString());
+        restarted.load();
+
+        assertThat(restarted.find("job-3").orElseThrow().scenes())
+                .extracting(SceneDto::imagePath)
+                .containsExactly("/out/final.png");
+    }
+}
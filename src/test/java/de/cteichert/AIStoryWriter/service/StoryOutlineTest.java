@@ -0,0 +1,37 @@
+package de.cteichert.AIStoryWriter.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StoryOutlineTest {
+
+    @Test
+    void parsesJsonInsideMarkdown() {
+        String raw = """
+                Hier die Gliederung:
+                ```json
+                {"scenes": [
+                  {"index": 2, "beats": "Der Held findet das Schwert.", "characters": ["Aren"], "imagePrompt": "a glowing sword in a cave"},
+                  {"index": 1, "beats": "Aren verlässt sein Dorf.", "characters": ["Aren", "Mira"]}
+                ]}
+                ```
+                """;
+
+        StoryOutline outline = StoryOutline.parse(raw, 2).orElseThrow();
+
+        assertThat(outline.scenes()).extracting(StoryOutline.Scene::index).containsExactly(1, 2);
+        assertThat(outline.scene(1).orElseThrow().imagePrompt()).isNull();
+        assertThat(outline.scene(2).orElseThrow().imagePrompt()).isEqualTo("a glowing sword in a cave");
+        assertThat(outline.overview()).contains("Szene 2: Der Held findet das Schwert.");
+        assertThat(outline.sceneBrief(1)).isEqualTo("Schreibe jetzt NUR Szene 1: Aren verlässt sein Dorf. Figuren: Aren, Mira.");
+    }
+
+    @Test
+    void rejectsIncompleteOrBrokenOutlines() {
+        assertThat(StoryOutline.parse("{\"scenes\": [{\"index\": 1, \"beats\": \"nur eine\"}]}", 2)).isEmpty();
+        assertThat(StoryOutline.parse("{\"scenes\": [{\"index\": 1, \"beats\": \"\"}]}", 1)).isEmpty();
+        assertThat(StoryOutline.parse("Leider kann ich das nicht.", 1)).isEmpty();
+        assertThat(StoryOutline.parse("{\"scenes\": [", 1)).isEmpty();
+    }
+}
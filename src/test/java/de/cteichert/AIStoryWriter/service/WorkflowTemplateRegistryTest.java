@@ -0,0 +1,57 @@
+package de.cteichert.AIStoryWriter.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkflowTemplateRegistryTest {
+
+    @Test
+    void loadsDefaultWorkflowAndPatchesNodesByRole() throws Exception {
+        WorkflowTemplateRegistry registry = new WorkflowTemplateRegistry("default");
+        registry.load();
+
+        WorkflowTemplate template = registry.get(null);
+        ObjectNode workflow = template.instantiate(new WorkflowParameters(
+                "model.safetensors", "a \"red\" castle", "blurry", 768, 512, 42L, "img-1"));
+
+        assertThat(workflow.at("/3/inputs/seed").asLong()).isEqualTo(42L);
+        assertThat(workflow.at("/4/inputs/ckpt_name").asText()).isEqualTo("model.safetensors");
+        assertThat(workflow.at("/5/inputs/width").asInt()).isEqualTo(768);
+        assertThat(workflow.at("/5/inputs/height").asInt()).isEqualTo(512);
+        assertThat(workflow.at("/6/inputs/text").asText()).isEqualTo("a 'red' castle");
+        assertThat(workflow.at("/7/inputs/text").asText()).isEqualTo("blurry");
+        assertThat(workflow.at("/9/inputs/filename_prefix").asText()).isEqualTo("img-1");
+
+        // Template bleibt unverändert
+        ObjectNode second = template.instantiate(new WorkflowParameters(
+                null, "forest", null, 512, 512, 1L, "img-2"));
+        assertThat(second.at("/4/inputs/ckpt_name").asText()).isEqualTo("Juggernaut-XI-byRunDiffusion.safetensors");
+        assertThat(template.checkpoint()).isEqualTo("Juggernaut-XI-byRunDiffusion.safetensors");
+        assertThat(second.at("/7/inputs/text").asText()).isEqualTo("watermark, bad anatomy");
+    }
+
+    @Test
+    void rejectsWorkflowWithoutSaveNode() throws Exception {
+        var json = new ObjectMapper().readTree("""
+                {"1": {"class_type": "KSampler", "inputs": {"positive": ["2", 0]}},
+                 "2": {"class_type": "CLIPTextEncode", "inputs": {"text": ""}}}
+                """);
+
+        assertThatThrownBy(() -> WorkflowTemplate.of("broken", json))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("SaveImage");
+    }
+
+    @Test
+    void unknownWorkflowNameFails() throws Exception {
+        WorkflowTemplateRegistry registry = new WorkflowTemplateRegistry("default");
+        registry.load();
+
+        assertThatThrownBy(() -> registry.get("does-not-exist"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}